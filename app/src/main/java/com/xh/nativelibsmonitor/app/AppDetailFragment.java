@@ -147,11 +147,11 @@ public class AppDetailFragment extends Fragment {
                             /* adding frameworks from installed and packaged libs */
             final TreeSet<String> frameworksInApp = new TreeSet<>();
             for (final NativeLibrary lib : mItem.app.installedNativeLibs) {
-                frameworksInApp.addAll(lib.frameworks);
+                frameworksInApp.addAll(lib.getFrameworks());
             }
 
             for (final NativeLibrary lib : mItem.app.packagedNativeLibs) {
-                frameworksInApp.addAll(lib.frameworks);
+                frameworksInApp.addAll(lib.getFrameworks());
             }
 
             if (frameworksInApp.size() > 0)
@@ -488,8 +488,11 @@ public class AppDetailFragment extends Fragment {
             AppDetailFragment fragment = appDetailFragmentWeakReference.get();
             if (fragment != null) {
                 Activity activity = fragment.getActivity();
-                if (activity != null)
-                    return DatabaseHandler.getInstance(activity).getApplication(appIds[0]);
+                if (activity != null) {
+                    final DatabaseHandler dbHandler = DatabaseHandler.getInstance(activity);
+                    dbHandler.ensureDeepAnalyzed(appIds[0]); // the initial scan may only have found the ABIs of its libs.
+                    return dbHandler.getApplication(appIds[0]);
+                }
             }
             return null;
         }
@@ -523,11 +526,11 @@ public class AppDetailFragment extends Fragment {
                             /* adding frameworks from installed and packaged libs */
                         final TreeSet<String> frameworksInApp = new TreeSet<>();
                         for (final NativeLibrary lib : applicationEntry.app.installedNativeLibs) {
-                            frameworksInApp.addAll(lib.frameworks);
+                            frameworksInApp.addAll(lib.getFrameworks());
                         }
 
                         for (final NativeLibrary lib : applicationEntry.app.packagedNativeLibs) {
-                            frameworksInApp.addAll(lib.frameworks);
+                            frameworksInApp.addAll(lib.getFrameworks());
                         }
 
                         if (frameworksInApp.size() > 0)
@@ -29,7 +29,7 @@ import android.content.Intent;
 import android.content.Loader;
 import android.content.SharedPreferences;
 import android.database.Cursor;
-import android.graphics.BitmapFactory;
+import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
@@ -55,6 +55,7 @@ import com.xh.nativelibsmonitor.database.AppProvider;
 import com.xh.nativelibsmonitor.database.ApplicationEntry;
 import com.xh.nativelibsmonitor.database.DatabaseHandler;
 import com.xh.nativelibsmonitor.lib.ApplicationType;
+import com.xh.nativelibsmonitor.lib.IconCache;
 
 import java.lang.ref.WeakReference;
 
@@ -151,7 +152,7 @@ public class AppsListFragment extends ListFragment implements LoaderManager.Load
         SimpleCursorAdapter adapter = new SimpleCursorAdapter(getActivity(),
                 R.layout.list_item_apps, null, new String[]{
                 ApplicationEntry.COL_APPNAME, ApplicationEntry.COL_PACKAGENAME,
-                ApplicationEntry.COL_APPLICATIONTYPE, ApplicationEntry.COL_PNGICON, ApplicationEntry.COL_LASTUPDATE}, new int[]{R.id.listAppName,
+                ApplicationEntry.COL_APPLICATIONTYPE, ApplicationEntry.COL_PACKAGENAME, ApplicationEntry.COL_LASTUPDATE}, new int[]{R.id.listAppName,
                 R.id.listAppPackageName, R.id.listAppType, R.id.listAppImageView, R.id.listAppLastUpdate}, 0
         );
 
@@ -446,18 +447,17 @@ public class AppsListFragment extends ListFragment implements LoaderManager.Load
                     public boolean onMenuItemClick(MenuItem item) {
                         Activity activity = weakReferenceActivity.get();
                         if (activity != null) {
+                            // a scan still running gets pre-empted by the refresh.
                             final DatabaseHandler db = DatabaseHandler.getInstance(activity);
-                            if (db.isNotBeingPopulated()) {
-                                startDisplayingLoader();
-                                Thread bgThread = new Thread(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        db.refreshDatabase();
-                                    }
-                                });
-                                bgThread.setPriority(Thread.MIN_PRIORITY);
-                                bgThread.start();
-                            }
+                            startDisplayingLoader();
+                            Thread bgThread = new Thread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    db.refreshDatabase();
+                                }
+                            });
+                            bgThread.setPriority(Thread.MIN_PRIORITY);
+                            bgThread.start();
                         }
                         return true;
                     }
@@ -549,11 +549,26 @@ public class AppsListFragment extends ListFragment implements LoaderManager.Load
         public boolean setViewValue(@NonNull View view, @NonNull Cursor cursor, int columnIndex) {
             if (view.getId() == R.id.listAppImageView) {
                 final ImageView iv = (ImageView) view;
-                final byte[] pngIcon = cursor.getBlob(columnIndex);
-                if (pngIcon != null && pngIcon.length > 0) {
-                    iv.setImageBitmap(BitmapFactory.decodeByteArray(pngIcon, 0, pngIcon.length));
-                } else
-                    iv.setVisibility(View.GONE);
+                final String packageName = cursor.getString(columnIndex);
+                final long versionCode = cursor.getLong(cursor.getColumnIndex(ApplicationEntry.COL_VERSIONCODE));
+                // views get recycled while icons load: the tag tells which app the view currently shows.
+                final String iconTag = packageName + '@' + versionCode;
+                iv.setTag(iconTag);
+                iv.setImageDrawable(null);
+                // apps on screen get analyzed before the others.
+                DatabaseHandler.getInstance(view.getContext()).promoteApp(packageName);
+                IconCache.getInstance(view.getContext()).load(packageName, versionCode, new IconCache.Listener() {
+                    @Override
+                    public void onIconLoaded(@Nullable Bitmap icon) {
+                        if (!iconTag.equals(iv.getTag()))
+                            return;
+                        if (icon != null) {
+                            iv.setImageBitmap(icon);
+                            iv.setVisibility(View.VISIBLE);
+                        } else
+                            iv.setVisibility(View.GONE);
+                    }
+                });
                 return true;
             } else if (view.getId() == R.id.listAppLastUpdate) {
                 final TextView tv = (TextView) view;
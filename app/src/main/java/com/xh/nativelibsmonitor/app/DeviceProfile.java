@@ -0,0 +1,274 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.app;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.opengl.GLES10;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.xh.nativelibsmonitor.lib.AppAnalyzer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+import javax.microedition.khronos.egl.EGLSurface;
+
+/**
+ * Device properties that are costly to get: the native bridge version needs its library to be parsed,
+ * and the GLES strings an EGL context. They are computed in background once per system build, then kept
+ * in preferences until Build.FINGERPRINT changes. GLES strings that couldn't be read aren't kept, so they are
+ * tried again on the next launch.
+ */
+public final class DeviceProfile {
+    private static final String PREFERENCES_NAME = "device_profile";
+    // bumped when what's stored changes, to recompute the profile.
+    private static final int PROFILE_VERSION = 1;
+    private static final String KEY_PROFILE_VERSION = "profile_version";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String KEY_SUPPORTED_ABIS = "supported_abis";
+    private static final String KEY_NATIVE_BRIDGE_VERSION = "native_bridge_version";
+    private static final String KEY_GL_VERSION = "gl_version";
+    private static final String KEY_GL_VENDOR = "gl_vendor";
+    private static final String KEY_GL_RENDERER = "gl_renderer";
+    // EGL 1.3 / EGL_KHR_create_context values missing from EGL10.
+    private static final int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
+    private static final int EGL_OPENGL_ES_BIT = 0x0001;
+    private static final int EGL_OPENGL_ES2_BIT = 0x0004;
+    private static final int EGL_OPENGL_ES3_BIT_KHR = 0x0040;
+
+    private static DeviceProfile sProfile;
+    private static boolean sLoading = false;
+    private static final List<Listener> sListeners = new ArrayList<>();
+
+    @NonNull
+    public final String fingerprint;
+    @NonNull
+    public final String supportedAbis;
+    @NonNull
+    public final String nativeBridgeVersion;
+    @NonNull
+    public final String glVersion;
+    @NonNull
+    public final String glVendor;
+    @NonNull
+    public final String glRenderer;
+
+    public interface Listener {
+        void onDeviceProfileLoaded(@NonNull DeviceProfile profile);
+    }
+
+    private DeviceProfile(@NonNull String fingerprint, @NonNull String supportedAbis, @NonNull String nativeBridgeVersion,
+                          @NonNull String glVersion, @NonNull String glVendor, @NonNull String glRenderer) {
+        this.fingerprint = fingerprint;
+        this.supportedAbis = supportedAbis;
+        this.nativeBridgeVersion = nativeBridgeVersion;
+        this.glVersion = glVersion;
+        this.glVendor = glVendor;
+        this.glRenderer = glRenderer;
+    }
+
+    /**
+     * Gets the profile of the device, loading it in background the first time. The listener is called on the UI thread,
+     * right away if the profile is already loaded. A null listener only starts the loading.
+     */
+    public static void load(@NonNull Context context, @Nullable Listener listener) {
+        final DeviceProfile profile;
+        synchronized (DeviceProfile.class) {
+            if (sProfile == null) {
+                if (listener != null)
+                    sListeners.add(listener);
+                if (!sLoading) {
+                    sLoading = true;
+                    new LoadProfileAsyncTask(context.getApplicationContext()).execute();
+                }
+                return;
+            }
+            profile = sProfile;
+        }
+        if (listener != null)
+            listener.onDeviceProfileLoaded(profile);
+    }
+
+    /**
+     * Stops a listener from being called, when it goes away before the profile is loaded.
+     */
+    public static synchronized void removeListener(@NonNull Listener listener) {
+        sListeners.remove(listener);
+    }
+
+    @Nullable
+    private static DeviceProfile read(@NonNull SharedPreferences prefs) {
+        if (prefs.getInt(KEY_PROFILE_VERSION, -1) != PROFILE_VERSION || !Build.FINGERPRINT.equals(prefs.getString(KEY_FINGERPRINT, null))
+                || !prefs.contains(KEY_GL_VERSION))
+            return null;
+
+        return new DeviceProfile(Build.FINGERPRINT,
+                prefs.getString(KEY_SUPPORTED_ABIS, ""),
+                prefs.getString(KEY_NATIVE_BRIDGE_VERSION, ""),
+                prefs.getString(KEY_GL_VERSION, ""),
+                prefs.getString(KEY_GL_VENDOR, ""),
+                prefs.getString(KEY_GL_RENDERER, ""));
+    }
+
+    // without GL_VERSION, EGL failed: the GL keys are left out so that the profile gets computed again.
+    private void write(@NonNull SharedPreferences prefs) {
+        final SharedPreferences.Editor editor = prefs.edit()
+                .putInt(KEY_PROFILE_VERSION, PROFILE_VERSION)
+                .putString(KEY_FINGERPRINT, fingerprint)
+                .putString(KEY_SUPPORTED_ABIS, supportedAbis)
+                .putString(KEY_NATIVE_BRIDGE_VERSION, nativeBridgeVersion);
+        if (glVersion.isEmpty()) {
+            editor.remove(KEY_GL_VERSION)
+                    .remove(KEY_GL_VENDOR)
+                    .remove(KEY_GL_RENDERER);
+        } else {
+            editor.putString(KEY_GL_VERSION, glVersion)
+                    .putString(KEY_GL_VENDOR, glVendor)
+                    .putString(KEY_GL_RENDERER, glRenderer);
+        }
+        editor.apply();
+    }
+
+    @NonNull
+    private static DeviceProfile compute(@NonNull Context context) {
+        final ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int glEsVersionMajor = ((activityManager.getDeviceConfigurationInfo().reqGlEsVersion & 0xffff0000) >> 16);
+        if (glEsVersionMajor < 1) glEsVersionMajor = 1;
+
+        final String[] glStrings = getGlStrings(glEsVersionMajor);
+        return new DeviceProfile(Build.FINGERPRINT, getSupportedABIs(), AppAnalyzer.getNativeBridgeVersion(),
+                glStrings[0], glStrings[1], glStrings[2]);
+    }
+
+    @SuppressWarnings("deprecation")
+    @NonNull
+    private static String getSupportedABIs() {
+        StringBuilder sb = new StringBuilder();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            for (final String abi : Build.SUPPORTED_ABIS) {
+                sb.append(abi).append(", ");
+            }
+            sb.setLength(sb.length() - 2);
+        } else {
+            sb.append(Build.CPU_ABI);
+            if (!Build.CPU_ABI2.isEmpty())
+                sb.append(", ").append(Build.CPU_ABI2);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Reads GL_VERSION, GL_VENDOR and GL_RENDERER from an offscreen 1x1 pbuffer context, without any view.
+     * Strings that can't be read are empty.
+     */
+    @NonNull
+    private static String[] getGlStrings(int glEsVersionMajor) {
+        final String[] glStrings = {"", "", ""};
+        final EGL10 egl = (EGL10) EGLContext.getEGL();
+        final EGLDisplay display = egl.eglGetDisplay(EGL10.EGL_DEFAULT_DISPLAY);
+        if (display == EGL10.EGL_NO_DISPLAY || !egl.eglInitialize(display, null))
+            return glStrings;
+
+        EGLSurface surface = EGL10.EGL_NO_SURFACE;
+        EGLContext context = EGL10.EGL_NO_CONTEXT;
+        try {
+            final int renderableType = glEsVersionMajor >= 3 ? EGL_OPENGL_ES3_BIT_KHR
+                    : glEsVersionMajor == 2 ? EGL_OPENGL_ES2_BIT : EGL_OPENGL_ES_BIT;
+            final int[] configAttributes = {
+                    EGL10.EGL_SURFACE_TYPE, EGL10.EGL_PBUFFER_BIT,
+                    EGL10.EGL_RENDERABLE_TYPE, renderableType,
+                    EGL10.EGL_NONE};
+            final EGLConfig[] configs = new EGLConfig[1];
+            final int[] configCount = new int[1];
+            if (!egl.eglChooseConfig(display, configAttributes, configs, 1, configCount) || configCount[0] == 0)
+                return glStrings;
+
+            surface = egl.eglCreatePbufferSurface(display, configs[0], new int[]{EGL10.EGL_WIDTH, 1, EGL10.EGL_HEIGHT, 1, EGL10.EGL_NONE});
+            context = egl.eglCreateContext(display, configs[0], EGL10.EGL_NO_CONTEXT,
+                    new int[]{EGL_CONTEXT_CLIENT_VERSION, glEsVersionMajor, EGL10.EGL_NONE});
+            if (surface == EGL10.EGL_NO_SURFACE || context == EGL10.EGL_NO_CONTEXT
+                    || !egl.eglMakeCurrent(display, surface, surface, context))
+                return glStrings;
+
+            glStrings[0] = nonNull(GLES10.glGetString(GLES10.GL_VERSION));
+            glStrings[1] = nonNull(GLES10.glGetString(GLES10.GL_VENDOR));
+            glStrings[2] = nonNull(GLES10.glGetString(GLES10.GL_RENDERER));
+            egl.eglMakeCurrent(display, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_CONTEXT);
+        } finally {
+            if (context != EGL10.EGL_NO_CONTEXT)
+                egl.eglDestroyContext(display, context);
+            if (surface != EGL10.EGL_NO_SURFACE)
+                egl.eglDestroySurface(display, surface);
+            egl.eglTerminate(display);
+        }
+        return glStrings;
+    }
+
+    @NonNull
+    private static String nonNull(@Nullable String string) {
+        return string != null ? string : "";
+    }
+
+    private static class LoadProfileAsyncTask extends AsyncTask<Void, Void, DeviceProfile> {
+        @NonNull
+        private final Context context;
+
+        LoadProfileAsyncTask(@NonNull Context context) {
+            super();
+            this.context = context;
+        }
+
+        @Override
+        protected DeviceProfile doInBackground(Void... params) {
+            final SharedPreferences prefs = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+            DeviceProfile profile = read(prefs);
+            if (profile == null) { // first run, or the system got updated.
+                profile = compute(context);
+                profile.write(prefs);
+            }
+            return profile;
+        }
+
+        @Override
+        protected void onPostExecute(DeviceProfile profile) {
+            super.onPostExecute(profile);
+
+            final List<Listener> listeners;
+            synchronized (DeviceProfile.class) {
+                sProfile = profile;
+                sLoading = false;
+                listeners = new ArrayList<>(sListeners);
+                sListeners.clear();
+            }
+            for (final Listener listener : listeners) {
+                listener.onDeviceProfileLoaded(profile);
+            }
+        }
+    }
+}
@@ -79,21 +79,21 @@ public class NativeLibDetailsFragment extends DialogFragment {
         sizeTextView.setText(Html.fromHtml("<b>Size:</b> " + humanReadableFileSize(nativeLibrary.size)));
         abiTextView.setText(Html.fromHtml("<b>ABI:</b> " + ABI.getStringForABI(nativeLibrary.abi)));
 
-        if (nativeLibrary.entryPoints.size() > 0) {
+        if (nativeLibrary.getEntryPoints().size() > 0) {
             Activity activity = getActivity();
             assert activity != null;
             entryPointsListView.setAdapter(new ArrayAdapter<>(activity,
-                    R.layout.list_item_entrypoints, android.R.id.text1, nativeLibrary.entryPoints));
+                    R.layout.list_item_entrypoints, android.R.id.text1, nativeLibrary.getEntryPoints()));
         } else
             entryPointsTitleTextView.setVisibility(View.GONE);
 
-        if (nativeLibrary.dependencies.size() > 0) {
-            dependenciesTextView.setText(Html.fromHtml("<b>Dependencies:</b> " + nativeLibrary.dependencies.toString().replaceAll("[\\[\\]]", "")));
+        if (nativeLibrary.getDependencies().size() > 0) {
+            dependenciesTextView.setText(Html.fromHtml("<b>Dependencies:</b> " + nativeLibrary.getDependencies().toString().replaceAll("[\\[\\]]", "")));
         } else
             dependenciesTextView.setVisibility(View.GONE);
 
-        if (nativeLibrary.frameworks.size() > 0) {
-            frameworksTextView.setText(Html.fromHtml("<b>Known Frameworks:</b> " + nativeLibrary.frameworks.toString().replaceAll("[\\[\\]]", "")));
+        if (nativeLibrary.getFrameworks().size() > 0) {
+            frameworksTextView.setText(Html.fromHtml("<b>Known Frameworks:</b> " + nativeLibrary.getFrameworks().toString().replaceAll("[\\[\\]]", "")));
         } else
             frameworksTextView.setVisibility(View.GONE);
 
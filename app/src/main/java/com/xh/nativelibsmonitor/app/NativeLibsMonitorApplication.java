@@ -30,6 +30,7 @@ public class NativeLibsMonitorApplication extends Application {
     public void onCreate() {
         super.onCreate();
         forceOverflowMenu();
+        DeviceProfile.load(this, null); // ready by the time the device details are shown.
     }
 
 
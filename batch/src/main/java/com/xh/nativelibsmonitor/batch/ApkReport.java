@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.batch;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.xh.nativelibsmonitor.lib.ABI;
+import com.xh.nativelibsmonitor.lib.NativeLibrary;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The analysis of an APK file, or of the APKs of an APK set, written as one JSON line. Its fields are named after the
+ * ones of {@link com.xh.nativelibsmonitor.lib.App}, minus the ones only the PackageManager knows.
+ */
+final class ApkReport {
+    // the analyzed file.
+    @NonNull
+    final String file;
+    @NonNull
+    String packagename = "";
+    @NonNull
+    String versionName = "";
+    long versionCode = 0;
+    // the APK itself, or "<APK set>!<entry>" for the APKs of an APK set.
+    final Set<String> apkLocations = new TreeSet<>();
+    final List<NativeLibrary> packagedNativeLibs = new ArrayList<>();
+    boolean deepAnalyzed = false;
+    boolean timedOut = false;
+    // why the file couldn't be analyzed, the other fields are then incomplete.
+    @Nullable
+    String error = null;
+
+    ApkReport(@NonNull String file) {
+        this.file = file;
+    }
+
+    void writeTo(@NonNull JsonWriter json) {
+        final Set<String> abis = new TreeSet<>();
+        for (final NativeLibrary nativeLibrary : packagedNativeLibs) {
+            abis.add(ABI.getStringForABI(nativeLibrary.abi));
+        }
+
+        json.beginObject()
+                .name("file").value(file)
+                .name("packagename").value(packagename)
+                .name("versionCode").value(versionCode)
+                .name("versionName").value(versionName)
+                .name("apkLocations").value(apkLocations)
+                .name("abis_in_apk").value(abis)
+                .name("deepAnalyzed").value(deepAnalyzed)
+                .name("timedOut").value(timedOut);
+
+        json.name("packagedNativeLibs").beginArray();
+        for (final NativeLibrary nativeLibrary : packagedNativeLibs) {
+            json.beginObject()
+                    .name("path").value(nativeLibrary.path)
+                    .name("size").value(nativeLibrary.size)
+                    .name("abi").value(ABI.getStringForABI(nativeLibrary.abi))
+                    .name("timedOut").value(nativeLibrary.timedOut)
+                    .name("entryPoints").value(nativeLibrary.getEntryPoints())
+                    .name("frameworks").value(nativeLibrary.getFrameworks())
+                    .name("dependencies").value(nativeLibrary.getDependencies())
+                    .endObject();
+        }
+        json.endArray();
+
+        if (error != null)
+            json.name("error").value(error);
+        json.endObject();
+    }
+}
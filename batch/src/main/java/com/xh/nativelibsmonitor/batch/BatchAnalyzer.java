@@ -0,0 +1,294 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.batch;
+
+import android.support.annotation.NonNull;
+
+import com.xh.nativelibsmonitor.lib.AnalysisDeadline;
+import com.xh.nativelibsmonitor.lib.ApkAnalyzer;
+import com.xh.nativelibsmonitor.lib.ApkFile;
+import com.xh.nativelibsmonitor.lib.JavaNativeLibAnalyzerEngine;
+import com.xh.nativelibsmonitor.lib.NativeLibAnalyzerEngine;
+import com.xh.nativelibsmonitor.lib.NativeLibrary;
+import com.xh.nativelibsmonitor.lib.NativeLibraryCache;
+import com.xh.nativelibsmonitor.lib.ZipCentralDirectory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Analyzes the native libs of all the APK files found under directories, on a desktop JVM, and writes a JSON line per
+ * file as soon as it's analyzed. Files are analyzed concurrently on a fixed pool, the libs of a file serially on the
+ * thread analyzing it, through the Java engine and an analysis cache shared by the whole batch.
+ * APK sets (.apks) are analyzed as one app made of the APKs they contain.
+ */
+public final class BatchAnalyzer {
+    private static final String USAGE = "usage: BatchAnalyzer [--threads N] [--quick] [--app-timeout SECONDS]"
+            + " [--library-timeout SECONDS] [--output FILE] DIRECTORY...";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String APK_SUFFIX = ".apk";
+    private static final String APK_SET_SUFFIX = ".apks";
+    // bundletool APK sets hold the split APKs under splits/, and the same libs again in standalones/ for older devices.
+    private static final String APK_SET_SPLITS_PREFIX = "splits/";
+    private static final long DEFAULT_APP_TIMEOUT_SECONDS = 60;
+    private static final long DEFAULT_LIBRARY_TIMEOUT_SECONDS = 10;
+    private static final int CACHE_MAX_ENTRIES = 65536;
+
+    @NonNull
+    private final NativeLibAnalyzerEngine mEngine;
+    @NonNull
+    private final NativeLibraryCache mCache = new MemoryNativeLibraryCache(CACHE_MAX_ENTRIES);
+    private final boolean mDeepAnalysis;
+    @NonNull
+    private final AnalysisDeadline mScan;
+    @NonNull
+    private final Writer mOutput;
+    private final AtomicInteger mAnalyzedCount = new AtomicInteger();
+    private final AtomicInteger mFailedCount = new AtomicInteger();
+    // the first failure to write the output, which cancels the scan.
+    private final AtomicReference<IOException> mOutputFailure = new AtomicReference<>();
+
+    public BatchAnalyzer(@NonNull NativeLibAnalyzerEngine engine, boolean deepAnalysis, @NonNull AnalysisDeadline scan,
+                         @NonNull Writer output) {
+        this.mEngine = engine;
+        this.mDeepAnalysis = deepAnalysis;
+        this.mScan = scan;
+        this.mOutput = output;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean deepAnalysis = true;
+        long appTimeout = DEFAULT_APP_TIMEOUT_SECONDS;
+        long libraryTimeout = DEFAULT_LIBRARY_TIMEOUT_SECONDS;
+        String output = null;
+        final List<Path> directories = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                switch (args[i]) {
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--quick":
+                        deepAnalysis = false;
+                        break;
+                    case "--app-timeout":
+                        appTimeout = Long.parseLong(args[++i]);
+                        break;
+                    case "--library-timeout":
+                        libraryTimeout = Long.parseLong(args[++i]);
+                        break;
+                    case "--output":
+                        output = args[++i];
+                        break;
+                    default:
+                        if (args[i].startsWith("--"))
+                            throw new IllegalArgumentException("unknown option " + args[i]);
+                        directories.add(Paths.get(args[i]));
+                }
+            }
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            directories.clear();
+        }
+        if (directories.isEmpty() || threads < 1 || appTimeout < 1 || libraryTimeout < 1) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        final long start = System.nanoTime();
+        final BatchAnalyzer batchAnalyzer;
+        try (Writer writer = output != null ? Files.newBufferedWriter(Paths.get(output), UTF_8)
+                : new BufferedWriter(new OutputStreamWriter(System.out, UTF_8))) {
+            batchAnalyzer = new BatchAnalyzer(new JavaNativeLibAnalyzerEngine(), deepAnalysis,
+                    AnalysisDeadline.newScan(appTimeout, libraryTimeout, TimeUnit.SECONDS), writer);
+            batchAnalyzer.analyzeAll(directories, threads);
+        }
+        System.err.println(String.format(Locale.US, "analyzed %d APK files, %d failed, in %d s", batchAnalyzer.getAnalyzedCount(),
+                batchAnalyzer.getFailedCount(), TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start)));
+    }
+
+    /**
+     * Analyzes the APK files under directories on threads threads, and returns once all of them have been written.
+     */
+    public void analyzeAll(@NonNull List<Path> directories, int threads) throws IOException, InterruptedException {
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (final Path directory : directories) {
+                Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(final Path file, BasicFileAttributes attrs) {
+                        if (attrs.isRegularFile() && (isApk(file) || isApkSet(file)))
+                            pool.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    write(analyze(file));
+                                }
+                            });
+                        return mScan.isCancelled() ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        if (isApk(file) || isApkSet(file)) {
+                            final ApkReport report = new ApkReport(file.toString());
+                            report.error = e.toString();
+                            mAnalyzedCount.incrementAndGet();
+                            mFailedCount.incrementAndGet();
+                            write(report);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+
+        final IOException outputFailure = mOutputFailure.get();
+        if (outputFailure != null)
+            throw outputFailure;
+    }
+
+    public int getAnalyzedCount() {
+        return mAnalyzedCount.get();
+    }
+
+    public int getFailedCount() {
+        return mFailedCount.get();
+    }
+
+    @NonNull
+    private ApkReport analyze(@NonNull Path file) {
+        final ApkReport report = new ApkReport(file.toString());
+        final AnalysisDeadline deadline = mScan.forApp();
+        report.deepAnalyzed = mDeepAnalysis;
+        try {
+            if (isApkSet(file))
+                analyzeApkSet(file, report, deadline);
+            else
+                analyzeApk(file.toString(), file.toString(), report, deadline);
+        } catch (IOException | RuntimeException e) {
+            report.error = e.toString();
+            mFailedCount.incrementAndGet();
+        }
+
+        for (final NativeLibrary nativeLibrary : report.packagedNativeLibs) {
+            report.timedOut |= nativeLibrary.timedOut;
+        }
+        mAnalyzedCount.incrementAndGet();
+        return report;
+    }
+
+    private void analyzeApk(@NonNull String apkPath, @NonNull String apkLocation, @NonNull ApkReport report,
+                            @NonNull AnalysisDeadline deadline) throws IOException {
+        report.apkLocations.add(apkLocation);
+        if (report.packagename.isEmpty()) { // the splits of an app repeat the identity of its base APK.
+            try (ApkFile apk = new ApkFile(apkPath)) {
+                final BinaryManifest manifest = BinaryManifest.read(apk);
+                if (manifest != null) {
+                    report.packagename = manifest.packagename;
+                    report.versionCode = manifest.versionCode;
+                    report.versionName = manifest.versionName;
+                }
+            }
+        }
+        // all the ABIs get analyzed, the batch doesn't run on the devices the app targets.
+        report.packagedNativeLibs.addAll(ApkAnalyzer.getNativeLibs(apkPath, mEngine, mCache, mDeepAnalysis, null, deadline));
+    }
+
+    // the APKs of a set are extracted one at a time, the engines read libs from APK files.
+    private void analyzeApkSet(@NonNull Path file, @NonNull ApkReport report, @NonNull AnalysisDeadline deadline)
+            throws IOException {
+        try (ApkFile apkSet = new ApkFile(file.toString())) {
+            for (final ZipCentralDirectory.Entry entry : getNestedApks(apkSet)) {
+                final Path extracted = Files.createTempFile("batchanalyzer", APK_SUFFIX);
+                try {
+                    try (InputStream inputStream = apkSet.getInputStream(entry)) {
+                        Files.copy(inputStream, extracted, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    analyzeApk(extracted.toString(), file + "!" + entry.name, report, deadline);
+                } finally {
+                    Files.deleteIfExists(extracted);
+                }
+            }
+        }
+    }
+
+    @NonNull
+    private static List<ZipCentralDirectory.Entry> getNestedApks(@NonNull ApkFile apkSet) throws IOException {
+        final List<ZipCentralDirectory.Entry> apks = new ArrayList<>();
+        final List<ZipCentralDirectory.Entry> splits = new ArrayList<>();
+        for (final ZipCentralDirectory.Entry entry : apkSet.getEntries()) {
+            if (entry.isDirectory() || !entry.name.toLowerCase(Locale.US).endsWith(APK_SUFFIX))
+                continue;
+            apks.add(entry);
+            if (entry.name.startsWith(APK_SET_SPLITS_PREFIX))
+                splits.add(entry);
+        }
+        return splits.isEmpty() ? apks : splits;
+    }
+
+    private void write(@NonNull ApkReport report) {
+        final StringBuilder line = new StringBuilder();
+        report.writeTo(new JsonWriter(line));
+        line.append('\n');
+        // flushed line by line, so the output can be consumed while the batch runs.
+        synchronized (mOutput) {
+            if (mOutputFailure.get() != null)
+                return;
+            try {
+                mOutput.write(line.toString());
+                mOutput.flush();
+            } catch (IOException e) {
+                mOutputFailure.set(e);
+                mScan.cancel();
+            }
+        }
+    }
+
+    private static boolean isApk(@NonNull Path file) {
+        return file.toString().toLowerCase(Locale.US).endsWith(APK_SUFFIX);
+    }
+
+    private static boolean isApkSet(@NonNull Path file) {
+        return file.toString().toLowerCase(Locale.US).endsWith(APK_SET_SUFFIX);
+    }
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.batch;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.xh.nativelibsmonitor.lib.ApkFile;
+import com.xh.nativelibsmonitor.lib.ZipCentralDirectory;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * The identity of an app, read from the compiled AndroidManifest.xml of one of its APKs, without the PackageManager.
+ * The manifest is an Android binary XML document: a string pool, a map from attribute names to resource ids, then the
+ * tree of elements. Only the attributes of its root manifest element are read.
+ */
+final class BinaryManifest {
+    static final String ENTRY_NAME = "AndroidManifest.xml";
+    // manifests are a few KB, anything bigger than this isn't worth reading.
+    private static final int MAX_SIZE = 16 * 1024 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset UTF_16LE = Charset.forName("UTF-16LE");
+
+    private static final int RES_STRING_POOL_TYPE = 0x0001;
+    private static final int RES_XML_TYPE = 0x0003;
+    private static final int RES_XML_START_ELEMENT_TYPE = 0x0102;
+    private static final int RES_XML_RESOURCE_MAP_TYPE = 0x0180;
+    private static final int UTF8_FLAG = 1 << 8;
+    private static final int NO_STRING = -1;
+
+    private static final int TYPE_STRING = 0x03;
+    private static final int TYPE_FIRST_INT = 0x10;
+    private static final int TYPE_LAST_INT = 0x1f;
+
+    // attributes are matched on their resource id, their name may have been stripped by an obfuscator.
+    private static final int ATTR_VERSION_CODE = 0x0101021b;
+    private static final int ATTR_VERSION_NAME = 0x0101021c;
+    private static final int ATTR_VERSION_CODE_MAJOR = 0x01010576;
+
+    @NonNull
+    String packagename = "";
+    long versionCode = 0;
+    @NonNull
+    String versionName = "";
+
+    private BinaryManifest() {
+    }
+
+    /**
+     * @return the manifest of an APK, or null if it has none or it can't be parsed.
+     */
+    @Nullable
+    static BinaryManifest read(@NonNull ApkFile apk) throws IOException {
+        for (final ZipCentralDirectory.Entry entry : apk.getEntries()) {
+            if (!entry.name.equals(ENTRY_NAME))
+                continue;
+            if (entry.size > MAX_SIZE)
+                return null;
+
+            final byte[] content = new byte[(int) entry.size];
+            try (InputStream inputStream = apk.getInputStream(entry)) {
+                new DataInputStream(inputStream).readFully(content);
+            }
+            return parse(ByteBuffer.wrap(content));
+        }
+        return null;
+    }
+
+    @Nullable
+    static BinaryManifest parse(@NonNull ByteBuffer xml) {
+        xml.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (xml.limit() < 8 || (xml.getShort(0) & 0xffff) != RES_XML_TYPE)
+                return null;
+
+            int stringPool = -1;
+            int[] resourceIds = new int[0];
+            int chunk = xml.getShort(2) & 0xffff;
+            while (chunk + 8 <= xml.limit()) {
+                final int type = xml.getShort(chunk) & 0xffff;
+                final int headerSize = xml.getShort(chunk + 2) & 0xffff;
+                final int size = xml.getInt(chunk + 4);
+                if (size < 8 || size > xml.limit() - chunk)
+                    return null;
+
+                if (type == RES_STRING_POOL_TYPE && stringPool < 0) {
+                    stringPool = chunk;
+                } else if (type == RES_XML_RESOURCE_MAP_TYPE) {
+                    resourceIds = new int[(size - headerSize) / 4];
+                    for (int i = 0; i < resourceIds.length; ++i) {
+                        resourceIds[i] = xml.getInt(chunk + headerSize + 4 * i);
+                    }
+                } else if (type == RES_XML_START_ELEMENT_TYPE) {
+                    // the first element is the root one.
+                    return stringPool >= 0 ? parseManifestElement(xml, chunk + headerSize, stringPool, resourceIds) : null;
+                }
+                chunk += size;
+            }
+            return null;
+        } catch (IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    // ResXMLTree_attrExt: ns, name, attributeStart, attributeSize, attributeCount, then the attributes from attributeStart,
+    // each one ns, name, rawValue, then a Res_value: size, res0, dataType, data.
+    @Nullable
+    private static BinaryManifest parseManifestElement(@NonNull ByteBuffer xml, int element, int stringPool,
+                                                       @NonNull int[] resourceIds) {
+        if (!"manifest".equals(getString(xml, stringPool, xml.getInt(element + 4))))
+            return null;
+
+        final BinaryManifest manifest = new BinaryManifest();
+        final int attributeStart = element + (xml.getShort(element + 8) & 0xffff);
+        final int attributeSize = xml.getShort(element + 10) & 0xffff;
+        final int attributeCount = xml.getShort(element + 12) & 0xffff;
+        long versionCodeMajor = 0;
+        for (int i = 0; i < attributeCount; ++i) {
+            final int attribute = attributeStart + i * attributeSize;
+            final int name = xml.getInt(attribute + 4);
+            final int resourceId = name >= 0 && name < resourceIds.length ? resourceIds[name] : 0;
+            final int rawValue = xml.getInt(attribute + 8);
+            final int dataType = xml.get(attribute + 15) & 0xff;
+            final int data = xml.getInt(attribute + 16);
+
+            if (resourceId == ATTR_VERSION_CODE) {
+                if (dataType >= TYPE_FIRST_INT && dataType <= TYPE_LAST_INT)
+                    manifest.versionCode |= data & 0xffffffffL;
+            } else if (resourceId == ATTR_VERSION_CODE_MAJOR) {
+                if (dataType >= TYPE_FIRST_INT && dataType <= TYPE_LAST_INT)
+                    versionCodeMajor = data & 0xffffffffL;
+            } else if (resourceId == ATTR_VERSION_NAME) {
+                final String versionName = getStringValue(xml, stringPool, rawValue, dataType, data);
+                if (versionName != null) // a reference to a string resource can't be resolved without the resources table.
+                    manifest.versionName = versionName;
+            } else if (resourceId == 0 && "package".equals(getString(xml, stringPool, name))) {
+                final String packagename = getStringValue(xml, stringPool, rawValue, dataType, data);
+                if (packagename != null)
+                    manifest.packagename = packagename;
+            }
+        }
+        manifest.versionCode |= versionCodeMajor << 32;
+        return manifest;
+    }
+
+    @Nullable
+    private static String getStringValue(@NonNull ByteBuffer xml, int stringPool, int rawValue, int dataType, int data) {
+        if (rawValue != NO_STRING)
+            return getString(xml, stringPool, rawValue);
+        return dataType == TYPE_STRING ? getString(xml, stringPool, data) : null;
+    }
+
+    // ResStringPool_header: stringCount, styleCount, flags, stringsStart, stylesStart, then an offset per string.
+    @Nullable
+    private static String getString(@NonNull ByteBuffer xml, int stringPool, int index) {
+        final int headerSize = xml.getShort(stringPool + 2) & 0xffff;
+        final int stringCount = xml.getInt(stringPool + 8);
+        if (index < 0 || index >= stringCount)
+            return null;
+
+        final boolean utf8 = (xml.getInt(stringPool + 16) & UTF8_FLAG) != 0;
+        int position = stringPool + xml.getInt(stringPool + 20) + xml.getInt(stringPool + headerSize + 4 * index);
+        if (utf8) {
+            // the length in UTF-16 units, then in bytes, each on one byte or two with the high bit set.
+            position += (xml.get(position) & 0x80) != 0 ? 2 : 1;
+            int length = xml.get(position++) & 0xff;
+            if ((length & 0x80) != 0)
+                length = ((length & 0x7f) << 8) | (xml.get(position++) & 0xff);
+            return decode(xml, position, length, UTF_8);
+        }
+
+        // the length in UTF-16 units, on one unit or two with the high bit set.
+        int length = xml.getShort(position) & 0xffff;
+        position += 2;
+        if ((length & 0x8000) != 0) {
+            length = ((length & 0x7fff) << 16) | (xml.getShort(position) & 0xffff);
+            position += 2;
+        }
+        return decode(xml, position, length * 2, UTF_16LE);
+    }
+
+    @NonNull
+    private static String decode(@NonNull ByteBuffer xml, int position, int length, @NonNull Charset charset) {
+        if (length < 0 || length > xml.limit() - position)
+            throw new IndexOutOfBoundsException("string of " + length + " bytes at " + position);
+        final byte[] bytes = new byte[length];
+        final ByteBuffer string = xml.duplicate();
+        string.position(position);
+        string.get(bytes);
+        return new String(bytes, charset);
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.batch;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Collection;
+
+/**
+ * Writes a single JSON value on one line, so each report of the batch analyzer is one line of the output.
+ * Commas are inserted by the writer, callers only open and close objects and arrays.
+ */
+final class JsonWriter {
+    @NonNull
+    private final StringBuilder mOut;
+    // whether the innermost object or array has no member yet, or a name was just written.
+    private boolean mFirst = true;
+
+    JsonWriter(@NonNull StringBuilder out) {
+        this.mOut = out;
+    }
+
+    @NonNull
+    JsonWriter beginObject() {
+        separate();
+        mOut.append('{');
+        mFirst = true;
+        return this;
+    }
+
+    @NonNull
+    JsonWriter endObject() {
+        mOut.append('}');
+        mFirst = false;
+        return this;
+    }
+
+    @NonNull
+    JsonWriter beginArray() {
+        separate();
+        mOut.append('[');
+        mFirst = true;
+        return this;
+    }
+
+    @NonNull
+    JsonWriter endArray() {
+        mOut.append(']');
+        mFirst = false;
+        return this;
+    }
+
+    @NonNull
+    JsonWriter name(@NonNull String name) {
+        separate();
+        appendString(name);
+        mOut.append(':');
+        mFirst = true;
+        return this;
+    }
+
+    @NonNull
+    JsonWriter value(@Nullable String value) {
+        separate();
+        if (value == null)
+            mOut.append("null");
+        else
+            appendString(value);
+        return this;
+    }
+
+    @NonNull
+    JsonWriter value(long value) {
+        separate();
+        mOut.append(value);
+        return this;
+    }
+
+    @NonNull
+    JsonWriter value(boolean value) {
+        separate();
+        mOut.append(value);
+        return this;
+    }
+
+    @NonNull
+    JsonWriter value(@NonNull Collection<String> values) {
+        beginArray();
+        for (final String value : values) {
+            value(value);
+        }
+        return endArray();
+    }
+
+    private void separate() {
+        if (!mFirst)
+            mOut.append(',');
+        mFirst = false;
+    }
+
+    private void appendString(@NonNull String value) {
+        mOut.append('"');
+        for (int i = 0; i < value.length(); ++i) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    mOut.append("\\\"");
+                    break;
+                case '\\':
+                    mOut.append("\\\\");
+                    break;
+                case '\n':
+                    mOut.append("\\n");
+                    break;
+                case '\r':
+                    mOut.append("\\r");
+                    break;
+                case '\t':
+                    mOut.append("\\t");
+                    break;
+                default:
+                    // the other control characters, and the line separators some JSON-lines readers split on.
+                    if (c < 0x20 || c == 0x2028 || c == 0x2029)
+                        mOut.append(String.format("\\u%04x", (int) c));
+                    else
+                        mOut.append(c);
+            }
+        }
+        mOut.append('"');
+    }
+}
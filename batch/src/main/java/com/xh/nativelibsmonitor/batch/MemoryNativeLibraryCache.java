@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.batch;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.xh.nativelibsmonitor.lib.AnalysisMode;
+import com.xh.nativelibsmonitor.lib.NativeLibrary;
+import com.xh.nativelibsmonitor.lib.NativeLibraryCache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Analysis cache shared by all the APKs of a batch, kept in memory and bounded to its most recently used entries.
+ * The same prebuilt libraries ship in many apps, so most of them only get analyzed once per batch.
+ */
+final class MemoryNativeLibraryCache implements NativeLibraryCache {
+    @NonNull
+    private final Map<String, NativeLibrary> mEntries;
+
+    MemoryNativeLibraryCache(final int maxEntries) {
+        this.mEntries = new LinkedHashMap<String, NativeLibrary>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, NativeLibrary> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Nullable
+    @Override
+    public synchronized NativeLibrary get(long crc, long size, @NonNull String abiDirectory, @NonNull String libName,
+                                          @AnalysisMode.type int analysisMode) {
+        final NativeLibrary cached = mEntries.get(getKey(crc, size, abiDirectory, libName, analysisMode));
+        return cached != null ? copy(cached) : null;
+    }
+
+    @Override
+    public synchronized void put(long crc, long size, @NonNull String abiDirectory, @NonNull String libName,
+                                 @AnalysisMode.type int analysisMode, @NonNull NativeLibrary nativeLibrary) {
+        mEntries.put(getKey(crc, size, abiDirectory, libName, analysisMode), copy(nativeLibrary));
+    }
+
+    @NonNull
+    private static String getKey(long crc, long size, @NonNull String abiDirectory, @NonNull String libName,
+                                 @AnalysisMode.type int analysisMode) {
+        return crc + ":" + size + ":" + abiDirectory + "/" + libName + ":" + analysisMode;
+    }
+
+    // names are interned ids, copying them is enough to keep the cached library apart from the ones handed out.
+    @NonNull
+    private static NativeLibrary copy(@NonNull NativeLibrary nativeLibrary) {
+        final NativeLibrary copy = new NativeLibrary(nativeLibrary.path, nativeLibrary.size, nativeLibrary.abi);
+        copy.type = nativeLibrary.type;
+        copy.timedOut = nativeLibrary.timedOut;
+        copy.copyNamesFrom(nativeLibrary);
+        return copy;
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.xh.nativelibsmonitor.batch;
+
+import com.xh.nativelibsmonitor.lib.AnalysisDeadline;
+import com.xh.nativelibsmonitor.lib.JavaNativeLibAnalyzerEngine;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class BatchAnalyzerTest {
+    private static final String LIB64 = "{\"path\":\"lib/x86_64/libsample.so\",\"size\":5400,\"abi\":\"x86_64\",\"timedOut\":false,"
+            + "\"entryPoints\":[\"JNI_OnLoad\",\"Java_com_example_Native_call\"],"
+            + "\"frameworks\":[\"Intel Compiler\",\"zlib\",\"zlib 1.2.11\"],\"dependencies\":[\"libdep.so\"]}";
+    private static final String LIB32 = "{\"path\":\"lib/x86/libsample.so\",\"size\":5136,\"abi\":\"x86\",\"timedOut\":false,"
+            + "\"entryPoints\":[\"JNI_OnLoad\",\"Java_com_example_Native_call\"],"
+            + "\"frameworks\":[\"Intel Compiler\",\"zlib\",\"zlib 1.2.11\"],\"dependencies\":[\"libdep.so\"]}";
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+    private File mApks;
+
+    @Before
+    public void copyFixtures() throws IOException {
+        mApks = mFolder.newFolder("apks");
+        for (final String fixture : Arrays.asList(BatchFixtures.UTF8_APK, BatchFixtures.NO_MANIFEST_APK,
+                BatchFixtures.BUNDLE_APKS, BatchFixtures.FLAT_APKS)) {
+            BatchFixtures.copy(fixture, mApks);
+        }
+        Files.write(new File(mApks, "notes.txt").toPath(), Collections.singletonList("not an APK"));
+    }
+
+    @Test
+    public void analyzesApks() throws IOException, InterruptedException {
+        final Map<String, String> reports = analyzeAll(true, 2);
+        assertEquals(4, reports.size());
+
+        final String apk = new File(mApks, BatchFixtures.UTF8_APK).getPath();
+        assertEquals("{\"file\":" + string(apk) + ",\"packagename\":\"com.example.utf8\",\"versionCode\":42,\"versionName\":\"1.2.3\","
+                + "\"apkLocations\":[" + string(apk) + "],\"abis_in_apk\":[\"x86\",\"x86_64\"],\"deepAnalyzed\":true,\"timedOut\":false,"
+                + "\"packagedNativeLibs\":[" + LIB64 + "," + LIB32 + "]}", reports.get(apk));
+
+        // still analyzed without manifest, only the identity of the app is missing.
+        final String noManifest = reports.get(new File(mApks, BatchFixtures.NO_MANIFEST_APK).getPath());
+        assertTrue(noManifest, noManifest.contains("\"packagename\":\"\",\"versionCode\":0,\"versionName\":\"\""));
+        assertTrue(noManifest, noManifest.endsWith("\"packagedNativeLibs\":[" + LIB64 + "]}"));
+    }
+
+    @Test
+    public void analyzesTheSplitsOfApkSets() throws IOException, InterruptedException {
+        final Map<String, String> reports = analyzeAll(true, 1);
+
+        // the standalone APK repeats the lib of the x86_64 split, it isn't analyzed.
+        final String apkSet = new File(mApks, BatchFixtures.BUNDLE_APKS).getPath();
+        assertEquals("{\"file\":" + string(apkSet) + ",\"packagename\":\"com.example.bundle\",\"versionCode\":100,\"versionName\":\"1.0\","
+                + "\"apkLocations\":[" + string(apkSet + "!splits/base-master.apk") + "," + string(apkSet + "!splits/base-x86_64.apk") + "],"
+                + "\"abis_in_apk\":[\"x86_64\"],\"deepAnalyzed\":true,\"timedOut\":false,"
+                + "\"packagedNativeLibs\":[" + LIB64 + "]}", reports.get(apkSet));
+
+        // without splits/ directory, all the APKs of the set are analyzed.
+        final String flatApkSet = new File(mApks, BatchFixtures.FLAT_APKS).getPath();
+        final String flat = reports.get(flatApkSet);
+        assertTrue(flat, flat.contains("\"apkLocations\":[" + string(flatApkSet + "!base.apk") + ","
+                + string(flatApkSet + "!split_config.x86_64.apk") + "]"));
+        assertTrue(flat, flat.endsWith("\"packagedNativeLibs\":[" + LIB64 + "]}"));
+    }
+
+    @Test
+    public void onlyReadsAbisInQuickMode() throws IOException, InterruptedException {
+        final String report = analyzeAll(false, 2).get(new File(mApks, BatchFixtures.UTF8_APK).getPath());
+        assertTrue(report, report.contains("\"abis_in_apk\":[\"x86\",\"x86_64\"],\"deepAnalyzed\":false"));
+        assertTrue(report, report.contains("\"entryPoints\":[],\"frameworks\":[],\"dependencies\":[]"));
+    }
+
+    @Test
+    public void reportsFilesThatCantBeAnalyzed() throws IOException, InterruptedException {
+        final File broken = new File(mApks, "broken.apk");
+        Files.write(broken.toPath(), Collections.singletonList("not a zip file"));
+
+        final StringWriter output = new StringWriter();
+        final BatchAnalyzer batchAnalyzer = newBatchAnalyzer(true, output);
+        batchAnalyzer.analyzeAll(Collections.singletonList(mApks.toPath()), 2);
+        assertEquals(5, batchAnalyzer.getAnalyzedCount());
+        assertEquals(1, batchAnalyzer.getFailedCount());
+
+        final String report = getReports(output.toString()).get(broken.getPath());
+        assertNotNull(report);
+        assertTrue(report, report.contains("\"packagedNativeLibs\":[],\"error\":\"java.util.zip.ZipException"));
+        assertFalse(getReports(output.toString()).get(new File(mApks, BatchFixtures.UTF8_APK).getPath()).contains("\"error\""));
+    }
+
+    // reports by file: their order depends on the threads analyzing them.
+    private Map<String, String> analyzeAll(boolean deepAnalysis, int threads) throws IOException, InterruptedException {
+        final StringWriter output = new StringWriter();
+        final BatchAnalyzer batchAnalyzer = newBatchAnalyzer(deepAnalysis, output);
+        batchAnalyzer.analyzeAll(Collections.singletonList(mApks.toPath()), threads);
+        assertEquals(0, batchAnalyzer.getFailedCount());
+        return getReports(output.toString());
+    }
+
+    private static BatchAnalyzer newBatchAnalyzer(boolean deepAnalysis, StringWriter output) {
+        return new BatchAnalyzer(new JavaNativeLibAnalyzerEngine(), deepAnalysis,
+                AnalysisDeadline.newScan(60, 10, TimeUnit.SECONDS), output);
+    }
+
+    private static Map<String, String> getReports(String output) {
+        final Map<String, String> reports = new HashMap<>();
+        for (final String line : output.split("\n")) {
+            assertTrue(line, line.startsWith("{\"file\":"));
+            final int end = line.indexOf("\",\"packagename\"");
+            reports.put(line.substring("{\"file\":\"".length(), end).replace("\\\\", "\\"), line);
+        }
+        return reports;
+    }
+
+    private static String string(String value) {
+        final StringBuilder out = new StringBuilder();
+        new JsonWriter(out).value(value);
+        return out.toString();
+    }
+}
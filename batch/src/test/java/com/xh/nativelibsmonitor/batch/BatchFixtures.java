@@ -0,0 +1,56 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.xh.nativelibsmonitor.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+/**
+ * The fixture APKs and APK sets under resources/.../batch, built by make_fixtures.py: copied to files since the
+ * analyzers read APKs from the file system.
+ */
+final class BatchFixtures {
+    // manifest as UTF-8 strings, with x86_64 (DEFLATED) and x86 (STORED) libs.
+    static final String UTF8_APK = "utf8.apk";
+    // manifest as UTF-16 strings, with a non-ASCII version name.
+    static final String UTF16_APK = "utf16.apk";
+    // manifest whose attribute names were stripped, with a versionCodeMajor.
+    static final String STRIPPED_APK = "stripped.apk";
+    static final String NO_MANIFEST_APK = "nomanifest.apk";
+    // bundletool layout: splits/base-master.apk, splits/base-x86_64.apk, and the same lib in standalones/.
+    static final String BUNDLE_APKS = "bundle.apks";
+    // base.apk and split_config.x86_64.apk at its root.
+    static final String FLAT_APKS = "flat.apks";
+
+    private BatchFixtures() {
+        throw new AssertionError();
+    }
+
+    static File copy(String name, File directory) throws IOException {
+        final File file = new File(directory, name);
+        try (InputStream in = BatchFixtures.class.getResourceAsStream(name)) {
+            if (in == null)
+                throw new IOException(name + " not found");
+            Files.copy(in, file.toPath());
+        }
+        return file;
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.xh.nativelibsmonitor.batch;
+
+import com.xh.nativelibsmonitor.lib.ApkFile;
+import com.xh.nativelibsmonitor.lib.ZipCentralDirectory;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class BinaryManifestTest {
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void readsUtf8Strings() throws IOException {
+        checkManifest(read(BatchFixtures.UTF8_APK), "com.example.utf8", 42, "1.2.3");
+    }
+
+    @Test
+    public void readsUtf16Strings() throws IOException {
+        checkManifest(read(BatchFixtures.UTF16_APK), "com.example.utf16", 7, "déjà");
+    }
+
+    @Test
+    public void matchesAttributesOnResourceIds() throws IOException {
+        // the versionCodeMajor attribute holds the high 32 bits of the version code.
+        checkManifest(read(BatchFixtures.STRIPPED_APK), "com.example.stripped", (1L << 32) | 9, "9.0");
+    }
+
+    @Test
+    public void returnsNullWithoutManifest() throws IOException {
+        assertNull(read(BatchFixtures.NO_MANIFEST_APK));
+    }
+
+    @Test
+    public void rejectsTextXml() throws IOException {
+        assertNull(BinaryManifest.parse(ByteBuffer.wrap("<manifest package=\"com.example\"/>".getBytes("UTF-8"))));
+    }
+
+    @Test
+    public void rejectsTruncatedManifests() throws IOException {
+        final byte[] xml = readManifestContent(BatchFixtures.UTF8_APK);
+        // cut anywhere, the chunk sizes point past the end: never parsed, nor thrown.
+        for (int length = 0; length < xml.length; ++length) {
+            assertNull("cut at " + length, BinaryManifest.parse(ByteBuffer.wrap(Arrays.copyOf(xml, length))));
+        }
+    }
+
+    private BinaryManifest read(String fixture) throws IOException {
+        try (ApkFile apk = new ApkFile(BatchFixtures.copy(fixture, mFolder.getRoot()).getPath())) {
+            return BinaryManifest.read(apk);
+        }
+    }
+
+    private byte[] readManifestContent(String fixture) throws IOException {
+        try (ApkFile apk = new ApkFile(BatchFixtures.copy(fixture, mFolder.getRoot()).getPath())) {
+            for (final ZipCentralDirectory.Entry entry : apk.getEntries()) {
+                if (!entry.name.equals(BinaryManifest.ENTRY_NAME))
+                    continue;
+                final byte[] content = new byte[(int) entry.size];
+                try (InputStream in = apk.getInputStream(entry)) {
+                    new DataInputStream(in).readFully(content);
+                }
+                return content;
+            }
+        }
+        throw new IOException(fixture + " has no manifest");
+    }
+
+    private static void checkManifest(BinaryManifest manifest, String packagename, long versionCode, String versionName) {
+        assertNotNull(manifest);
+        assertEquals(packagename, manifest.packagename);
+        assertEquals(versionCode, manifest.versionCode);
+        assertEquals(versionName, manifest.versionName);
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.xh.nativelibsmonitor.batch;
+
+import com.xh.nativelibsmonitor.lib.ABI;
+import com.xh.nativelibsmonitor.lib.NativeLibrary;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class JsonWriterTest {
+    @Test
+    public void separatesMembersAndElements() {
+        final StringBuilder out = new StringBuilder();
+        new JsonWriter(out).beginObject()
+                .name("a").value(1)
+                .name("b").beginArray().value(true).beginObject().endObject().beginArray().endArray().value((String) null).endArray()
+                .name("c").beginObject().name("d").value("e").endObject()
+                .name("f").value(Arrays.asList("g", "h"))
+                .name("i").value(Collections.<String>emptyList())
+                .endObject();
+        assertEquals("{\"a\":1,\"b\":[true,{},[],null],\"c\":{\"d\":\"e\"},\"f\":[\"g\",\"h\"],\"i\":[]}", out.toString());
+    }
+
+    @Test
+    public void escapesStrings() {
+        final StringBuilder out = new StringBuilder();
+        new JsonWriter(out).value("\"\\\n\r\t\u0001\u001f é\u2028\u2029/");
+        assertEquals("\"\\\"\\\\\\n\\r\\t\\u0001\\u001f é\\u2028\\u2029/\"", out.toString());
+    }
+
+    @Test
+    public void writesReportsOnOneLine() {
+        final ApkReport report = new ApkReport("dir/app.apk");
+        report.packagename = "com.example";
+        report.versionCode = 3;
+        report.versionName = "1.0\n";
+        report.apkLocations.add("dir/app.apk");
+        report.deepAnalyzed = true;
+        report.packagedNativeLibs.add(new NativeLibrary("lib/x86/liba.so", 10, ABI.x86, NativeLibrary.TYPE.IN_PACKAGE,
+                Collections.singletonList("JNI_OnLoad"), Collections.<String>emptyList(), Arrays.asList("libc.so", "libm.so")));
+        report.error = "java.io.IOException: \"broken\"";
+
+        final StringBuilder out = new StringBuilder();
+        report.writeTo(new JsonWriter(out));
+        assertEquals("{\"file\":\"dir/app.apk\",\"packagename\":\"com.example\",\"versionCode\":3,\"versionName\":\"1.0\\n\","
+                + "\"apkLocations\":[\"dir/app.apk\"],\"abis_in_apk\":[\"x86\"],\"deepAnalyzed\":true,\"timedOut\":false,"
+                + "\"packagedNativeLibs\":[{\"path\":\"lib/x86/liba.so\",\"size\":10,\"abi\":\"x86\",\"timedOut\":false,"
+                + "\"entryPoints\":[\"JNI_OnLoad\"],\"frameworks\":[],\"dependencies\":[\"libc.so\",\"libm.so\"]}],"
+                + "\"error\":\"java.io.IOException: \\\"broken\\\"\"}", out.toString());
+    }
+}
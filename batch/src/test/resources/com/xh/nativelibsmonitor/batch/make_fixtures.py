@@ -0,0 +1,110 @@
+# Builds the fixture APKs and APK sets of the batch analyzer tests, from this directory:
+#   python3 make_fixtures.py
+# The manifests are Android binary XML documents holding only a root manifest element, their native libs the sample
+# libs of the lib module tests.
+import os
+import struct
+import zipfile
+
+HERE = os.path.dirname(os.path.abspath(__file__))
+ELF = os.path.join(HERE, '..', '..', '..', '..', '..', '..', '..', '..', 'lib', 'src', 'test', 'resources',
+                   'com', 'xh', 'nativelibsmonitor', 'lib', 'elf')
+DATE_TIME = (2022, 1, 1, 0, 0, 0)
+
+ATTR_VERSION_CODE = 0x0101021b
+ATTR_VERSION_NAME = 0x0101021c
+ATTR_VERSION_CODE_MAJOR = 0x01010576
+TYPE_STRING = 0x03
+TYPE_INT_DEC = 0x10
+NO_STRING = 0xffffffff
+
+
+def string_pool(strings, utf8):
+    data = b''
+    offsets = []
+    for s in strings:
+        offsets.append(len(data))
+        if utf8:
+            encoded = s.encode('utf-8')
+            data += bytes([len(s)]) + bytes([len(encoded)]) + encoded + b'\0'
+        else:
+            data += struct.pack('<H', len(s)) + s.encode('utf-16le') + b'\0\0'
+    while len(data) % 4:
+        data += b'\0'
+    header_size = 28
+    body = struct.pack('<IIIII', len(strings), 0, 1 << 8 if utf8 else 0, header_size + 4 * len(strings), 0)
+    body += b''.join(struct.pack('<I', offset) for offset in offsets) + data
+    return struct.pack('<HHI', 0x0001, header_size, 8 + len(body)) + body
+
+
+# the attribute names backed by a resource id come first in the string pool, matched by the resource map.
+def manifest(package, version_code, version_name, utf8=True, stripped_names=False, version_code_major=None):
+    names = ['versionCode', 'versionName'] + (['versionCodeMajor'] if version_code_major else [])
+    ids = [ATTR_VERSION_CODE, ATTR_VERSION_NAME] + ([ATTR_VERSION_CODE_MAJOR] if version_code_major else [])
+    if stripped_names:
+        names = [''] * len(names)
+    strings = names + ['package', 'manifest', package, version_name, 'android']
+    index = strings.index
+
+    def attribute(name, raw_value, data_type, data):
+        return struct.pack('<IIIHBBI', NO_STRING, name, raw_value, 8, 0, data_type, data)
+
+    attributes = [attribute(0, NO_STRING, TYPE_INT_DEC, version_code),
+                  attribute(1, index(version_name), TYPE_STRING, index(version_name)),
+                  attribute(index('package'), index(package), TYPE_STRING, index(package))]
+    if version_code_major:
+        attributes.append(attribute(2, NO_STRING, TYPE_INT_DEC, version_code_major))
+
+    resource_map = struct.pack('<HHI', 0x0180, 8, 8 + 4 * len(ids)) + b''.join(struct.pack('<I', i) for i in ids)
+    element = struct.pack('<IIHHHHHH', NO_STRING, index('manifest'), 20, 20, len(attributes), 0, 0, 0)
+    element += b''.join(attributes)
+    element = struct.pack('<HHIII', 0x0102, 16, 16 + len(element), 1, NO_STRING) + element
+    body = string_pool(strings, utf8) + resource_map + element
+    return struct.pack('<HHI', 0x0003, 8, 8 + len(body)) + body
+
+
+def lib(name):
+    with open(os.path.join(ELF, name), 'rb') as f:
+        return f.read()
+
+
+def write_zip(path, entries):
+    with zipfile.ZipFile(path, 'w') as z:
+        for name, content, compress_type in entries:
+            info = zipfile.ZipInfo(name, DATE_TIME)
+            info.compress_type = compress_type
+            z.writestr(info, content)
+
+
+def write_apk(name, manifest_content, libs=()):
+    entries = [('AndroidManifest.xml', manifest_content, zipfile.ZIP_DEFLATED)] if manifest_content else []
+    write_zip(os.path.join(HERE, name), entries + list(libs))
+
+
+def read(name):
+    with open(os.path.join(HERE, name), 'rb') as f:
+        return f.read()
+
+
+LIB64 = ('lib/x86_64/libsample.so', lib('libsample64_both.so'), zipfile.ZIP_DEFLATED)
+LIB32 = ('lib/x86/libsample.so', lib('libsample32_both.so'), zipfile.ZIP_STORED)
+
+write_apk('utf8.apk', manifest('com.example.utf8', 42, '1.2.3'), [LIB64, LIB32])
+write_apk('utf16.apk', manifest('com.example.utf16', 7, 'déjà', utf8=False))
+write_apk('stripped.apk', manifest('com.example.stripped', 9, '9.0', stripped_names=True, version_code_major=1))
+write_apk('nomanifest.apk', None, [LIB64])
+
+# bundletool layout: the split APKs, and the same libs again in a standalone APK for older devices.
+write_apk('base-master.apk', manifest('com.example.bundle', 100, '1.0'))
+write_apk('base-x86_64.apk', manifest('com.example.bundle', 100, '1.0'), [LIB64])
+write_zip(os.path.join(HERE, 'bundle.apks'), [
+    ('splits/base-master.apk', read('base-master.apk'), zipfile.ZIP_STORED),
+    ('splits/base-x86_64.apk', read('base-x86_64.apk'), zipfile.ZIP_STORED),
+    ('standalones/standalone-x86_64.apk', read('base-x86_64.apk'), zipfile.ZIP_STORED),
+    ('toc.pb', b'\0', zipfile.ZIP_STORED)])
+# a set without splits/ directory, all its APKs get analyzed.
+write_zip(os.path.join(HERE, 'flat.apks'), [
+    ('base.apk', read('base-master.apk'), zipfile.ZIP_DEFLATED),
+    ('split_config.x86_64.apk', read('base-x86_64.apk'), zipfile.ZIP_DEFLATED)])
+os.remove(os.path.join(HERE, 'base-master.apk'))
+os.remove(os.path.join(HERE, 'base-x86_64.apk'))
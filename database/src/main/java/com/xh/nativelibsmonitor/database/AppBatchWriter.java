@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.database;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Last stage of the scan pipeline: apps analyzed by the workers are written by a single thread, many per transaction,
+ * so workers don't contend on the database. The queue is bounded: workers block when writes fall behind, rather
+ * than piling up analyzed apps in memory.
+ */
+final class AppBatchWriter {
+    private static final String TAG = "appbatchwriter";
+    private static final int MAX_BATCH_SIZE = 32;
+    // queued after the last app.
+    private static final ApplicationEntry END = new ApplicationEntry();
+
+    interface Sink {
+        void write(@NonNull List<ApplicationEntry> appEntries);
+    }
+
+    @NonNull
+    final StageStatistics statistics = new StageStatistics("write", 1);
+    @NonNull
+    private final BlockingQueue<ApplicationEntry> mQueue;
+    @NonNull
+    private final Sink mSink;
+    @NonNull
+    private final Thread mThread;
+    // the first failure of the sink. Apps queued after it are dropped, so neither put() nor finish() block on a dead writer.
+    @Nullable
+    private volatile RuntimeException mFailure = null;
+    // set by finish(): apps queued afterwards would land behind END, and are dropped instead.
+    private volatile boolean mFinished = false;
+
+    AppBatchWriter(int capacity, @NonNull Sink sink) {
+        this.mQueue = new ArrayBlockingQueue<>(capacity);
+        this.mSink = sink;
+        this.mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeAll();
+            }
+        }, "AppBatchWriter");
+        mThread.setPriority(Thread.MIN_PRIORITY);
+        mThread.start();
+    }
+
+    /**
+     * Queues an analyzed app, waiting for room in the queue if needed. Apps queued once {@link #finish()} has been
+     * called, by workers that outlived the scan, are logged and dropped.
+     *
+     * @throws IllegalStateException if writing apps already failed.
+     */
+    void put(@NonNull ApplicationEntry appEntry) throws InterruptedException {
+        checkFailure();
+        if (mFinished) {
+            Log.w(TAG, "Dropping " + appEntry.app.packagename + ", queued after the writer finished");
+            return;
+        }
+        statistics.sampleQueueDepth(mQueue.size());
+        mQueue.put(appEntry);
+    }
+
+    /**
+     * Waits for all the queued apps to be written, to be called once no more apps get queued.
+     *
+     * @throws IllegalStateException if writing apps failed.
+     */
+    void finish() throws InterruptedException {
+        mFinished = true;
+        mQueue.put(END);
+        mThread.join();
+        checkFailure();
+    }
+
+    /**
+     * Stops the writer without waiting for the queued apps, which are dropped. For scans interrupted before
+     * {@link #finish()} could be called.
+     */
+    void abort() {
+        mThread.interrupt();
+    }
+
+    private void checkFailure() {
+        final RuntimeException failure = mFailure;
+        if (failure != null)
+            throw new IllegalStateException("writing analyzed apps failed", failure);
+    }
+
+    private void writeAll() {
+        final List<ApplicationEntry> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        boolean ended = false;
+        while (!ended) {
+            try {
+                batch.add(mQueue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            mQueue.drainTo(batch, MAX_BATCH_SIZE - 1);
+
+            // a put() racing with finish() can still queue an app behind END.
+            final int end = batch.indexOf(END);
+            if (end >= 0) {
+                if (end < batch.size() - 1)
+                    Log.w(TAG, "Dropping " + (batch.size() - 1 - end) + " apps queued after the writer finished");
+                batch.subList(end, batch.size()).clear();
+                ended = true;
+            }
+
+            if (!batch.isEmpty() && mFailure == null) {
+                final long start = System.nanoTime();
+                try {
+                    mSink.write(batch);
+                } catch (RuntimeException e) {
+                    mFailure = e;
+                }
+                statistics.add(batch.size(), System.nanoTime() - start);
+            }
+            batch.clear();
+        }
+    }
+}
@@ -37,14 +37,16 @@ public class ApplicationEntry {
     public static final String COL_VERSIONCODE = "versioncode";
     public static final String COL_APKLOCATIONS = "apklocations";
     public static final String COL_APPNAME = "appname";
-    public static final String COL_PNGICON = "pngicon";
     public static final String COL_APPLICATIONTYPE = "applicationtype";
     public static final String COL_ABIS_IN_APK = "abisinapk";
     public static final String COL_INSTALLDATE = "installdate";
     public static final String COL_LASTUPDATE = "lastupdate";
+    public static final String COL_DEEPANALYZED = "deepanalyzed";
+    public static final String COL_TIMEDOUT = "timedout";
+    public static final String COL_ABIPRUNED = "abipruned";
 
     // For database projection so order is consistent
-    public static final String[] FIELDS = {COL_ID, COL_PACKAGENAME, COL_VERSIONNAME, COL_VERSIONCODE, COL_APKLOCATIONS ,COL_APPNAME, COL_PNGICON, COL_APPLICATIONTYPE, COL_ABIS_IN_APK, COL_INSTALLDATE, COL_LASTUPDATE};
+    public static final String[] FIELDS = {COL_ID, COL_PACKAGENAME, COL_VERSIONNAME, COL_VERSIONCODE, COL_APKLOCATIONS ,COL_APPNAME, COL_APPLICATIONTYPE, COL_ABIS_IN_APK, COL_INSTALLDATE, COL_LASTUPDATE, COL_DEEPANALYZED, COL_TIMEDOUT, COL_ABIPRUNED};
 
     /*
      * The SQL code that creates a Table for storing Persons in.
@@ -59,11 +61,13 @@ public class ApplicationEntry {
                     + COL_VERSIONCODE + " INTEGER NOT NULL DEFAULT 0,"
                     + COL_APKLOCATIONS + " TEXT NOT NULL DEFAULT '',"
                     + COL_APPNAME + " TEXT NOT NULL DEFAULT '',"
-                    + COL_PNGICON + " BLOB,"
                     + COL_APPLICATIONTYPE + " INTEGER NOT NULL DEFAULT 0,"
                     + COL_ABIS_IN_APK + " TEXT NOT NULL DEFAULT '',"
                     + COL_INSTALLDATE + " INTEGER NOT NULL DEFAULT 0,"
                     + COL_LASTUPDATE + " INTEGER NOT NULL DEFAULT 0,"
+                    + COL_DEEPANALYZED + " INTEGER NOT NULL DEFAULT 0,"
+                    + COL_TIMEDOUT + " INTEGER NOT NULL DEFAULT 0,"
+                    + COL_ABIPRUNED + " INTEGER NOT NULL DEFAULT 0,"
                     + "CONSTRAINT  " + COL_PACKAGENAME + "_UNIQUE UNIQUE (" + COL_PACKAGENAME + ") ON CONFLICT REPLACE"
                     + ")";
 
@@ -88,15 +92,17 @@ public class ApplicationEntry {
             app.apkLocations = new HashSet<>(Arrays.asList(apkLocationsString.split(":")));
 
         app.appname = cursor.getString(5);
-        app.pngIcon = cursor.getBlob(6);
-        app.type = cursor.getInt(7);
+        app.type = cursor.getInt(6);
 
-        final String abisString = cursor.getString(8);
+        final String abisString = cursor.getString(7);
         if (abisString != null && abisString.length() > 0)
             app.abis_in_apk = new HashSet<>(Arrays.asList(abisString.split(":")));
 
-        app.installdate.setTime(cursor.getLong(9));
-        app.lastupdate.setTime(cursor.getLong(10));
+        app.installdate.setTime(cursor.getLong(8));
+        app.lastupdate.setTime(cursor.getLong(9));
+        app.deepAnalyzed = cursor.getInt(10) != 0;
+        app.timedOut = cursor.getInt(11) != 0;
+        app.abiPruned = cursor.getInt(12) != 0;
     }
 
     /**
@@ -112,11 +118,13 @@ public class ApplicationEntry {
         values.put(COL_VERSIONCODE, app.versionCode);
         values.put(COL_APKLOCATIONS, Arrays.toString(app.apkLocations.toArray()).replace(", ", ":").replaceAll("[\\[\\]]", ""));
         values.put(COL_APPNAME, app.appname);
-        values.put(COL_PNGICON, app.pngIcon);
         values.put(COL_APPLICATIONTYPE, app.type);
         values.put(COL_ABIS_IN_APK, Arrays.toString(app.abis_in_apk.toArray()).replace(", ", ":").replaceAll("[\\[\\]]", ""));
         values.put(COL_INSTALLDATE, app.installdate.getTime());
         values.put(COL_LASTUPDATE, app.lastupdate.getTime());
+        values.put(COL_DEEPANALYZED, app.deepAnalyzed ? 1 : 0);
+        values.put(COL_TIMEDOUT, app.timedOut ? 1 : 0);
+        values.put(COL_ABIPRUNED, app.abiPruned ? 1 : 0);
 
         return values;
     }
@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+
+import com.xh.nativelibsmonitor.lib.AnalysisMode;
+import com.xh.nativelibsmonitor.lib.NativeLibrary;
+
+import java.util.Arrays;
+
+/**
+ * Analysis result of a packaged native lib, shared by all the apps embedding the same (crc, size, ABI directory, name)
+ * entry. The name is part of the key: known shared libs are recognized by name, which changes their analysis. So is
+ * the {@link AnalysisMode} the lib was analyzed in.
+ */
+class CachedNativeLibraryEntry {
+
+    public static final String TABLE_NAME = "NativeLibrariesCache";
+    public static final String COL_ID = "_id";
+    public static final String COL_CRC = "crc";
+    public static final String COL_SIZE = "size";
+    public static final String COL_ABIDIRECTORY = "abidirectory";
+    public static final String COL_LIBNAME = "libname";
+    public static final String COL_ANALYSISMODE = "analysismode";
+    public static final String COL_ABI = "abi";
+    public static final String COL_ENTRYPOINTS = "entrypoints";
+    public static final String COL_FRAMEWORKS = "frameworks";
+    public static final String COL_DEPENDENCIES = "dependencies";
+    public static final String COL_LASTUSED = "lastused";
+
+    // For database projection so order is consistent
+    public static final String[] FIELDS = {COL_ID, COL_CRC, COL_SIZE, COL_ABIDIRECTORY, COL_LIBNAME, COL_ABI, COL_ENTRYPOINTS, COL_FRAMEWORKS, COL_DEPENDENCIES, COL_LASTUSED, COL_ANALYSISMODE};
+
+    public static final String CREATE_TABLE =
+            "CREATE TABLE " + TABLE_NAME + "("
+                    + COL_ID + " INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,"
+                    + COL_CRC + " INTEGER NOT NULL DEFAULT 0,"
+                    + COL_SIZE + " INTEGER NOT NULL DEFAULT 0,"
+                    + COL_ABIDIRECTORY + " TEXT NOT NULL DEFAULT '',"
+                    + COL_LIBNAME + " TEXT NOT NULL DEFAULT '',"
+                    + COL_ABI + " INTEGER NOT NULL DEFAULT 0,"
+                    + COL_ENTRYPOINTS + " TEXT NOT NULL DEFAULT '',"
+                    + COL_FRAMEWORKS + " TEXT NOT NULL DEFAULT '',"
+                    + COL_DEPENDENCIES + " TEXT NOT NULL DEFAULT '',"
+                    + COL_LASTUSED + " INTEGER NOT NULL DEFAULT 0,"
+                    + COL_ANALYSISMODE + " INTEGER NOT NULL DEFAULT 0,"
+                    + "CONSTRAINT _UNIQUE UNIQUE (" + COL_CRC + ", " + COL_SIZE + ", " + COL_ABIDIRECTORY + ", " + COL_LIBNAME + ", " + COL_ANALYSISMODE + ") ON CONFLICT REPLACE"
+                    + ")";
+
+    public long crc = 0;
+    public long size = 0;
+    @NonNull
+    public String abiDirectory = "";
+    @NonNull
+    public String libName = "";
+    @AnalysisMode.type
+    public int analysisMode = AnalysisMode.sections;
+    public long lastUsed = 0;
+    @NonNull
+    public NativeLibrary nativeLibrary = new NativeLibrary();
+
+    public CachedNativeLibraryEntry() {
+    }
+
+    /**
+     * Convert information from the database into a cache entry.
+     */
+    public CachedNativeLibraryEntry(@NonNull final Cursor cursor) {
+        crc = cursor.getLong(1);
+        size = cursor.getLong(2);
+        abiDirectory = cursor.getString(3);
+        libName = cursor.getString(4);
+        nativeLibrary.size = size;
+        nativeLibrary.abi = cursor.getInt(5);
+
+        String entryPointsString = cursor.getString(6);
+        if (entryPointsString != null && entryPointsString.length() > 0)
+            nativeLibrary.setEntryPoints(Arrays.asList(entryPointsString.split(":")));
+
+        String frameworksString = cursor.getString(7);
+        if (frameworksString != null && frameworksString.length() > 0)
+            nativeLibrary.setFrameworks(Arrays.asList(frameworksString.split(":")));
+
+        String dependenciesString = cursor.getString(8);
+        if (dependenciesString != null && dependenciesString.length() > 0)
+            nativeLibrary.setDependencies(Arrays.asList(dependenciesString.split(":")));
+
+        lastUsed = cursor.getLong(9);
+        analysisMode = cursor.getInt(10);
+    }
+
+    /**
+     * Return the fields in a ContentValues object, suitable for insertion
+     * into the database.
+     */
+    @NonNull
+    public ContentValues getContent() {
+        final ContentValues values = new ContentValues();
+        // Note that ID is NOT included here
+        values.put(COL_CRC, crc);
+        values.put(COL_SIZE, size);
+        values.put(COL_ABIDIRECTORY, abiDirectory);
+        values.put(COL_LIBNAME, libName);
+        values.put(COL_ABI, nativeLibrary.abi);
+        values.put(COL_ENTRYPOINTS, Arrays.toString(nativeLibrary.getEntryPoints().toArray()).replace(", ", ":").replaceAll("[\\[\\]]", ""));
+        values.put(COL_FRAMEWORKS, Arrays.toString(nativeLibrary.getFrameworks().toArray()).replace(", ", ":").replaceAll("[\\[\\]]", ""));
+        values.put(COL_DEPENDENCIES, Arrays.toString(nativeLibrary.getDependencies().toArray()).replace(", ", ":").replaceAll("[\\[\\]]", ""));
+        values.put(COL_LASTUSED, lastUsed);
+        values.put(COL_ANALYSISMODE, analysisMode);
+
+        return values;
+    }
+}
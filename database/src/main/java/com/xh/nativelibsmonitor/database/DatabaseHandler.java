@@ -30,33 +30,57 @@ import android.database.sqlite.SQLiteOpenHelper;
 import android.os.Build;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.util.Log;
 import android.util.Pair;
 
+import com.xh.nativelibsmonitor.lib.AnalysisDeadline;
 import com.xh.nativelibsmonitor.lib.AppAnalyzer;
 import com.xh.nativelibsmonitor.lib.ApplicationType;
+import com.xh.nativelibsmonitor.lib.IconCache;
 import com.xh.nativelibsmonitor.lib.NativeLibrary;
+import com.xh.nativelibsmonitor.lib.RootAccessBroker;
+import com.xh.nativelibsmonitor.lib.RootShellSession;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 public class DatabaseHandler extends SQLiteOpenHelper {
+    private static final String TAG = "databasehandler";
 
-    private static final int DATABASE_VERSION = 11;
+    private static final int DATABASE_VERSION = 18;
     private static final String DATABASE_NAME = "applications";
+    // budgets of the background scan, apps or libs running out of it are stored with partial results.
+    private static final long SCAN_APP_TIMEOUT_SECONDS = 60;
+    private static final long SCAN_LIBRARY_TIMEOUT_SECONDS = 10;
+    // analyzed apps waiting to be written, per analysis thread.
+    private static final int WRITE_QUEUE_CAPACITY_PER_THREAD = 4;
     private static DatabaseHandler singleton;
     @NonNull
     private final Context context;
     private boolean mBeingPopulated = false;
+    // the scan started by startInsertingAllApps(), cancelled when a refresh pre-empts it.
+    @Nullable
+    private AnalysisDeadline mCurrentScan = null;
     private volatile int mNumberOfAppInserted = -1;
     private int mTotalNumberOfAppsBeingInserted = -1;
+    @NonNull
+    private final DatabaseNativeLibraryCache mLibraryCache = new DatabaseNativeLibraryCache(this);
+    // one root session for all the APKs that can't be read as is, closed by the current scan once it's done.
+    private final RootAccessBroker mRootAccessBroker = new RootAccessBroker(RootShellSession.FACTORY);
+    // scheduler of the pass currently running, apps shown to the user get promoted in it.
+    @Nullable
+    private volatile ScanScheduler mScheduler = null;
 
-    private synchronized void incrementNumberOfAppsPopulated(){
-        ++mNumberOfAppInserted;
+    private synchronized void addNumberOfAppsPopulated(int count){
+        mNumberOfAppInserted += count;
     }
 
     private DatabaseHandler(@NonNull Context context) {
@@ -65,6 +89,7 @@ public class DatabaseHandler extends SQLiteOpenHelper {
         Context ctx = context.getApplicationContext();
         assert ctx != null;
         this.context = ctx;
+        AppAnalyzer.setCache(mLibraryCache);
     }
 
     @NonNull
@@ -116,6 +141,7 @@ public class DatabaseHandler extends SQLiteOpenHelper {
     @Override
     public void onCreate(@NonNull SQLiteDatabase db) {
         createTables(db);
+        createCacheTable(db);
         startInsertingAllApps();
     }
 
@@ -124,6 +150,10 @@ public class DatabaseHandler extends SQLiteOpenHelper {
         db.execSQL(NativeLibraryEntry.CREATE_TABLE);
     }
 
+    private synchronized void createCacheTable(@NonNull SQLiteDatabase db) {
+        db.execSQL(CachedNativeLibraryEntry.CREATE_TABLE);
+    }
+
     private synchronized void startInsertingAllApps() {
         //  Debug.startMethodTracing("AppsInsert");
         if (mBeingPopulated)
@@ -132,6 +162,8 @@ public class DatabaseHandler extends SQLiteOpenHelper {
         mBeingPopulated = true;
         mNumberOfAppInserted = 0;
         mTotalNumberOfAppsBeingInserted = 0;
+        final AnalysisDeadline scan = AnalysisDeadline.newScan(SCAN_APP_TIMEOUT_SECONDS, SCAN_LIBRARY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        mCurrentScan = scan;
 
         Thread bgThread = new Thread(new Runnable() {
             @Override
@@ -150,19 +182,36 @@ public class DatabaseHandler extends SQLiteOpenHelper {
                 mTotalNumberOfAppsBeingInserted = packageNames.size();
                 notifyProviderOnAppChange();
 
-                final ExecutorService exec = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+                // the APKs of this scan that can't be read as is, collected during the quick pass.
+                final Set<String> inaccessibleApkLocations = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+                // enumerate -> analyze (ABIs only, libs get deep analyzed once all apps are listed) -> write.
+                final int threadCount = Runtime.getRuntime().availableProcessors();
+                final AppBatchWriter writer = new AppBatchWriter(threadCount * WRITE_QUEUE_CAPACITY_PER_THREAD, new AppBatchWriter.Sink() {
+                    @Override
+                    public void write(@NonNull List<ApplicationEntry> appEntries) {
+                        if (!writeAppEntries(appEntries, scan))
+                            return;
+                        addNumberOfAppsPopulated(appEntries.size());
+                        notifyProviderOnAppChange();
+                    }
+                });
+                final ScanScheduler exec = new ScanScheduler(threadCount, "analyze ABIs");
+                mScheduler = exec;
                 for (final String packageName : packageNames) {
+                    if (scan.isCancelled())
+                        break;
                     try {
                         final ApplicationInfo ai;
 
                         ai = pm.getApplicationInfo(packageName, 0);
 
-                        exec.execute(new Runnable() {
+                        exec.submit(packageName, getApksSize(getApkLocations(ai)), new Runnable() {
                             @Override
                             public void run() {
-                                insertApp(pm, ai);
-                                incrementNumberOfAppsPopulated();
-                                if(mNumberOfAppInserted%16==5) notifyProviderOnAppChange(); //notify change every 20 inserted apps at most.
+                                if (scan.isCancelled())
+                                    return;
+                                queue(writer, analyzeApp(pm, ai, false, scan, inaccessibleApkLocations), scan);
                             }
                         });
                     } catch (PackageManager.NameNotFoundException ignore) {
@@ -173,24 +222,154 @@ public class DatabaseHandler extends SQLiteOpenHelper {
 
                 try {
                     // Wait a while for existing tasks to terminate
-                    if (!exec.awaitTermination(180, TimeUnit.SECONDS))
+                    if (!exec.awaitTermination(180, TimeUnit.SECONDS)) {
                         exec.shutdownNow(); // Cancel currently executing tasks
+                        // the apps being analyzed are bounded by their own budget, and must be queued before the writer ends.
+                        if (!exec.awaitTermination(SCAN_APP_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+                            Log.w(TAG, "Analysis threads still running, the apps they analyze won't be written");
+                    }
+                    writer.finish();
                 } catch (InterruptedException ie) {
                     // (Re-)Cancel if current thread also interrupted
                     exec.shutdownNow();
+                    writer.abort();
                     // Preserve interrupt status
                     Thread.currentThread().interrupt();
+                } catch (IllegalStateException e) {
+                    Log.e(TAG, "Couldn't write the analyzed apps", e);
+                    scan.cancel();
                 } finally {
-                    mBeingPopulated = false;
+                    endPopulating(scan);
                     notifyProviderOnAppChange();
+                    Log.i(TAG, exec.statistics + ", " + writer.statistics);
                     //  Debug.stopMethodTracing();
                 }
+
+                if (scan.isCancelled())
+                    return;
+
+                // the deep pass reads the APKs found inaccessible during the quick pass, they're all made readable at once.
+                mRootAccessBroker.grantReadAccess(inaccessibleApkLocations);
+                try {
+                    deepAnalyzePendingApps(scan);
+                } finally {
+                    closeRootAccess(scan);
+                }
             }
         });
         bgThread.setPriority(Thread.MIN_PRIORITY);
         bgThread.start();
     }
 
+    // a pre-empted scan must not end the population started by the scan that replaced it.
+    private synchronized void endPopulating(@NonNull AnalysisDeadline scan) {
+        if (mCurrentScan == scan)
+            mBeingPopulated = false;
+    }
+
+    // nor close the root session the scan that replaced it is still using.
+    private synchronized void closeRootAccess(@NonNull AnalysisDeadline scan) {
+        if (mCurrentScan == scan)
+            mRootAccessBroker.close();
+    }
+
+    /**
+     * Deep analyzes the libs of all the apps only inserted with their ABIs, this is meant to be run in background.
+     * Apps running out of their budget are stored as deep analyzed but timed out, they aren't retried by this pass.
+     */
+    private void deepAnalyzePendingApps(@NonNull final AnalysisDeadline scan) {
+        final int threadCount = Runtime.getRuntime().availableProcessors();
+        final AppBatchWriter writer = new AppBatchWriter(threadCount * WRITE_QUEUE_CAPACITY_PER_THREAD, new AppBatchWriter.Sink() {
+            @Override
+            public void write(@NonNull List<ApplicationEntry> appEntries) {
+                if (writeAppEntries(appEntries, scan))
+                    notifyProviderOnAppChange();
+            }
+        });
+        final ScanScheduler exec = new ScanScheduler(threadCount, "analyze libs");
+        mScheduler = exec;
+        for (final ApplicationEntry appEntry : getApplicationsNotDeepAnalyzed()) {
+            exec.submit(appEntry.app.packagename, getApksSize(appEntry.app.apkLocations), new Runnable() {
+                @Override
+                public void run() {
+                    if (!scan.isCancelled())
+                        queue(writer, analyzeApp(appEntry.id, scan), scan);
+                }
+            });
+        }
+        exec.shutdown();
+
+        try {
+            exec.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+            writer.finish();
+        } catch (InterruptedException ie) {
+            exec.shutdownNow();
+            writer.abort();
+            Thread.currentThread().interrupt();
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Couldn't write the analyzed apps", e);
+            scan.cancel();
+        } finally {
+            if (mScheduler == exec)
+                mScheduler = null;
+            mLibraryCache.flush();
+            Log.i(TAG, exec.statistics + ", " + writer.statistics);
+        }
+    }
+
+    // a writer that failed cancels the scan, the apps left wouldn't get written either.
+    private static void queue(@NonNull AppBatchWriter writer, @Nullable ApplicationEntry appEntry,
+                              @NonNull AnalysisDeadline scan) {
+        if (appEntry == null)
+            return;
+        try {
+            writer.put(appEntry);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IllegalStateException e) {
+            scan.cancel();
+        }
+    }
+
+    /**
+     * Moves an app ahead of the others in the pass currently running, typically because it's on screen.
+     */
+    public void promoteApp(@NonNull String packageName) {
+        final ScanScheduler scheduler = mScheduler;
+        if (scheduler != null)
+            scheduler.promote(packageName);
+    }
+
+    @NonNull
+    private static Collection<String> getApkLocations(@NonNull ApplicationInfo ai) {
+        final List<String> apkLocations = new ArrayList<>();
+        apkLocations.add(ai.sourceDir);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && ai.splitSourceDirs != null)
+            apkLocations.addAll(Arrays.asList(ai.splitSourceDirs));
+        return apkLocations;
+    }
+
+    // estimates the cost of analyzing an app: native libs make up most of the size of the APKs that have many.
+    private static long getApksSize(@NonNull Collection<String> apkLocations) {
+        long size = 0;
+        for (final String apkLocation : apkLocations) {
+            size += new File(apkLocation).length();
+        }
+        return size;
+    }
+
+    /**
+     * Makes sure the entry points, frameworks and dependencies of the libs of an app are known, analyzing them right
+     * away, without time limit, if the app was only inserted with its ABIs or if its analysis had timed out.
+     * Apps whose libs were only deep analyzed for the ABIs supported by the device count as deep analyzed: the libs
+     * of the other ABIs get analyzed on request, by {@link #updateApp(long)}.
+     *
+     * @return true if the app is now deep analyzed.
+     */
+    public boolean ensureDeepAnalyzed(long appId) {
+        return isDeepAnalyzed(appId) || updateApp(appId);
+    }
+
     private void addLaunchableAppsForCategory(PackageManager pm, String intentCategory, Set<String> packageNames) {
         final Intent mainIntent = new Intent(Intent.ACTION_MAIN, null);
         mainIntent.addCategory(intentCategory);
@@ -203,78 +382,122 @@ public class DatabaseHandler extends SQLiteOpenHelper {
         }
     }
 
-    private long insertApp(@NonNull final PackageManager pm, @NonNull final ApplicationInfo ai) {
+    /**
+     * Analyzes an app to be inserted, without writing it.
+     */
+    @NonNull
+    private ApplicationEntry analyzeApp(@NonNull final PackageManager pm, @NonNull final ApplicationInfo ai, boolean deepAnalysis,
+                                        @NonNull AnalysisDeadline scan, @Nullable Set<String> inaccessibleApkLocations) {
         final ApplicationEntry appEntry = new ApplicationEntry();
-        appEntry.app = AppAnalyzer.analyzeApp(ai, pm);
-        long appId = insertAppEntry(appEntry);
-
-        final NativeLibraryEntry libEntry = new NativeLibraryEntry();
-        libEntry.applicationId = appId;
-
-        for (final NativeLibrary lib : appEntry.app.installedNativeLibs) {
-            libEntry.nativeLibrary = lib;
-            insertLibraryEntry(libEntry);
-        }
-
-        for (final NativeLibrary lib : appEntry.app.packagedNativeLibs) {
-            libEntry.nativeLibrary = lib;
-            insertLibraryEntry(libEntry);
-        }
+        // analyses requested by the user cover every ABI, background scans deep analyze only those the device can load.
+        appEntry.app = AppAnalyzer.analyzeApp(ai, pm, deepAnalysis, deepAnalysis ? mRootAccessBroker : null, scan,
+                scan == AnalysisDeadline.NONE);
+        if (inaccessibleApkLocations != null)
+            inaccessibleApkLocations.addAll(appEntry.app.inaccessibleApkLocations);
+        // icons aren't part of the analysis anymore, they get rendered at low priority meanwhile.
+        IconCache.getInstance(context).prefetch(appEntry.app.packagename, appEntry.app.versionCode);
+        return appEntry;
+    }
 
-        if (appId > -1 && !mBeingPopulated) //don't notify provider if we're currently populating DB.
-            notifyProviderOnAppChange();
+    public boolean updateApp(long appId) {
+        final ApplicationEntry appEntry = analyzeApp(appId, AnalysisDeadline.NONE);
+        mLibraryCache.flush();
+        if (appEntry == null || writeAppEntry(appEntry) < 0)
+            return false;
 
-        return appId;
+        notifyProviderOnAppChange();
+        return true;
     }
 
-    public boolean updateApp(long appId) {
+    /**
+     * Deep analyzes an app already in the database, without writing it.
+     *
+     * @return the entry to update the app with, or null if the app isn't installed or launchable anymore.
+     */
+    @Nullable
+    private ApplicationEntry analyzeApp(long appId, @NonNull AnalysisDeadline scan) {
         final PackageManager pm = context.getPackageManager();
         assert pm != null;
 
         final ApplicationEntry formerEntry = getApplication(appId);
 
         if (formerEntry != null) {
+            final ScanScheduler scheduler = mScheduler;
+            if (scan == AnalysisDeadline.NONE && scheduler != null) // requested by the user, no need to analyze it again in background.
+                scheduler.withdraw(formerEntry.app.packagename);
             try {
                 final ApplicationInfo ai = pm.getApplicationInfo(formerEntry.app.packagename, 0);
-                if (ai != null && isLaunchableApp(pm, ai))
-                    return updateApp(pm, ai, appId);
+                if (ai != null && isLaunchableApp(pm, ai)) {
+                    final ApplicationEntry appEntry = new ApplicationEntry();
+                    appEntry.id = appId;
+                    appEntry.app = AppAnalyzer.analyzeApp(ai, pm, true, mRootAccessBroker, scan, scan == AnalysisDeadline.NONE);
+                    return appEntry;
+                }
             } catch (PackageManager.NameNotFoundException ignore) {
                 //TODO: handle exception
             }
         }
 
-        return false;
+        return null;
     }
 
-    private boolean updateApp(@NonNull final PackageManager pm, @NonNull final ApplicationInfo ai, long appId) {
-        final ApplicationEntry appEntry = new ApplicationEntry();
-        appEntry.app = AppAnalyzer.analyzeApp(ai, pm);
-
-        if (updateAppEntry(appEntry) == 1) {
+    /**
+     * Writes analyzed apps in a single transaction, see {@link #writeAppEntry(ApplicationEntry)}. Cancellation is
+     * checked under the lock {@link #refreshDatabase()} holds: once the tables are rebuilt, a pre-empted scan
+     * can't write apps that may not exist anymore.
+     *
+     * @return false if the scan was cancelled, and nothing was written.
+     */
+    private synchronized boolean writeAppEntries(@NonNull List<ApplicationEntry> appEntries, @NonNull AnalysisDeadline scan) {
+        if (scan.isCancelled())
+            return false;
 
-            final NativeLibraryEntry libEntry = new NativeLibraryEntry();
-            libEntry.applicationId = appId;
+        final SQLiteDatabase db = this.getWritableDatabase();
+        assert db != null;
+        db.beginTransaction();
+        try {
+            for (final ApplicationEntry appEntry : appEntries) {
+                writeAppEntry(appEntry);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return true;
+    }
 
+    /**
+     * Writes an analyzed app along with its libs: inserted when its id is -1, updated otherwise.
+     *
+     * @return the id of the app, or -1 if it couldn't be written.
+     */
+    private synchronized long writeAppEntry(@NonNull ApplicationEntry appEntry) {
+        long appId = appEntry.id;
+        if (appId < 0)
+            appId = insertAppEntry(appEntry);
+        else if (updateAppEntry(appEntry) == 1)
             deleteLibraryEntries(appId);
+        else
+            return -1;
+        if (appId < 0)
+            return -1;
 
-            for (final NativeLibrary lib : appEntry.app.installedNativeLibs) {
-                libEntry.nativeLibrary = lib;
-                insertLibraryEntry(libEntry);
-            }
+        final NativeLibraryEntry libEntry = new NativeLibraryEntry();
+        libEntry.applicationId = appId;
 
-            for (final NativeLibrary lib : appEntry.app.packagedNativeLibs) {
-                libEntry.nativeLibrary = lib;
-                insertLibraryEntry(libEntry);
-            }
+        for (final NativeLibrary lib : appEntry.app.installedNativeLibs) {
+            libEntry.nativeLibrary = lib;
+            insertLibraryEntry(libEntry);
+        }
 
-            notifyProviderOnAppChange();
+        for (final NativeLibrary lib : appEntry.app.packagedNativeLibs) {
+            libEntry.nativeLibrary = lib;
+            insertLibraryEntry(libEntry);
+        }
 
-            return true;
-        } else
-            return false;
+        return appId;
     }
 
-
     private synchronized void deleteLibraryEntries(long appId) {
         final SQLiteDatabase db = this.getWritableDatabase();
         assert db != null;
@@ -316,8 +539,12 @@ public class DatabaseHandler extends SQLiteOpenHelper {
                 return -1;
 
             final ApplicationInfo ai = pm.getApplicationInfo(packageName, 0);
-            if (ai != null && isLaunchableApp(pm, ai))
-                return insertApp(pm, ai);
+            if (ai != null && isLaunchableApp(pm, ai)) {
+                final long appId = writeAppEntry(analyzeApp(pm, ai, true, AnalysisDeadline.NONE, null));
+                if (appId > -1 && isNotBeingPopulated()) //don't notify provider if we're currently populating DB.
+                    notifyProviderOnAppChange();
+                return appId;
+            }
 
         } catch (PackageManager.NameNotFoundException ignore) {
             //TODO: handle exception
@@ -358,7 +585,15 @@ public class DatabaseHandler extends SQLiteOpenHelper {
         return true;
     }
 
+    /**
+     * Rebuilds the apps tables from scratch. A scan still running is pre-empted: its threads stop at their next
+     * deadline check, and their results are dropped.
+     */
     public synchronized void refreshDatabase() {
+        if (mCurrentScan != null)
+            mCurrentScan.cancel();
+        mBeingPopulated = false;
+
         final SQLiteDatabase db = this.getWritableDatabase();
         assert db != null;
         deleteTables(db);
@@ -369,7 +604,9 @@ public class DatabaseHandler extends SQLiteOpenHelper {
     @Override
     public void onUpgrade(@NonNull SQLiteDatabase db, int oldVersion, int newVersion) {
         deleteTables(db);
+        db.execSQL("DROP TABLE IF EXISTS " + CachedNativeLibraryEntry.TABLE_NAME);
         createTables(db);
+        createCacheTable(db);
         startInsertingAllApps();
     }
 
@@ -538,6 +775,52 @@ public class DatabaseHandler extends SQLiteOpenHelper {
                 AppProvider.URI_APPS, null, false);
     }
 
+    /**
+     * @return true if the libs of the app have been fully deep analyzed, without timing out, for all its ABIs or for
+     * those supported by the device only if their pruning was intended, see {@link com.xh.nativelibsmonitor.lib.App#abiPruned}.
+     */
+    public synchronized boolean isDeepAnalyzed(long id) {
+        boolean result = false;
+
+        final SQLiteDatabase db = this.getReadableDatabase();
+        assert db != null;
+
+        final Cursor cursor = db.query(ApplicationEntry.TABLE_NAME,
+                new String[]{ApplicationEntry.COL_DEEPANALYZED, ApplicationEntry.COL_TIMEDOUT}, ApplicationEntry.COL_ID + " IS ?",
+                new String[]{String.valueOf(id)}, null, null, null, null);
+
+        if (cursor != null) {
+            if (!cursor.isAfterLast() && cursor.moveToFirst()) {
+                result = cursor.getInt(0) != 0 && cursor.getInt(1) == 0;
+            }
+            cursor.close();
+        }
+
+        return result;
+    }
+
+    // ABI-pruned apps are deep analyzed already, the background pass doesn't analyze their other ABIs.
+    @NonNull
+    private synchronized List<ApplicationEntry> getApplicationsNotDeepAnalyzed() {
+        final List<ApplicationEntry> result = new ArrayList<>();
+
+        final SQLiteDatabase db = this.getReadableDatabase();
+        assert db != null;
+
+        final Cursor cursor = db.query(ApplicationEntry.TABLE_NAME,
+                ApplicationEntry.FIELDS, ApplicationEntry.COL_DEEPANALYZED + " IS 0",
+                null, null, null, null, null);
+
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                result.add(new ApplicationEntry(cursor));
+            }
+            cursor.close();
+        }
+
+        return result;
+    }
+
     public synchronized long getApplicationId(String packageName) {
         long result = -1;
 
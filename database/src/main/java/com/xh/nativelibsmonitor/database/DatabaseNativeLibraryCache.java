@@ -0,0 +1,227 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.xh.nativelibsmonitor.lib.AnalysisMode;
+import com.xh.nativelibsmonitor.lib.NativeLibrary;
+import com.xh.nativelibsmonitor.lib.NativeLibraryCache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The analysis cache, persisted in its own table and mirrored in memory: lookups from the analysis threads only hit
+ * a concurrent map, and neither wait for the database nor write to it. Last use times are written back in batches,
+ * and entries beyond CACHE_MAX_ENTRIES are evicted least recently used first, from the map and the table alike.
+ */
+final class DatabaseNativeLibraryCache implements NativeLibraryCache {
+    private static final int CACHE_MAX_ENTRIES = 4096;
+    // the cache is trimmed every CACHE_TRIM_INTERVAL insertions, last use times flushed every LASTUSED_FLUSH_INTERVAL hits.
+    private static final int CACHE_TRIM_INTERVAL = 64;
+    private static final int LASTUSED_FLUSH_INTERVAL = 64;
+    private static final String SELECTION = CachedNativeLibraryEntry.COL_CRC + " IS ? AND "
+            + CachedNativeLibraryEntry.COL_SIZE + " IS ? AND " + CachedNativeLibraryEntry.COL_ABIDIRECTORY + " IS ? AND "
+            + CachedNativeLibraryEntry.COL_LIBNAME + " IS ? AND " + CachedNativeLibraryEntry.COL_ANALYSISMODE + " IS ?";
+
+    @NonNull
+    private final SQLiteOpenHelper mHelper;
+    @NonNull
+    private final Map<String, CachedNativeLibraryEntry> mEntries = new ConcurrentHashMap<>();
+    // last use times not written yet, by key.
+    @NonNull
+    private final Map<String, Long> mPendingLastUsed = new ConcurrentHashMap<>();
+    private final AtomicInteger mInsertionsSinceTrim = new AtomicInteger();
+    // guards loading, writing and trimming, never taken by lookups once loaded.
+    private final Object mWriteLock = new Object();
+    @Nullable
+    private SQLiteDatabase mDatabase = null;
+    private volatile boolean mLoaded = false;
+
+    DatabaseNativeLibraryCache(@NonNull SQLiteOpenHelper helper) {
+        this.mHelper = helper;
+    }
+
+    @Nullable
+    @Override
+    public NativeLibrary get(long crc, long size, @NonNull String abiDirectory, @NonNull String libName,
+                             @AnalysisMode.type int analysisMode) {
+        ensureLoaded();
+        final String key = getKey(crc, size, abiDirectory, libName, analysisMode);
+        final CachedNativeLibraryEntry entry = mEntries.get(key);
+        if (entry == null)
+            return null;
+
+        mPendingLastUsed.put(key, System.currentTimeMillis());
+        if (mPendingLastUsed.size() >= LASTUSED_FLUSH_INTERVAL)
+            flush();
+        return copy(entry.nativeLibrary);
+    }
+
+    @Override
+    public void put(long crc, long size, @NonNull String abiDirectory, @NonNull String libName,
+                    @AnalysisMode.type int analysisMode, @NonNull NativeLibrary nativeLibrary) {
+        ensureLoaded();
+        final CachedNativeLibraryEntry entry = new CachedNativeLibraryEntry();
+        entry.crc = crc;
+        entry.size = size;
+        entry.abiDirectory = abiDirectory;
+        entry.libName = libName;
+        entry.analysisMode = analysisMode;
+        entry.nativeLibrary = copy(nativeLibrary);
+        entry.lastUsed = System.currentTimeMillis();
+
+        synchronized (mWriteLock) {
+            mEntries.put(getKey(entry), entry);
+            getDatabase().insert(CachedNativeLibraryEntry.TABLE_NAME, null, entry.getContent());
+        }
+
+        if (mInsertionsSinceTrim.incrementAndGet() >= CACHE_TRIM_INTERVAL) {
+            mInsertionsSinceTrim.set(0);
+            trim();
+        }
+    }
+
+    /**
+     * Writes the pending last use times, in a single transaction.
+     */
+    void flush() {
+        synchronized (mWriteLock) {
+            if (mPendingLastUsed.isEmpty())
+                return;
+
+            final SQLiteDatabase db = getDatabase();
+            db.beginTransaction();
+            try {
+                for (final String key : new ArrayList<>(mPendingLastUsed.keySet())) {
+                    final Long lastUsed = mPendingLastUsed.remove(key);
+                    final CachedNativeLibraryEntry entry = mEntries.get(key);
+                    if (lastUsed == null || entry == null)
+                        continue;
+
+                    entry.lastUsed = lastUsed;
+                    final ContentValues values = new ContentValues();
+                    values.put(CachedNativeLibraryEntry.COL_LASTUSED, lastUsed);
+                    db.update(CachedNativeLibraryEntry.TABLE_NAME, values, SELECTION, getSelectionArgs(entry));
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    // evicts the least recently used entries beyond CACHE_MAX_ENTRIES.
+    private void trim() {
+        synchronized (mWriteLock) {
+            flush();
+            if (mEntries.size() <= CACHE_MAX_ENTRIES)
+                return;
+
+            final List<CachedNativeLibraryEntry> entries = new ArrayList<>(mEntries.values());
+            Collections.sort(entries, new Comparator<CachedNativeLibraryEntry>() {
+                @Override
+                public int compare(CachedNativeLibraryEntry lhs, CachedNativeLibraryEntry rhs) {
+                    return lhs.lastUsed < rhs.lastUsed ? -1 : (lhs.lastUsed == rhs.lastUsed ? 0 : 1);
+                }
+            });
+
+            final SQLiteDatabase db = getDatabase();
+            db.beginTransaction();
+            try {
+                for (final CachedNativeLibraryEntry entry : entries.subList(0, entries.size() - CACHE_MAX_ENTRIES)) {
+                    mEntries.remove(getKey(entry));
+                    db.delete(CachedNativeLibraryEntry.TABLE_NAME, SELECTION, getSelectionArgs(entry));
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    private void ensureLoaded() {
+        if (mLoaded)
+            return;
+
+        synchronized (mWriteLock) {
+            if (mLoaded)
+                return;
+
+            final Cursor cursor = getDatabase().query(CachedNativeLibraryEntry.TABLE_NAME,
+                    CachedNativeLibraryEntry.FIELDS, null, null, null, null, null, null);
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    final CachedNativeLibraryEntry entry = new CachedNativeLibraryEntry(cursor);
+                    mEntries.put(getKey(entry), entry);
+                }
+                cursor.close();
+            }
+            mLoaded = true;
+        }
+    }
+
+    // opened once: getWritableDatabase() takes the lock of the helper, held by DatabaseHandler while it writes apps.
+    @NonNull
+    private SQLiteDatabase getDatabase() {
+        synchronized (mWriteLock) {
+            if (mDatabase == null)
+                mDatabase = mHelper.getWritableDatabase();
+            assert mDatabase != null;
+            return mDatabase;
+        }
+    }
+
+    @NonNull
+    private static String getKey(@NonNull CachedNativeLibraryEntry entry) {
+        return getKey(entry.crc, entry.size, entry.abiDirectory, entry.libName, entry.analysisMode);
+    }
+
+    @NonNull
+    private static String getKey(long crc, long size, @NonNull String abiDirectory, @NonNull String libName,
+                                 @AnalysisMode.type int analysisMode) {
+        return crc + ":" + size + ":" + abiDirectory + "/" + libName + ":" + analysisMode;
+    }
+
+    @NonNull
+    private static String[] getSelectionArgs(@NonNull CachedNativeLibraryEntry entry) {
+        return new String[]{String.valueOf(entry.crc), String.valueOf(entry.size), entry.abiDirectory, entry.libName,
+                String.valueOf(entry.analysisMode)};
+    }
+
+    // the cached library is kept apart from the ones handed out, callers are free to modify those.
+    @NonNull
+    private static NativeLibrary copy(@NonNull NativeLibrary nativeLibrary) {
+        final NativeLibrary copy = new NativeLibrary(nativeLibrary.path, nativeLibrary.size, nativeLibrary.abi);
+        copy.copyNamesFrom(nativeLibrary);
+        return copy;
+    }
+}
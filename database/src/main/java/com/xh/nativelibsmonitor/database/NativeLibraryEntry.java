@@ -76,7 +76,7 @@ class NativeLibraryEntry {
 
         String entryPointsString = cursor.getString(3);
         if (entryPointsString != null && entryPointsString.length() > 0)
-            nativeLibrary.entryPoints = Arrays.asList(entryPointsString.split(":"));
+            nativeLibrary.setEntryPoints(Arrays.asList(entryPointsString.split(":")));
 
         nativeLibrary.path = cursor.getString(4);
         nativeLibrary.size = cursor.getLong(5);
@@ -84,11 +84,11 @@ class NativeLibraryEntry {
 
         String frameworksString = cursor.getString(7);
         if (frameworksString != null && frameworksString.length() > 0)
-            nativeLibrary.frameworks = Arrays.asList(frameworksString.split(":"));
+            nativeLibrary.setFrameworks(Arrays.asList(frameworksString.split(":")));
 
         String dependenciesString = cursor.getString(8);
         if (dependenciesString != null && dependenciesString.length() > 0)
-            nativeLibrary.dependencies = Arrays.asList(dependenciesString.split(":"));
+            nativeLibrary.setDependencies(Arrays.asList(dependenciesString.split(":")));
     }
 
     /**
@@ -101,12 +101,12 @@ class NativeLibraryEntry {
         // Note that ID is NOT included here
         values.put(COL_APPLICATIONID, applicationId);
         values.put(COL_ABI, nativeLibrary.abi);
-        values.put(COL_ENTRYPOINTS, Arrays.toString(nativeLibrary.entryPoints.toArray()).replace(", ", ":").replaceAll("[\\[\\]]", ""));
+        values.put(COL_ENTRYPOINTS, Arrays.toString(nativeLibrary.getEntryPoints().toArray()).replace(", ", ":").replaceAll("[\\[\\]]", ""));
         values.put(COL_PATH, nativeLibrary.path);
         values.put(COL_SIZE, nativeLibrary.size);
         values.put(COL_TYPE, nativeLibrary.type);
-        values.put(COL_FRAMEWORKS, Arrays.toString(nativeLibrary.frameworks.toArray()).replace(", ", ":").replaceAll("[\\[\\]]", ""));
-        values.put(COL_DEPENDENCIES, Arrays.toString(nativeLibrary.dependencies.toArray()).replace(", ", ":").replaceAll("[\\[\\]]", ""));
+        values.put(COL_FRAMEWORKS, Arrays.toString(nativeLibrary.getFrameworks().toArray()).replace(", ", ":").replaceAll("[\\[\\]]", ""));
+        values.put(COL_DEPENDENCIES, Arrays.toString(nativeLibrary.getDependencies().toArray()).replace(", ", ":").replaceAll("[\\[\\]]", ""));
 
         return values;
     }
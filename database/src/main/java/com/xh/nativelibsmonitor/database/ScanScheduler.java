@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.database;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the per-app tasks of a scan, cheapest apps first, so a few giant games don't hold back the results of
+ * all the others. Apps on screen can be promoted while their task is queued, the latest promoted running first.
+ */
+final class ScanScheduler {
+    @NonNull
+    final StageStatistics statistics;
+    private final ThreadPoolExecutor mExecutor;
+    // package name -> task not started yet.
+    private final ConcurrentHashMap<String, Task> mPendingTasks = new ConcurrentHashMap<>();
+    private final AtomicLong mSequence = new AtomicLong();
+
+    ScanScheduler(int threadCount, @NonNull String stageName) {
+        statistics = new StageStatistics(stageName, threadCount);
+        mExecutor = new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>());
+        // promoted tasks are queued directly, workers must already be there to take them.
+        mExecutor.prestartAllCoreThreads();
+    }
+
+    /**
+     * @param cost estimated cost of the task, the summed size of the APKs of the app.
+     */
+    void submit(@NonNull String packageName, long cost, @NonNull Runnable runnable) {
+        final Task task = new Task(packageName, runnable);
+        mPendingTasks.put(packageName, task);
+        statistics.sampleQueueDepth(mExecutor.getQueue().size());
+        mExecutor.execute(new QueueEntry(task, 0, cost, mSequence.incrementAndGet()));
+    }
+
+    /**
+     * Moves the task of an app ahead of the queue, if it hasn't started yet.
+     */
+    void promote(@NonNull String packageName) {
+        final Task task = mPendingTasks.get(packageName);
+        if (task == null)
+            return;
+
+        // a priority can't change once queued: a second entry goes in ahead, the first one to run claims the task.
+        final long sequence = mSequence.incrementAndGet();
+        mExecutor.getQueue().offer(new QueueEntry(task, sequence, 0, sequence));
+    }
+
+    /**
+     * Drops the task of an app if it hasn't started yet, for callers about to run it by themselves.
+     */
+    void withdraw(@NonNull String packageName) {
+        final Task task = mPendingTasks.get(packageName);
+        if (task != null)
+            task.claim();
+    }
+
+    void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    void shutdownNow() {
+        mExecutor.shutdownNow();
+    }
+
+    boolean awaitTermination(long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+        return mExecutor.awaitTermination(timeout, unit);
+    }
+
+    private final class Task implements Runnable {
+        @NonNull
+        private final String mPackageName;
+        @NonNull
+        private final Runnable mRunnable;
+        private final AtomicBoolean mClaimed = new AtomicBoolean(false);
+
+        Task(@NonNull String packageName, @NonNull Runnable runnable) {
+            this.mPackageName = packageName;
+            this.mRunnable = runnable;
+        }
+
+        boolean claim() {
+            if (!mClaimed.compareAndSet(false, true))
+                return false;
+            mPendingTasks.remove(mPackageName, this);
+            return true;
+        }
+
+        @Override
+        public void run() {
+            final long start = System.nanoTime();
+            mRunnable.run();
+            statistics.add(1, System.nanoTime() - start);
+        }
+    }
+
+    private static final class QueueEntry implements Runnable, Comparable<QueueEntry> {
+        @NonNull
+        private final Task mTask;
+        // 0 when not promoted, the latest promotion having the highest value.
+        private final long mPromotion;
+        private final long mCost;
+        private final long mSequence;
+
+        QueueEntry(@NonNull Task task, long promotion, long cost, long sequence) {
+            this.mTask = task;
+            this.mPromotion = promotion;
+            this.mCost = cost;
+            this.mSequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            if (mTask.claim())
+                mTask.run();
+        }
+
+        @Override
+        public int compareTo(@NonNull QueueEntry other) {
+            if (mPromotion != other.mPromotion)
+                return mPromotion > other.mPromotion ? -1 : 1;
+            if (mCost != other.mCost)
+                return mCost < other.mCost ? -1 : 1;
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+    }
+}
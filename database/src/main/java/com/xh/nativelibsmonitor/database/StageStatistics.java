@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.database;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput and queue depth of a stage of the scan pipeline, logged when a pass ends to tune pool and queue sizes.
+ */
+final class StageStatistics {
+    @NonNull
+    private final String mName;
+    private final int mThreadCount;
+    private final long mStartNanos = System.nanoTime();
+    private final AtomicLong mItems = new AtomicLong();
+    private final AtomicLong mBusyNanos = new AtomicLong();
+    private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+
+    StageStatistics(@NonNull String name, int threadCount) {
+        this.mName = name;
+        this.mThreadCount = threadCount;
+    }
+
+    void add(int items, long busyNanos) {
+        mItems.addAndGet(items);
+        mBusyNanos.addAndGet(busyNanos);
+    }
+
+    void sampleQueueDepth(int depth) {
+        int max = mMaxQueueDepth.get();
+        while (depth > max && !mMaxQueueDepth.compareAndSet(max, depth)) {
+            max = mMaxQueueDepth.get();
+        }
+    }
+
+    /**
+     * @return how busy the threads of the stage have been since it started, 1 meaning they never waited.
+     */
+    float getUtilization() {
+        final long elapsedNanos = System.nanoTime() - mStartNanos;
+        return elapsedNanos > 0 ? (float) mBusyNanos.get() / (elapsedNanos * mThreadCount) : 0;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        final long busyMs = TimeUnit.NANOSECONDS.toMillis(mBusyNanos.get());
+        final long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - mStartNanos);
+        return String.format("%s: %d items in %d ms on %d threads (%.0f%% busy, %.1f items/s), max queue depth %d",
+                mName, mItems.get(), elapsedMs, mThreadCount, 100 * getUtilization(),
+                busyMs > 0 ? mItems.get() * 1000f * mThreadCount / busyMs : 0f, mMaxQueueDepth.get());
+    }
+}
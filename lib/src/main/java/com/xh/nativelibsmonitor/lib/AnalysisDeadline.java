@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.lib;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cancellable time budget of an analysis. A scan hands a deadline to each app it analyzes, which hands a shorter one
+ * to each of its libraries: analysis loops poll {@link #isExpired()} and stop early, the libraries they return then
+ * being flagged as {@link NativeLibrary#timedOut}.
+ */
+public final class AnalysisDeadline {
+    // System.nanoTime() value never reached, also passed as-is to the native analyzer.
+    static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    /**
+     * Never expires, for analyses requested by the user.
+     */
+    public static final AnalysisDeadline NONE = new AnalysisDeadline(null, NO_DEADLINE, NO_DEADLINE, NO_DEADLINE);
+
+    @Nullable
+    private final AnalysisDeadline mParent;
+    private final long mDeadlineNanos;
+    private final long mAppTimeoutNanos;
+    private final long mLibraryTimeoutNanos;
+    private volatile boolean mCancelled = false;
+
+    private AnalysisDeadline(@Nullable AnalysisDeadline parent, long deadlineNanos, long appTimeoutNanos, long libraryTimeoutNanos) {
+        this.mParent = parent;
+        this.mDeadlineNanos = deadlineNanos;
+        this.mAppTimeoutNanos = appTimeoutNanos;
+        this.mLibraryTimeoutNanos = libraryTimeoutNanos;
+    }
+
+    /**
+     * Creates the handle of a scan, which has no deadline of its own but can be cancelled.
+     */
+    @NonNull
+    public static AnalysisDeadline newScan(long appTimeout, long libraryTimeout, @NonNull TimeUnit unit) {
+        return new AnalysisDeadline(null, NO_DEADLINE, unit.toNanos(appTimeout), unit.toNanos(libraryTimeout));
+    }
+
+    /**
+     * Starts the budget of an app, bounded by this deadline.
+     */
+    @NonNull
+    public AnalysisDeadline forApp() {
+        return new AnalysisDeadline(this, after(mAppTimeoutNanos), mAppTimeoutNanos, mLibraryTimeoutNanos);
+    }
+
+    /**
+     * Starts the budget of a library, bounded by this deadline.
+     */
+    @NonNull
+    public AnalysisDeadline forLibrary() {
+        return new AnalysisDeadline(this, after(mLibraryTimeoutNanos), mLibraryTimeoutNanos, mLibraryTimeoutNanos);
+    }
+
+    /**
+     * Expires this deadline and all the ones derived from it.
+     */
+    public void cancel() {
+        if (this == NONE)
+            throw new UnsupportedOperationException("NONE can't be cancelled");
+        mCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        for (AnalysisDeadline deadline = this; deadline != null; deadline = deadline.mParent) {
+            if (deadline.mCancelled)
+                return true;
+        }
+        return false;
+    }
+
+    public boolean isExpired() {
+        return (mDeadlineNanos != NO_DEADLINE && System.nanoTime() - mDeadlineNanos >= 0) || isCancelled();
+    }
+
+    // System.nanoTime() based, which is CLOCK_MONOTONIC on Android.
+    long getDeadlineNanos() {
+        return mDeadlineNanos;
+    }
+
+    long getLibraryTimeoutNanos() {
+        return mLibraryTimeoutNanos;
+    }
+
+    private long after(long timeoutNanos) {
+        if (timeoutNanos == NO_DEADLINE)
+            return mDeadlineNanos;
+        final long deadlineNanos = System.nanoTime() + timeoutNanos;
+        return mDeadlineNanos == NO_DEADLINE || deadlineNanos - mDeadlineNanos < 0 ? deadlineNanos : mDeadlineNanos;
+    }
+}
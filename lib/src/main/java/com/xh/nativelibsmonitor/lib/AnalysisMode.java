@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.lib;
+
+import android.support.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * What a deep analysis reads of a native library. Both modes find the same entry points, framework symbols and
+ * dependencies in the dynamic symbols of a library, but not the same extras, so their results are cached apart.
+ */
+public final class AnalysisMode {
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({sections, dynamic})
+    public @interface type {}
+
+    /**
+     * The whole library is read through its section headers: on top of the dynamic symbols, the static symbol table,
+     * the ARM build attributes and the .rodata version strings get analyzed.
+     */
+    public static final int sections = 0;
+    /**
+     * Only the dynamic segment, found through the program headers at the start of the library, and the tables it
+     * points to get read: a compressed library only gets inflated up to the furthest of them. ARM libraries keep the
+     * ABI of their directory, and no version or Intel Compiler runtime is reported.
+     */
+    public static final int dynamic = 1;
+
+    private AnalysisMode() {
+        throw new AssertionError();
+    }
+}
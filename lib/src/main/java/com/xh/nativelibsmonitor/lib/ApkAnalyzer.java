@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.lib;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Platform-independent analysis of the native libs packaged in an APK file, shared by {@link AppAnalyzer} on devices
+ * and by the desktop batch analyzer.
+ */
+public final class ApkAnalyzer {
+    private static final String LIB_PREFIX = "lib";
+    private static final int LIB_PREFIX_LENGTH = LIB_PREFIX.length();
+    private static final String LIB_SUFFIX = ".so";
+    private static final int LIB_SUFFIX_LENGTH = LIB_SUFFIX.length();
+    private static final int MIN_ENTRY_LENGTH = 7 + LIB_PREFIX_LENGTH + 1 + LIB_SUFFIX_LENGTH;
+    private static final byte[] LIB_PREFIX_BYTES = LIB_PREFIX.getBytes();
+    private static final byte[] LIB_SUFFIX_BYTES = LIB_SUFFIX.getBytes();
+
+    // matches ".../lib*.so" entries on the raw bytes of their name, which is all ASCII for the parts we look at.
+    private static final ZipCentralDirectory.NameFilter NATIVE_LIBS_FILTER = new ZipCentralDirectory.NameFilter() {
+        @Override
+        public boolean accept(@NonNull ByteBuffer centralDirectory, int nameOffset, int nameLength) {
+            if (nameLength < MIN_ENTRY_LENGTH)
+                return false;
+
+            final int nameEnd = nameOffset + nameLength;
+            if (!regionMatches(centralDirectory, nameEnd - LIB_SUFFIX_LENGTH, LIB_SUFFIX_BYTES))
+                return false;
+
+            int lastSlash = nameEnd - LIB_SUFFIX_LENGTH - 1;
+            while (lastSlash >= nameOffset && centralDirectory.get(lastSlash) != '/') {
+                --lastSlash;
+            }
+
+            return lastSlash >= nameOffset && regionMatches(centralDirectory, lastSlash + 1, LIB_PREFIX_BYTES);
+        }
+    };
+
+    private ApkAnalyzer() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Reads the native libs packaged in an APK, in the order of its central directory.
+     *
+     * @param engine       analyzes the libs of the APK not found in the cache, in a single call.
+     * @param cache        consulted before deep analyzing a lib, or null.
+     * @param deepAnalysis when false, only the ELF header of the libs is read, see {@link NativeLibIdentifier}.
+     * @param analyzedAbis the ABI directories whose libs get deep analyzed, or null for all of them. The libs of the
+     *                     other ones only get the ABI of their directory and their size, and are flagged as
+     *                     {@link NativeLibrary#abiPruned}.
+     */
+    @NonNull
+    public static List<NativeLibrary> getNativeLibs(@NonNull String apkPath, @NonNull NativeLibAnalyzerEngine engine,
+                                                    @Nullable NativeLibraryCache cache, boolean deepAnalysis,
+                                                    @Nullable Collection<String> analyzedAbis,
+                                                    @NonNull AnalysisDeadline deadline) throws IOException {
+        try (ApkFile apk = new ApkFile(apkPath)) {
+            final List<ZipCentralDirectory.Entry> entries = apk.getEntries(NATIVE_LIBS_FILTER);
+            final NativeLibrary[] nativeLibraries = new NativeLibrary[entries.size()];
+
+            if (deepAnalysis) {
+                // cache misses are analyzed together: the JNI engine handles them in a single native call.
+                final List<ZipCentralDirectory.Entry> pendingEntries = new ArrayList<>();
+                final List<Integer> pendingIndexes = new ArrayList<>();
+                for (int i = 0; i < entries.size(); ++i) {
+                    final ZipCentralDirectory.Entry entry = entries.get(i);
+                    final String abiDirectory = getAbiDirectory(entry.name);
+                    if (!isAnalyzedAbi(analyzedAbis, abiDirectory)) { // the central directory is enough for abis_in_apk.
+                        nativeLibraries[i] = new NativeLibrary(entry.name, entry.size, ABI.fromString(abiDirectory));
+                        nativeLibraries[i].abiPruned = true;
+                        continue;
+                    }
+
+                    nativeLibraries[i] = cache != null ? cache.get(entry.crc, entry.size, abiDirectory, getLibName(entry.name), engine.getAnalysisMode()) : null;
+                    if (nativeLibraries[i] == null) {
+                        pendingEntries.add(entry);
+                        pendingIndexes.add(i);
+                    }
+                }
+
+                if (!pendingEntries.isEmpty()) {
+                    final List<NativeLibrary> analyzedLibraries = engine.analyzeNativeLibs(apk, pendingEntries, deadline);
+                    for (int i = 0; i < pendingEntries.size(); ++i) {
+                        final ZipCentralDirectory.Entry entry = pendingEntries.get(i);
+                        final NativeLibrary nativeLibrary = analyzedLibraries.get(i);
+                        nativeLibraries[pendingIndexes.get(i)] = nativeLibrary;
+                        if (cache != null && !nativeLibrary.timedOut) // partial results get another chance next time.
+                            cache.put(entry.crc, entry.size, getAbiDirectory(entry.name), getLibName(entry.name),
+                                    engine.getAnalysisMode(), nativeLibrary);
+                    }
+                }
+            } else {
+                for (int i = 0; i < entries.size(); ++i) {
+                    nativeLibraries[i] = NativeLibIdentifier.identifyNativeLib(apk, entries.get(i));
+                }
+            }
+
+            for (int i = 0; i < entries.size(); ++i) {
+                final String entryName = entries.get(i).name;
+                final String dirName = getAbiDirectory(entryName);
+                final NativeLibrary nativeLibrary = nativeLibraries[i];
+                nativeLibrary.path = entryName;
+                nativeLibrary.type = NativeLibrary.TYPE.IN_PACKAGE;
+
+                if (nativeLibrary.abi == ABI.arm) { // no build attributes were read, fall back on the ABI directory.
+                    if (dirName.equals("armeabi"))
+                        nativeLibrary.abi = ABI.armv5;
+                    if (dirName.equals("armeabi-v7a"))
+                        nativeLibrary.abi = ABI.armv7;
+                    if (dirName.equals("arm64-v8a"))
+                        nativeLibrary.abi = ABI.arm64;
+                }
+            }
+            return Arrays.asList(nativeLibraries);
+        }
+    }
+
+    // directories and splits that don't name a known ABI are always analyzed.
+    static boolean isAnalyzedAbi(@Nullable Collection<String> analyzedAbis, @Nullable String abi) {
+        return analyzedAbis == null || abi == null || ABI.fromString(abi) == ABI.unknown || analyzedAbis.contains(abi);
+    }
+
+    // lib/<abi>/libname.so -> <abi>
+    @NonNull
+    static String getAbiDirectory(@NonNull String entryName) {
+        final int lastSlash = entryName.lastIndexOf('/');
+        final int slashBeforeLastSlash = entryName.lastIndexOf('/', lastSlash - 1);
+        return entryName.substring(slashBeforeLastSlash + 1, lastSlash);
+    }
+
+    // lib/<abi>/libname.so -> libname.so
+    @NonNull
+    static String getLibName(@NonNull String entryName) {
+        return entryName.substring(entryName.lastIndexOf('/') + 1);
+    }
+
+    private static boolean regionMatches(@NonNull ByteBuffer buffer, int offset, @NonNull byte[] expected) {
+        for (int i = 0; i < expected.length; ++i) {
+            if (buffer.get(offset + i) != expected[i])
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.lib;
+
+import android.support.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * An opened APK: its central directory and positional access to the content of its entries.
+ * Entries are read with {@link #read(long, byte[], int, int)} and mapped with {@link #map(long, long)}, which several
+ * threads can use at once. Unlike the reads of {@link #getChannel()}, an interrupted thread doesn't close the APK for
+ * the other ones then, so one ApkFile can be shared by all the threads analyzing an APK.
+ */
+public final class ApkFile implements Closeable {
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = ZipCentralDirectory.LOCAL_HEADER_SIZE;
+
+    @NonNull
+    public final String path;
+    @NonNull
+    private final RandomAccessFile mFile;
+    // only used to map entries, reopened when an interrupted thread closed it while mapping.
+    private RandomAccessFile mMapFile;
+    private List<ZipCentralDirectory.Entry> mEntries;
+
+    public ApkFile(@NonNull String path) throws IOException {
+        this.path = path;
+        this.mFile = new RandomAccessFile(path, "r");
+    }
+
+    // closed for all its users when a thread reading through it is interrupted, see read() and map().
+    @NonNull
+    public FileChannel getChannel() {
+        return mFile.getChannel();
+    }
+
+    @NonNull
+    public FileDescriptor getFD() throws IOException {
+        return mFile.getFD();
+    }
+
+    @NonNull
+    public synchronized List<ZipCentralDirectory.Entry> getEntries() throws IOException {
+        if (mEntries == null)
+            mEntries = ZipCentralDirectory.read(getChannel());
+        return mEntries;
+    }
+
+    /**
+     * Reads the entries whose name is accepted by a filter, without creating objects for the other ones.
+     */
+    @NonNull
+    public List<ZipCentralDirectory.Entry> getEntries(@NonNull ZipCentralDirectory.NameFilter filter) throws IOException {
+        return ZipCentralDirectory.read(getChannel(), filter);
+    }
+
+    /**
+     * Reads up to len bytes at a position of the APK, like pread(): seeking and reading are done under the lock of the file.
+     *
+     * @return the number of bytes read, or -1 at the end of the file.
+     */
+    public int read(long position, @NonNull byte[] b, int off, int len) throws IOException {
+        synchronized (mFile) {
+            mFile.seek(position);
+            return mFile.read(b, off, len);
+        }
+    }
+
+    /**
+     * Maps a part of the APK read-only. Mappings are made one at a time, so only the thread that was interrupted
+     * while mapping fails, and the next one maps from a reopened file.
+     */
+    @NonNull
+    public synchronized MappedByteBuffer map(long position, long size) throws IOException {
+        if (mMapFile == null || !mMapFile.getChannel().isOpen()) {
+            if (mMapFile != null)
+                mMapFile.close();
+            mMapFile = new RandomAccessFile(path, "r");
+        }
+        return mMapFile.getChannel().map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    /**
+     * Returns where the data of an entry starts, right after its local header.
+     */
+    public long getDataOffset(@NonNull ZipCentralDirectory.Entry entry) throws IOException {
+        final byte[] header = new byte[LOCAL_HEADER_SIZE];
+        for (int read = 0; read < header.length; ) {
+            final int n = read(entry.localHeaderOffset + read, header, read, header.length - read);
+            if (n < 0)
+                throw new EOFException("local header of " + entry.name + " past the end of the zip file");
+            read += n;
+        }
+        final ByteBuffer headerBuffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+        if (headerBuffer.getInt(0) != LOCAL_HEADER_SIGNATURE)
+            throw new ZipException("invalid local header for " + entry.name);
+
+        // name and extra field lengths of the local header can differ from the central directory ones.
+        final long dataOffset = entry.localHeaderOffset + LOCAL_HEADER_SIZE + (headerBuffer.getShort(26) & 0xffff) + (headerBuffer.getShort(28) & 0xffff);
+        if (dataOffset > mFile.length() - entry.compressedSize)
+            throw new ZipException("data of " + entry.name + " past the end of the zip file");
+        return dataOffset;
+    }
+
+    /**
+     * Returns a stream over the uncompressed content of an entry. It reads the APK lazily, so callers only interested in
+     * the beginning of an entry can stop early without inflating all of it.
+     */
+    @NonNull
+    public InputStream getInputStream(@NonNull ZipCentralDirectory.Entry entry) throws IOException {
+        final InputStream data = new EntryDataInputStream(this, getDataOffset(entry), entry.compressedSize);
+        if (entry.method == ZipCentralDirectory.METHOD_STORED)
+            return data;
+        if (entry.method == ZipCentralDirectory.METHOD_DEFLATED)
+            return new RawInflaterInputStream(data);
+        throw new ZipException("unsupported compression method " + entry.method + " for " + entry.name);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+        synchronized (this) {
+            if (mMapFile != null)
+                mMapFile.close();
+        }
+    }
+
+    // positional reads, so several streams can be used concurrently over the same file.
+    private static final class EntryDataInputStream extends InputStream {
+        @NonNull
+        private final ApkFile mApk;
+        private long mPosition;
+        private long mRemaining;
+
+        EntryDataInputStream(@NonNull ApkFile apk, long position, long length) {
+            this.mApk = apk;
+            this.mPosition = position;
+            this.mRemaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            if (mRemaining <= 0)
+                return -1;
+            if (len == 0)
+                return 0;
+
+            final int read = mApk.read(mPosition, b, off, (int) Math.min(len, mRemaining));
+            if (read < 0)
+                return -1;
+            mPosition += read;
+            mRemaining -= read;
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(mRemaining, Integer.MAX_VALUE);
+        }
+    }
+
+    private static final class RawInflaterInputStream extends InflaterInputStream {
+        private boolean mEndOfInput = false;
+
+        RawInflaterInputStream(@NonNull InputStream in) {
+            super(in, new Inflater(true), 8 * 1024); // raw deflate data, without zlib header.
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (mEndOfInput)
+                throw new EOFException("unexpected end of deflated data");
+
+            len = in.read(buf, 0, buf.length);
+            if (len < 0) { // the inflater may need an extra byte past the end of raw deflate data, as in ZipFile.
+                buf[0] = 0;
+                len = 1;
+                mEndOfInput = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            inf.end(); // not done by InflaterInputStream for a caller-provided Inflater.
+        }
+    }
+}
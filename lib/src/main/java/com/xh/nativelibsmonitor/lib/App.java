@@ -46,9 +46,16 @@ public class App {
     public long versionCode = 0;
     public Set<String> abis_in_apk = new HashSet<>();
     public int type = ApplicationType.UNKNOWN;
-    @Nullable
-    public byte[] pngIcon = null;
     public Set<String> apkLocations = new HashSet<>();
+    // false when only the ABIs of the native libs are known, see AppAnalyzer.analyzeApp().
+    public boolean deepAnalyzed = false;
+    // the analysis of some native libs ran out of time, and their results are partial.
+    public boolean timedOut = false;
+    // only the native libs of the ABIs supported by the device were deep analyzed, on purpose: the other ones only have
+    // their ABI and size, until an analysis of all ABIs is requested.
+    public boolean abiPruned = false;
+    // APKs that couldn't be opened, and whose native libs are missing.
+    public final Set<String> inaccessibleApkLocations = new HashSet<>();
 
 
     private static String humanReadableFileSize(long bytes) {
@@ -105,18 +112,18 @@ public class App {
                 .append(humanReadableFileSize(lib.size)).append('\t')
                 .append(lib.path).append('\t');
 
-        if (lib.frameworks.size() > 0) {
+        if (lib.getFrameworks().size() > 0) {
             sb.append(" (");
-            for (final String framework : lib.frameworks) {
+            for (final String framework : lib.getFrameworks()) {
                 sb.append(framework).append(", ");
             }
             sb.delete(sb.length() - 2, sb.length());
             sb.append(")");
         }
 
-        if (lib.dependencies.size() > 0) {
+        if (lib.getDependencies().size() > 0) {
             sb.append("\t, dependencies: \t");
-            for (final String dependency : lib.dependencies) {
+            for (final String dependency : lib.getDependencies()) {
                 sb.append(dependency).append(", ");
             }
             sb.delete(sb.length() - 2, sb.length());
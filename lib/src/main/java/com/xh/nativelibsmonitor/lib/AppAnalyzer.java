@@ -19,80 +19,119 @@
 
 package com.xh.nativelibsmonitor.lib;
 
-import android.annotation.TargetApi;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
-import android.content.res.Resources;
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.drawable.AdaptiveIconDrawable;
-import android.graphics.drawable.BitmapDrawable;
-import android.graphics.drawable.Drawable;
 import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructStat;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
-import com.stericson.RootShell.RootShell;
-import com.stericson.RootShell.exceptions.RootDeniedException;
-import com.stericson.RootShell.execution.Command;
-import com.stericson.RootShell.execution.Shell;
-
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Enumeration;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.TimeoutException;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-
-import static android.graphics.Bitmap.Config.ARGB_8888;
 
 public class AppAnalyzer {
     private final static String TAG = "appanalyzer";
-    private final static String LIB_PREFIX = "lib";
-    private final static int LIB_PREFIX_LENGTH = LIB_PREFIX.length();
-    private final static String LIB_SUFFIX = ".so";
-    private final static int LIB_SUFFIX_LENGTH = LIB_SUFFIX.length();
-    private final static int MIN_ENTRY_LENGTH = 7 + LIB_PREFIX_LENGTH + 1 + LIB_SUFFIX_LENGTH;
-    private static final ThreadLocal<byte[]> mThreadLocalBuffer = new ThreadLocal<>();
-    private final static float mSystemDensity = Resources.getSystem().getDisplayMetrics().density;
-
-    static {
+    private final static String CONFIG_SPLIT_PREFIX = "split_config.";
+    private final static String APK_SUFFIX = ".apk";
+
+    private static volatile NativeLibAnalyzerEngine sEngine = getDefaultEngine();
+    // ABI-pruned scans only read the dynamic segment of the libs, see AnalysisMode.
+    private static final NativeLibAnalyzerEngine sScanEngine = new JavaNativeLibAnalyzerEngine(AnalysisMode.dynamic);
+    @Nullable
+    private static volatile NativeLibraryCache sCache = null;
+
+    /**
+     * Selects the engine used to analyze native libraries when all ABIs are analyzed. By default, the libelf one when
+     * its native libs could be loaded, the pure-Java one otherwise.
+     */
+    public static void setEngine(@NonNull NativeLibAnalyzerEngine engine) {
+        sEngine = engine;
+    }
+
+    @NonNull
+    private static NativeLibAnalyzerEngine getDefaultEngine() {
         try {
-            System.loadLibrary("elf");
-            System.loadLibrary("nativelibanalyzer");
-            nativeLibLoaded = true;
-        } catch (UnsatisfiedLinkError e) {
-            Log.e(TAG, e.getMessage());
-            nativeLibLoaded = false;
+            if (JniNativeLibAnalyzerEngine.isAvailable())
+                return new JniNativeLibAnalyzerEngine();
+            Log.w(TAG, "libelf engine unavailable, falling back on the Java engine");
+        } catch (LinkageError e) { // the engine class itself couldn't be initialized.
+            Log.w(TAG, "libelf engine unavailable, falling back on the Java engine: " + e.getMessage());
         }
+        return new JavaNativeLibAnalyzerEngine();
+    }
+
+    @NonNull
+    public static NativeLibAnalyzerEngine getEngine() {
+        return sEngine;
     }
 
-    private static boolean nativeLibLoaded;
+    /**
+     * Sets the cache consulted before deep analyzing a packaged native lib, or disables caching when null.
+     */
+    public static void setCache(@Nullable NativeLibraryCache cache) {
+        sCache = cache;
+    }
 
     @NonNull
-    private native static NativeLibrary analyzeNativeLib(String nativeLibAbsoluteLocation) throws RuntimeException;
+    public static String getNativeBridgeVersion() {
+        return sEngine.getNativeBridgeVersion();
+    }
 
     @NonNull
-    private native static NativeLibrary analyzeNativeLib(String nativeLibPath, byte[] soFileContent, long soFileSize) throws RuntimeException;
+    public static App analyzeApp(@NonNull ApplicationInfo ai, @NonNull PackageManager pm) {
+        return analyzeApp(ai, pm, true, null);
+    }
 
     @NonNull
-    private static native NativeLibrary analyzeNativeLib(String nativeLibPath, InputStream inputStream, long soFileSize, byte[] buffer) throws RuntimeException;
+    public static App analyzeApp(@NonNull ApplicationInfo ai, @NonNull PackageManager pm, boolean deepAnalysis) {
+        return analyzeApp(ai, pm, deepAnalysis, null);
+    }
 
     @NonNull
-    public native static String getNativeBridgeVersion();
+    public static App analyzeApp(@NonNull ApplicationInfo ai, @NonNull PackageManager pm, boolean deepAnalysis,
+                                 @Nullable RootAccessBroker rootAccessBroker) {
+        return analyzeApp(ai, pm, deepAnalysis, rootAccessBroker, AnalysisDeadline.NONE);
+    }
 
+    @NonNull
+    public static App analyzeApp(@NonNull ApplicationInfo ai, @NonNull PackageManager pm, boolean deepAnalysis,
+                                 @Nullable RootAccessBroker rootAccessBroker, @NonNull AnalysisDeadline scan) {
+        return analyzeApp(ai, pm, deepAnalysis, rootAccessBroker, scan, true);
+    }
 
+    /**
+     * @param deepAnalysis     when false, only the ELF header of native libs is read: the app type and ABIs are set,
+     *                         but not the entry points, frameworks and dependencies of its libs.
+     * @param rootAccessBroker used to get read access to the APKs that can't be opened, or null to only report them
+     *                         in {@link App#inaccessibleApkLocations}.
+     * @param scan             the scan this analysis is part of, the app getting its own budget within it. Libs left
+     *                         once it has expired keep partial results, and the app is flagged as {@link App#timedOut}.
+     * @param allAbis          when false, only the libs of the ABIs the device supports are deep analyzed: libs in other
+     *                         lib/&lt;abi&gt;/ directories only get their ABI and size from the central directory, config splits
+     *                         for other ABIs aren't read at all, and the app is flagged as {@link App#abiPruned}.
+     *                         {@link App#abis_in_apk} is complete either way. The analyzed libs then only get their
+     *                         dynamic segment read, see {@link AnalysisMode#dynamic}.
+     */
     @NonNull
-    public static App analyzeApp(@NonNull ApplicationInfo ai, @NonNull PackageManager pm) {
+    public static App analyzeApp(@NonNull ApplicationInfo ai, @NonNull PackageManager pm, boolean deepAnalysis,
+                                 @Nullable RootAccessBroker rootAccessBroker, @NonNull AnalysisDeadline scan,
+                                 boolean allAbis) {
+        final AnalysisDeadline deadline = scan.forApp();
         App app = new App();
+        app.deepAnalyzed = deepAnalysis;
         app.appname = (new StringBuilder()).append(ai.loadLabel(pm)).toString();
         app.packagename = ai.packageName;
 
@@ -109,7 +148,6 @@ public class AppAnalyzer {
         }
 
 
-        app.pngIcon = getAppPngIcon(ai, pm);
         app.type = ApplicationType.NO_NATIVE_LIBS_INSTALLED;
 
         try {
@@ -122,35 +160,36 @@ public class AppAnalyzer {
             Log.w("appanalyzer", e.getMessage());
         }
 
-        for (final String apkLocation : app.apkLocations) {
-            try {
+        final Set<String> skippedAbis = new HashSet<>();
+        final List<String> analyzedAbis = allAbis ? null : getSupportedAbis();
+        final List<String> apkLocations = getApkLocationsToAnalyze(ai, analyzedAbis, skippedAbis);
+        final NativeLibAnalyzerEngine engine = allAbis ? sEngine : sScanEngine;
+        addNativeLibsFromZipFilesIntoApp(apkLocations, app, engine, deepAnalysis, analyzedAbis, deadline);
 
-                addNativeLibsFromZipFileIntoApp(apkLocation, app);
-
-            } catch (IOException e) {
-                Log.d(TAG, "Couldn't open " + apkLocation + ", IOException: " + e.getMessage());
-                if (RootShell.isRootAvailable()) {
-                    Log.d(TAG, "Root is available, trying to get access");
+        if (!app.inaccessibleApkLocations.isEmpty() && rootAccessBroker != null) {
+            // all the APKs of the app are made readable by a single root command, and reverted by another one.
+            final Collection<String> grantedApkLocations = rootAccessBroker.grantReadAccess(app.inaccessibleApkLocations);
+            try {
+                for (final String apkLocation : grantedApkLocations) {
                     try {
-                        RootShell.getShell(true);
-                        getReadAccessToFile(apkLocation);
-
-                        addNativeLibsFromZipFileIntoApp(apkLocation, app);
-
-                        releaseReadAccessToFile(apkLocation);
-
-                        RootShell.closeShell(true);
-                    } catch (IOException | InterruptedException | TimeoutException | RootDeniedException exception) {
-                        Log.d(TAG, "Couldn't get root access: " + exception.getMessage());
+                        app.packagedNativeLibs.addAll(getNativeLibsFromZipFile(apkLocation, engine, deepAnalysis, analyzedAbis, deadline));
+                        app.inaccessibleApkLocations.remove(apkLocation);
+                    } catch (IOException e) {
+                        Log.d(TAG, "Couldn't open " + apkLocation + " with root access, IOException: " + e.getMessage());
                     }
                 }
+            } finally {
+                rootAccessBroker.revokeReadAccess(grantedApkLocations);
             }
         }
 
         if (ai.nativeLibraryDir != null) {
-            addNativeLibsFromDirectoryToApp(ai, app);
+            addNativeLibsFromDirectoryToApp(ai, app, engine, deepAnalysis, deadline);
         }
 
+        app.timedOut = isAnyTimedOut(app.packagedNativeLibs) || isAnyTimedOut(app.installedNativeLibs);
+        app.abiPruned = !skippedAbis.isEmpty() || isAnyAbiPruned(app.packagedNativeLibs);
+
         app.type = getApplicationTypeFromInstalledLibs(app.installedNativeLibs);
         if ((app.type == ApplicationType.NO_NATIVE_LIBS_INSTALLED || app.type == ApplicationType.UNKNOWN) && app.packagedNativeLibs.size() > 0) { // if app has native libraries but none get installed, get its type from the packaged libs.
             // this is quite likely to happen starting with Marshmallow, as apps can use .so files which are stored uncompressed in the APK.
@@ -158,10 +197,27 @@ public class AppAnalyzer {
         }
 
         app.abis_in_apk = getABIsFromPackagedLibs(app.packagedNativeLibs);
+        app.abis_in_apk.addAll(skippedAbis);
 
         return app;
     }
 
+    private static boolean isAnyAbiPruned(@NonNull Collection<NativeLibrary> nativeLibraries) {
+        for (final NativeLibrary nativeLibrary : nativeLibraries) {
+            if (nativeLibrary.abiPruned)
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean isAnyTimedOut(@NonNull Collection<NativeLibrary> nativeLibraries) {
+        for (final NativeLibrary nativeLibrary : nativeLibraries) {
+            if (nativeLibrary.timedOut)
+                return true;
+        }
+        return false;
+    }
+
     private static int getApplicationTypeFromInstalledLibs(@NonNull Collection<NativeLibrary> installedNativeLibs) {
         int appType = ApplicationType.NO_NATIVE_LIBS_INSTALLED;
         for (final NativeLibrary nativeLibrary : installedNativeLibs) {
@@ -234,178 +290,166 @@ public class AppAnalyzer {
     }
 
     /*
-    WARNING: for now, to make the difference between ARMv5 and ARMv7 libs, this needs to be called after addNativeLibsFromZipFile().
+    WARNING: on deep analysis, installed libs reuse the analysis of the packaged libs they were extracted from, this needs to be called after addNativeLibsFromZipFilesIntoApp().
      */
-    private static void addNativeLibsFromDirectoryToApp(@NonNull ApplicationInfo ai, @NonNull App app) {
+    private static void addNativeLibsFromDirectoryToApp(@NonNull ApplicationInfo ai, @NonNull App app,
+                                                        @NonNull NativeLibAnalyzerEngine engine, boolean deepAnalysis,
+                                                        @NonNull AnalysisDeadline deadline) {
         final String[] libsInInstallDirectory = (new File(ai.nativeLibraryDir)).list();
         if (libsInInstallDirectory == null)
             return;
 
-        for (final String file : libsInInstallDirectory) {
-            final NativeLibrary nativeLibrary = nativeLibLoaded ? analyzeNativeLib(ai.nativeLibraryDir + "/" + file) : new NativeLibrary(file, (new File(ai.nativeLibraryDir + "/" + file)).length());
-            nativeLibrary.path = file;
-            nativeLibrary.type = NativeLibrary.TYPE.INSTALLED;
+        // identifying an installed lib reads its own build attributes, only deep analyses are worth reusing.
+        final Map<String, NativeLibrary> packagedLibsIndex = deepAnalysis
+                ? indexPackagedLibsByNameAndSize(app.packagedNativeLibs) : Collections.<String, NativeLibrary>emptyMap();
 
-            if(nativeLibrary.path.endsWith(".crc32")) //ignore .crc32 files from installed libs.
+        for (final String file : libsInInstallDirectory) {
+            if (file.endsWith(".crc32")) //ignore .crc32 files from installed libs.
                 continue;
 
-            if (nativeLibrary.abi == ABI.arm) { //decide between ARMv5 and ARMv7.
-                final String pathEnd = "/" + file;
-                for (final NativeLibrary packagedLib : app.packagedNativeLibs) {
-                    if (nativeLibrary.size == packagedLib.size && packagedLib.path.endsWith(pathEnd)) {
-                        nativeLibrary.abi = packagedLib.abi;
-                        break;
-                    }
-                }
-            }
+            final String nativeLibAbsoluteLocation = ai.nativeLibraryDir + "/" + file;
+            final long size = (new File(nativeLibAbsoluteLocation)).length();
+
+            // installed libs are almost always extracted from the APK, so their symbols needn't be walked twice.
+            final NativeLibrary packagedLib = packagedLibsIndex.get(file + ':' + size);
+            final NativeLibrary nativeLibrary;
+            if (packagedLib != null) {
+                nativeLibrary = new NativeLibrary(file, size, packagedLib.abi);
+                nativeLibrary.copyNamesFrom(packagedLib);
+                nativeLibrary.timedOut = packagedLib.timedOut;
+            } else if (!deepAnalysis)
+                nativeLibrary = NativeLibIdentifier.identifyNativeLib(nativeLibAbsoluteLocation);
+            else if (deadline.isExpired())
+                nativeLibrary = NativeLibrary.newTimedOut(file, size);
+            else
+                nativeLibrary = engine.analyzeNativeLib(nativeLibAbsoluteLocation, deadline);
+            nativeLibrary.path = file;
+            nativeLibrary.type = NativeLibrary.TYPE.INSTALLED;
 
             app.installedNativeLibs.add(nativeLibrary);
         }
     }
 
-    @TargetApi(Build.VERSION_CODES.R)
-    @Nullable
-    private static byte[] getAppPngIcon(@NonNull ApplicationInfo ai, @NonNull PackageManager pm) {
-
-        int iconSizeInPx = (int) (mSystemDensity * 36);
-
-        Drawable appIcon = ai.loadIcon(pm);
-
-        if (appIcon == null) appIcon = ai.loadLogo(pm);
-
-        if (appIcon == null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-            appIcon = ai.loadBanner(pm);
+    /**
+     * Indexes the analyzed packaged libs by "file name:size", keeping the first one found for a given key.
+     */
+    @NonNull
+    private static Map<String, NativeLibrary> indexPackagedLibsByNameAndSize(@NonNull Collection<NativeLibrary> packagedNativeLibs) {
+        final Map<String, NativeLibrary> index = new HashMap<>(packagedNativeLibs.size() * 2);
+        for (final NativeLibrary packagedLib : packagedNativeLibs) {
+            if (packagedLib.abiPruned)
+                continue;
+            final String key = packagedLib.path.substring(packagedLib.path.lastIndexOf('/') + 1) + ':' + packagedLib.size;
+            if (!index.containsKey(key))
+                index.put(key, packagedLib);
         }
+        return index;
+    }
 
-        if (appIcon == null) appIcon = ai.loadIcon(pm);
-
-        if (appIcon instanceof BitmapDrawable) {
-            if (appIcon.getIntrinsicWidth() <= iconSizeInPx && appIcon.getIntrinsicHeight() <= iconSizeInPx) {
-                ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                ((BitmapDrawable) appIcon).getBitmap().compress(Bitmap.CompressFormat.PNG, 100, bos);
-                return bos.toByteArray();
-            } else {
-                Bitmap bitmap = Bitmap.createScaledBitmap(((BitmapDrawable) appIcon).getBitmap(), iconSizeInPx, iconSizeInPx, true);
-                ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                bitmap.compress(Bitmap.CompressFormat.PNG, 100, bos);
-                return bos.toByteArray();
-            }
-        }
-        else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            if (appIcon instanceof AdaptiveIconDrawable) {
-                int width = appIcon.getIntrinsicWidth();
-                int height = appIcon.getIntrinsicHeight();
-
-                Bitmap bitmap = Bitmap.createBitmap(width, height, ARGB_8888);
-                Canvas canvas = new Canvas(bitmap);
-                appIcon.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
-                appIcon.draw(canvas);
-
-                if (appIcon.getIntrinsicWidth() <= iconSizeInPx && appIcon.getIntrinsicHeight() <= iconSizeInPx) {
-                    ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                    bitmap.compress(Bitmap.CompressFormat.PNG, 100, bos);
-                    return bos.toByteArray();
-                } else {
-                    Bitmap bitmapScaled = Bitmap.createScaledBitmap(bitmap, iconSizeInPx, iconSizeInPx, true);
-                    ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                    bitmapScaled.compress(Bitmap.CompressFormat.PNG, 100, bos);
-                    return bos.toByteArray();
-                }
-            }
+    /**
+     * Returns the APKs of an app to read, base first then splits, each file only once: sourceDir and publicSourceDir
+     * are usually the same file, and paths can be links. Config splits for ABIs other than analyzedAbis are left out,
+     * their ABI is added to skippedAbis instead.
+     */
+    @NonNull
+    private static List<String> getApkLocationsToAnalyze(@NonNull ApplicationInfo ai, @Nullable List<String> analyzedAbis,
+                                                         @NonNull Set<String> skippedAbis) {
+        final List<String> candidates = new ArrayList<>();
+        candidates.add(ai.sourceDir);
+        if (ai.publicSourceDir != null)
+            candidates.add(ai.publicSourceDir);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            if (ai.splitSourceDirs != null)
+                candidates.addAll(Arrays.asList(ai.splitSourceDirs));
+            if (ai.splitPublicSourceDirs != null)
+                candidates.addAll(Arrays.asList(ai.splitPublicSourceDirs));
         }
 
-        return null;
-    }
-
-    private static void getReadAccessToFile(@NonNull String filePath) throws IOException, TimeoutException, RootDeniedException, InterruptedException {
-        final String mntPath = filePath.substring(0, filePath.lastIndexOf('/'));
-        final Command command = new Command(0, "mount -o remount,rw " + mntPath, "chmod 644 " + filePath);
-        Shell.runRootCommand(command);
+        final Set<String> files = new HashSet<>();
+        final List<String> apkLocations = new ArrayList<>(candidates.size());
+        for (final String apkLocation : candidates) {
+            if (apkLocation == null || !files.add(getFileIdentity(apkLocation)))
+                continue;
 
-        if (!command.isFinished()) {
-            //noinspection SynchronizationOnLocalVariableOrMethodParameter
-            synchronized (command) {
-                command.wait();
+            final String configSplitAbi = getConfigSplitAbi(apkLocation);
+            if (!ApkAnalyzer.isAnalyzedAbi(analyzedAbis, configSplitAbi)) {
+                skippedAbis.add(ABI.getStringForABI(ABI.fromString(configSplitAbi)));
+                continue;
             }
+            apkLocations.add(apkLocation);
         }
+        return apkLocations;
     }
 
-    private static void releaseReadAccessToFile(@NonNull String filePath) throws IOException, TimeoutException, RootDeniedException {
-        final String mntPath = filePath.substring(0, filePath.lastIndexOf('/'));
-        final Command command = new Command(0, "chmod 640 " + filePath, "mount -o remount,ro " + mntPath);
-
-        Shell.runRootCommand(command);
+    @NonNull
+    private static List<String> getSupportedAbis() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+            return Arrays.asList(Build.SUPPORTED_ABIS);
+        return Arrays.asList(Build.CPU_ABI, Build.CPU_ABI2);
     }
 
-    private static void addNativeLibsFromZipFileIntoApp(String apkPath, @NonNull App app) throws IOException {
-        final ZipFile zipFile = new ZipFile(apkPath);
-
+    // device and inode when they can be read, the canonical path otherwise.
+    @NonNull
+    private static String getFileIdentity(@NonNull String path) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            try {
+                final StructStat stat = Os.stat(path);
+                return stat.st_dev + ":" + stat.st_ino;
+            } catch (ErrnoException ignore) {
+            }
+        }
         try {
-            final Enumeration<? extends ZipEntry> entries = zipFile.entries();
-
-            while (entries.hasMoreElements()) {
-
-                final ZipEntry entry = entries.nextElement();
-
-                // skip directories
-                if (entry.isDirectory())
-                    continue;
-
-                final String entryName = entry.getName();
-
-                if (entryName.length() < MIN_ENTRY_LENGTH || !entryName.endsWith(LIB_SUFFIX))
-                    continue;
-
-                int lastSlash = entryName.lastIndexOf('/');
-                if (lastSlash < 0 || !entryName.regionMatches(lastSlash + 1, LIB_PREFIX, 0, LIB_PREFIX_LENGTH))
-                    continue;
+            return new File(path).getCanonicalPath();
+        } catch (IOException e) {
+            return path;
+        }
+    }
 
-                final NativeLibrary nativeLibrary = nativeLibLoaded ? analyzeNativeLib(entry, zipFile) : new NativeLibrary(entryName, zipFile.size());
-                nativeLibrary.path = entryName;
-                nativeLibrary.type = NativeLibrary.TYPE.IN_PACKAGE;
+    // .../split_config.arm64_v8a.apk -> arm64-v8a, or null for other APKs.
+    @Nullable
+    private static String getConfigSplitAbi(@NonNull String apkLocation) {
+        final String fileName = apkLocation.substring(apkLocation.lastIndexOf('/') + 1);
+        if (!fileName.startsWith(CONFIG_SPLIT_PREFIX) || !fileName.endsWith(APK_SUFFIX))
+            return null;
 
-                if (nativeLibrary.abi == ABI.arm) {
-                    int slashBeforeLastSlash = entryName.substring(0, lastSlash).lastIndexOf('/');
-                    final String dirName = entryName.substring(slashBeforeLastSlash + 1, lastSlash);
+        final String abi = fileName.substring(CONFIG_SPLIT_PREFIX.length(), fileName.length() - APK_SUFFIX.length()).replace('_', '-');
+        return ABI.fromString(abi) != ABI.unknown ? abi : null;
+    }
 
-                    if (dirName.equals("armeabi"))
-                        nativeLibrary.abi = ABI.armv5;
-                    if (dirName.equals("armeabi-v7a"))
-                        nativeLibrary.abi = ABI.armv7;
-                    if (dirName.equals("arm64-v8a"))
-                        nativeLibrary.abi = ABI.arm64;
+    /**
+     * Reads the native libs of several APKs of an app concurrently, adding them in the order of the APKs.
+     * The APKs that can't be opened are added to {@link App#inaccessibleApkLocations}.
+     */
+    private static void addNativeLibsFromZipFilesIntoApp(@NonNull final List<String> apkLocations, @NonNull App app,
+                                                         @NonNull final NativeLibAnalyzerEngine engine, final boolean deepAnalysis, @Nullable final List<String> analyzedAbis,
+                                                         @NonNull final AnalysisDeadline deadline) {
+        final List<List<NativeLibrary>> nativeLibs = new ArrayList<>(Collections.<List<NativeLibrary>>nCopies(apkLocations.size(), null));
+        final IOException[] failures = new IOException[apkLocations.size()];
+        ParallelLibraryAnalyzer.forEach(apkLocations.size(), new ParallelLibraryAnalyzer.IndexedTask() {
+            @Override
+            public void run(int index) {
+                try {
+                    nativeLibs.set(index, getNativeLibsFromZipFile(apkLocations.get(index), engine, deepAnalysis, analyzedAbis, deadline));
+                } catch (IOException e) {
+                    failures[index] = e;
                 }
-
-                app.packagedNativeLibs.add(nativeLibrary);
             }
-        } finally {
-            zipFile.close();
+        });
+
+        for (int i = 0; i < apkLocations.size(); ++i) {
+            if (failures[i] != null) {
+                Log.d(TAG, "Couldn't open " + apkLocations.get(i) + ", IOException: " + failures[i].getMessage());
+                app.inaccessibleApkLocations.add(apkLocations.get(i));
+            } else
+                app.packagedNativeLibs.addAll(nativeLibs.get(i));
         }
     }
 
     @NonNull
-    private static NativeLibrary analyzeNativeLib(@NonNull final ZipEntry entry, @NonNull final ZipFile zipFile) throws IOException {
-        if (entry.getSize() < Integer.MAX_VALUE) {
-            int numBytesToRead = (int) entry.getSize();
-
-            byte[] buffer = mThreadLocalBuffer.get();
-            if (buffer == null) {
-                buffer = new byte[2048];
-                mThreadLocalBuffer.set(buffer);
-            }
-
-            InputStream inputStream = zipFile.getInputStream(entry);
-            NativeLibrary result = analyzeNativeLib(entry.getName(), inputStream, numBytesToRead, buffer);
-            inputStream.close();
-            return result;
-
-            //return analyzeNativeLib(entry.getName(), zipFile.getInputStream(entry), numBytesToRead);
-
-            /*former method, with big Java alloc:*/
-            //    byte[] soFileContentBytes = new byte[numBytesToRead];
-            //    new DataInputStream(zipFile.getInputStream(entry)).readFully(soFileContentBytes);
-            //    return analyzeNativeLib(entry.getName(), soFileContentBytes, numBytesToRead);
-        } else
-            return new NativeLibrary(entry.getName(), entry.getSize());
+    private static List<NativeLibrary> getNativeLibsFromZipFile(@NonNull String apkPath, @NonNull NativeLibAnalyzerEngine engine,
+                                                               boolean deepAnalysis,
+                                                               @Nullable List<String> analyzedAbis,
+                                                               @NonNull AnalysisDeadline deadline) throws IOException {
+        return ApkAnalyzer.getNativeLibs(apkPath, ParallelLibraryAnalyzer.parallel(engine), sCache, deepAnalysis, analyzedAbis, deadline);
     }
 }
@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.lib;
+
+import android.support.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the ARM build attributes of an ELF file, its SHT_ARM_ATTRIBUTES section, to tell ARMv5 and ARMv7 libraries apart.
+ * The section is a format version byte followed by vendor subsections, the "aeabi" one holding the attributes of the whole
+ * file as (ULEB128 tag, ULEB128 or NUL-terminated string value) pairs.
+ */
+final class ArmAttributes {
+    private static final byte FORMAT_VERSION = 'A';
+    private static final String AEABI_VENDOR = "aeabi";
+    private static final int TAG_FILE = 1;
+
+    private static final int TAG_CPU_RAW_NAME = 4;
+    private static final int TAG_CPU_NAME = 5;
+    private static final int TAG_CPU_ARCH = 6;
+    private static final int TAG_FP_ARCH = 10;
+    private static final int TAG_ADVANCED_SIMD_ARCH = 12;
+    private static final int TAG_COMPATIBILITY = 32;
+
+    private static final int CPU_ARCH_V7 = 10;
+    private static final int CPU_ARCH_V6_M = 11;
+    private static final int CPU_ARCH_V6S_M = 12;
+    private static final int FP_ARCH_VFP_V3 = 3;
+
+    private ArmAttributes() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Returns the ABI of an ARM library from its build attributes section, or {@link ABI#arm} if they don't tell.
+     */
+    @ABI.type
+    static int getAbi(@NonNull ElfFile elf) {
+        if (elf.machine != ElfFile.EM_ARM)
+            return elf.getAbi();
+
+        for (final ElfFile.Section section : elf.getSections()) {
+            if (section.type == ElfFile.SHT_ARM_ATTRIBUTES)
+                return getAbi(elf.getSectionContent(section));
+        }
+        return ABI.arm;
+    }
+
+    @ABI.type
+    static int getAbi(@NonNull ByteBuffer attributes) {
+        if (attributes.limit() < 1 || attributes.get(0) != FORMAT_VERSION)
+            return ABI.arm;
+
+        int cpuArch = -1;
+        int fpArch = -1;
+        int simdArch = -1;
+
+        int position = 1;
+        while (position + 4 <= attributes.limit()) {
+            final long length = attributes.getInt(position) & 0xffffffffL;
+            if (length < 4 || position + length > attributes.limit())
+                break;
+            final int end = (int) (position + length);
+
+            int subsection = skipString(attributes, position + 4, end);
+            if (isAeabi(attributes, position + 4, end)) {
+                while (subsection < end) {
+                    final int[] tag = readUleb128(attributes, subsection, end);
+                    if (tag[1] + 4 > end)
+                        break;
+                    final long subsectionLength = attributes.getInt(tag[1]) & 0xffffffffL;
+                    if (subsectionLength < 5 || subsection + subsectionLength > end)
+                        break;
+                    final int subsectionEnd = (int) (subsection + subsectionLength);
+
+                    if (tag[0] == TAG_FILE) {
+                        int attribute = tag[1] + 4;
+                        while (attribute < subsectionEnd) {
+                            final int[] attributeTag = readUleb128(attributes, attribute, subsectionEnd);
+                            attribute = attributeTag[1];
+                            if (isStringAttribute(attributeTag[0])) {
+                                attribute = skipString(attributes, attribute, subsectionEnd);
+                                continue;
+                            }
+
+                            final int[] value = readUleb128(attributes, attribute, subsectionEnd);
+                            attribute = value[1];
+                            if (attributeTag[0] == TAG_COMPATIBILITY)
+                                attribute = skipString(attributes, attribute, subsectionEnd);
+                            else if (attributeTag[0] == TAG_CPU_ARCH)
+                                cpuArch = value[0];
+                            else if (attributeTag[0] == TAG_FP_ARCH)
+                                fpArch = value[0];
+                            else if (attributeTag[0] == TAG_ADVANCED_SIMD_ARCH)
+                                simdArch = value[0];
+                        }
+                    }
+                    subsection = subsectionEnd;
+                }
+            }
+            position = end;
+        }
+
+        if (cpuArch >= 0)
+            return cpuArch >= CPU_ARCH_V7 && cpuArch != CPU_ARCH_V6_M && cpuArch != CPU_ARCH_V6S_M ? ABI.armv7 : ABI.armv5;
+        // without Tag_CPU_arch, NEON or VFPv3 still require an ARMv7 CPU.
+        if (simdArch > 0 || fpArch >= FP_ARCH_VFP_V3)
+            return ABI.armv7;
+        return ABI.arm;
+    }
+
+    // tags 4, 5, 65, 67 and the other odd ones from 32 hold NUL-terminated strings, Tag_compatibility a ULEB128 and a string.
+    private static boolean isStringAttribute(int tag) {
+        return tag == TAG_CPU_RAW_NAME || tag == TAG_CPU_NAME || (tag > TAG_COMPATIBILITY && (tag & 1) == 1);
+    }
+
+    private static boolean isAeabi(@NonNull ByteBuffer attributes, int position, int end) {
+        if (position + AEABI_VENDOR.length() >= end)
+            return false;
+        for (int i = 0; i < AEABI_VENDOR.length(); ++i) {
+            if (attributes.get(position + i) != AEABI_VENDOR.charAt(i))
+                return false;
+        }
+        return attributes.get(position + AEABI_VENDOR.length()) == 0;
+    }
+
+    private static int skipString(@NonNull ByteBuffer attributes, int position, int end) {
+        while (position < end && attributes.get(position) != 0) {
+            ++position;
+        }
+        return position + 1;
+    }
+
+    // {value, position after it}, values larger than an int are saturated.
+    @NonNull
+    private static int[] readUleb128(@NonNull ByteBuffer attributes, int position, int end) {
+        long value = 0;
+        int shift = 0;
+        while (position < end) {
+            final int b = attributes.get(position++) & 0xff;
+            if (shift < 63)
+                value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+            if ((b & 0x80) == 0)
+                break;
+        }
+        return new int[]{(int) Math.min(value, Integer.MAX_VALUE), position};
+    }
+}
@@ -0,0 +1,388 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.lib;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read-only view over an ELF file held in a {@link ByteBuffer}, typically a {@link java.nio.MappedByteBuffer}.
+ * Only what the analyzer needs is decoded: header, program and section headers, symbol tables, dynamic entries and strings.
+ * Malformed files make accessors throw {@link IndexOutOfBoundsException} or {@link IllegalArgumentException}.
+ */
+final class ElfFile {
+    static final int EM_386 = 3;
+    static final int EM_MIPS = 8;
+    static final int EM_ARM = 40;
+    static final int EM_X86_64 = 62;
+    static final int EM_AARCH64 = 183;
+
+    static final int SHT_PROGBITS = 1;
+    static final int SHT_SYMTAB = 2;
+    static final int SHT_HASH = 5;
+    static final int SHT_DYNAMIC = 6;
+    static final int SHT_DYNSYM = 11;
+    static final int SHT_GNU_HASH = 0x6ffffff6;
+    static final int SHT_ARM_ATTRIBUTES = 0x70000003;
+
+    static final int PT_LOAD = 1;
+    static final int PT_DYNAMIC = 2;
+
+    static final long DT_NULL = 0;
+    static final long DT_NEEDED = 1;
+    static final long DT_HASH = 4;
+    static final long DT_STRTAB = 5;
+    static final long DT_SYMTAB = 6;
+    static final long DT_STRSZ = 10;
+    static final long DT_SYMENT = 11;
+    static final long DT_GNU_HASH = 0x6ffffef5L;
+
+    static final int EF_MIPS_ARCH = 0xf0000000;
+    static final int EF_MIPS_ARCH_64 = 0x60000000;
+    static final int EF_MIPS_ARCH_64R2 = 0x80000000;
+    static final int EF_MIPS_ARCH_64R6 = 0xa0000000;
+
+    private static final int EI_NIDENT = 16;
+    private static final int ELFCLASS64 = 2;
+    private static final int ELFDATA2MSB = 2;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    final boolean is64;
+    final int machine;
+    final int flags;
+    @NonNull
+    private final ByteBuffer mBuffer;
+    private final long mProgramHeadersOffset;
+    private final int mProgramHeaderSize;
+    private final int mProgramHeaderCount;
+    private final long mSectionHeadersOffset;
+    private final int mSectionHeaderSize;
+    private final int mSectionCount;
+    private final int mSectionNamesIndex;
+
+    static final class Section {
+        final int index;
+        final int nameOffset;
+        final int type;
+        final long address;
+        final long offset;
+        final long size;
+        final int link;
+        final long entrySize;
+
+        Section(int index, int nameOffset, int type, long address, long offset, long size, int link, long entrySize) {
+            this.index = index;
+            this.nameOffset = nameOffset;
+            this.type = type;
+            this.address = address;
+            this.offset = offset;
+            this.size = size;
+            this.link = link;
+            this.entrySize = entrySize;
+        }
+    }
+
+    static final class Segment {
+        final int type;
+        final long offset;
+        final long virtualAddress;
+        final long fileSize;
+
+        Segment(int type, long offset, long virtualAddress, long fileSize) {
+            this.type = type;
+            this.offset = offset;
+            this.virtualAddress = virtualAddress;
+            this.fileSize = fileSize;
+        }
+    }
+
+    // reused while iterating over symbol tables, to avoid an allocation per symbol.
+    static final class Symbol {
+        int nameOffset;
+        int info;
+        int sectionIndex;
+        long value;
+        long size;
+    }
+
+    private ElfFile(@NonNull ByteBuffer buffer, boolean is64) {
+        this.mBuffer = buffer;
+        this.is64 = is64;
+        this.machine = buffer.getShort(18) & 0xffff;
+        this.flags = buffer.getInt(is64 ? 48 : 36);
+        this.mProgramHeadersOffset = is64 ? buffer.getLong(32) : buffer.getInt(28) & 0xffffffffL;
+        this.mProgramHeaderSize = buffer.getShort(is64 ? 54 : 42) & 0xffff;
+        this.mProgramHeaderCount = buffer.getShort(is64 ? 56 : 44) & 0xffff;
+        this.mSectionHeadersOffset = is64 ? buffer.getLong(40) : buffer.getInt(32) & 0xffffffffL;
+        this.mSectionHeaderSize = buffer.getShort(is64 ? 58 : 46) & 0xffff;
+        this.mSectionCount = buffer.getShort(is64 ? 60 : 48) & 0xffff;
+        this.mSectionNamesIndex = buffer.getShort(is64 ? 62 : 50) & 0xffff;
+    }
+
+    static boolean isElf(@NonNull ByteBuffer buffer) {
+        return buffer.limit() >= EI_NIDENT
+                && buffer.get(0) == 0x7f && buffer.get(1) == 'E' && buffer.get(2) == 'L' && buffer.get(3) == 'F';
+    }
+
+    @Nullable
+    static ElfFile parse(@NonNull ByteBuffer buffer) {
+        if (!isElf(buffer))
+            return null;
+
+        final ByteBuffer elf = buffer.duplicate();
+        elf.order(elf.get(5) == ELFDATA2MSB ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        final boolean is64 = elf.get(4) == ELFCLASS64;
+        if (elf.limit() < (is64 ? 64 : 52))
+            return null;
+
+        return new ElfFile(elf, is64);
+    }
+
+    @ABI.type
+    int getAbi() {
+        switch (machine) {
+            case EM_386:
+                return ABI.x86;
+            case EM_ARM:
+                return ABI.arm; // ARMv5 or ARMv7, see ArmAttributes.
+            case EM_MIPS:
+                final int arch = flags & EF_MIPS_ARCH;
+                if (arch == EF_MIPS_ARCH_64 || arch == EF_MIPS_ARCH_64R2 || arch == EF_MIPS_ARCH_64R6)
+                    return ABI.mips64;
+                else
+                    return ABI.mips;
+            case EM_X86_64:
+                return ABI.x86_64;
+            case EM_AARCH64:
+                return ABI.arm64;
+            default:
+                return ABI.unknown;
+        }
+    }
+
+    /**
+     * Returns the offset right after the program header table, the ELF file must be at least this long to call {@link #getSegments()}.
+     */
+    long getProgramHeadersEnd() {
+        return mProgramHeadersOffset + (long) mProgramHeaderCount * mProgramHeaderSize;
+    }
+
+    @NonNull
+    List<Segment> getSegments() {
+        if (mProgramHeaderCount > 0 && mProgramHeaderSize < (is64 ? 56 : 32))
+            throw new IllegalArgumentException("invalid program header size " + mProgramHeaderSize);
+
+        final List<Segment> segments = new ArrayList<>(mProgramHeaderCount);
+        for (int i = 0; i < mProgramHeaderCount; ++i) {
+            final int header = checkedOffset(mProgramHeadersOffset + (long) i * mProgramHeaderSize);
+            if (is64) {
+                segments.add(new Segment(mBuffer.getInt(header),
+                        mBuffer.getLong(header + 8),
+                        mBuffer.getLong(header + 16),
+                        mBuffer.getLong(header + 32)));
+            } else {
+                segments.add(new Segment(mBuffer.getInt(header),
+                        mBuffer.getInt(header + 4) & 0xffffffffL,
+                        mBuffer.getInt(header + 8) & 0xffffffffL,
+                        mBuffer.getInt(header + 16) & 0xffffffffL));
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Converts a virtual address, as found in dynamic entries, into a file offset using the loadable segments.
+     *
+     * @return the file offset, or -1 if the address isn't backed by the file.
+     */
+    static long getFileOffset(@NonNull List<Segment> segments, long virtualAddress) {
+        for (final Segment segment : segments) {
+            if (segment.type == PT_LOAD && virtualAddress >= segment.virtualAddress
+                    && virtualAddress - segment.virtualAddress < segment.fileSize) {
+                return virtualAddress - segment.virtualAddress + segment.offset;
+            }
+        }
+        return -1;
+    }
+
+    int getWord(long offset) {
+        return mBuffer.getInt(checkedOffset(offset));
+    }
+
+    // 8 bytes in ELF64 files, 4 bytes in ELF32 ones.
+    long getClassWord(long offset) {
+        return is64 ? mBuffer.getLong(checkedOffset(offset)) : mBuffer.getInt(checkedOffset(offset)) & 0xffffffffL;
+    }
+
+    @NonNull
+    List<Section> getSections() {
+        final List<Section> sections = new ArrayList<>(mSectionCount);
+        for (int i = 0; i < mSectionCount; ++i) {
+            sections.add(getSection(i));
+        }
+        return sections;
+    }
+
+    @NonNull
+    Section getSection(int index) {
+        if (index < 0 || index >= mSectionCount || mSectionHeaderSize < (is64 ? 64 : 40))
+            throw new IllegalArgumentException("invalid section index " + index);
+
+        final int header = checkedOffset(mSectionHeadersOffset + (long) index * mSectionHeaderSize);
+        if (is64) {
+            return new Section(index,
+                    mBuffer.getInt(header),
+                    mBuffer.getInt(header + 4),
+                    mBuffer.getLong(header + 16),
+                    mBuffer.getLong(header + 24),
+                    mBuffer.getLong(header + 32),
+                    mBuffer.getInt(header + 40),
+                    mBuffer.getLong(header + 56));
+        } else {
+            return new Section(index,
+                    mBuffer.getInt(header),
+                    mBuffer.getInt(header + 4),
+                    mBuffer.getInt(header + 12) & 0xffffffffL,
+                    mBuffer.getInt(header + 16) & 0xffffffffL,
+                    mBuffer.getInt(header + 20) & 0xffffffffL,
+                    mBuffer.getInt(header + 24),
+                    mBuffer.getInt(header + 36) & 0xffffffffL);
+        }
+    }
+
+    /**
+     * Returns the offset right after the section header table, the ELF file must be at least this long to call {@link #getSections()}.
+     */
+    long getSectionHeadersEnd() {
+        return mSectionHeadersOffset + (long) mSectionCount * mSectionHeaderSize;
+    }
+
+    // the string table holding the section names.
+    @Nullable
+    Section getSectionNames() {
+        if (mSectionNamesIndex == 0 || mSectionNamesIndex >= mSectionCount)
+            return null;
+        return getSection(mSectionNamesIndex);
+    }
+
+    @Nullable
+    String getSectionName(@NonNull Section section) {
+        final Section sectionNames = getSectionNames();
+        return sectionNames != null ? getString(sectionNames, section.nameOffset & 0xffffffffL) : null;
+    }
+
+    int getSymbolCount(@NonNull Section symbolTable) {
+        final long entrySize = symbolTable.entrySize > 0 ? symbolTable.entrySize : (is64 ? 24 : 16);
+        return (int) Math.min(symbolTable.size / entrySize, Integer.MAX_VALUE);
+    }
+
+    void readSymbol(@NonNull Section symbolTable, int index, @NonNull Symbol symbol) {
+        final long entrySize = symbolTable.entrySize > 0 ? symbolTable.entrySize : (is64 ? 24 : 16);
+        final int entry = checkedOffset(symbolTable.offset + index * entrySize);
+        symbol.nameOffset = mBuffer.getInt(entry);
+        if (is64) {
+            symbol.info = mBuffer.get(entry + 4) & 0xff;
+            symbol.sectionIndex = mBuffer.getShort(entry + 6) & 0xffff;
+            symbol.value = mBuffer.getLong(entry + 8);
+            symbol.size = mBuffer.getLong(entry + 16);
+        } else {
+            symbol.value = mBuffer.getInt(entry + 4) & 0xffffffffL;
+            symbol.size = mBuffer.getInt(entry + 8) & 0xffffffffL;
+            symbol.info = mBuffer.get(entry + 12) & 0xff;
+            symbol.sectionIndex = mBuffer.getShort(entry + 14) & 0xffff;
+        }
+    }
+
+    int getDynamicEntryCount(@NonNull Section dynamic) {
+        final long entrySize = dynamic.entrySize > 0 ? dynamic.entrySize : (is64 ? 16 : 8);
+        return (int) Math.min(dynamic.size / entrySize, Integer.MAX_VALUE);
+    }
+
+    long getDynamicTag(@NonNull Section dynamic, int index) {
+        final long entrySize = dynamic.entrySize > 0 ? dynamic.entrySize : (is64 ? 16 : 8);
+        final int entry = checkedOffset(dynamic.offset + index * entrySize);
+        return is64 ? mBuffer.getLong(entry) : mBuffer.getInt(entry);
+    }
+
+    long getDynamicValue(@NonNull Section dynamic, int index) {
+        final long entrySize = dynamic.entrySize > 0 ? dynamic.entrySize : (is64 ? 16 : 8);
+        final int entry = checkedOffset(dynamic.offset + index * entrySize);
+        return is64 ? mBuffer.getLong(entry + 8) : mBuffer.getInt(entry + 4) & 0xffffffffL;
+    }
+
+    /**
+     * Returns the NUL-terminated string at the given offset of a string table section, or null if it's out of the section.
+     */
+    @Nullable
+    String getString(@NonNull Section stringTable, long offset) {
+        if (offset < 0 || offset >= stringTable.size)
+            return null;
+
+        final int start = checkedOffset(stringTable.offset + offset);
+        final int end = checkedOffset(Math.min(stringTable.offset + stringTable.size, mBuffer.limit()));
+        int i = start;
+        while (i < end && mBuffer.get(i) != 0) {
+            ++i;
+        }
+
+        final byte[] bytes = new byte[i - start];
+        final ByteBuffer string = mBuffer.duplicate();
+        string.position(start);
+        string.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Returns a view of a string table, to match its strings in place. Unlike {@link #getSectionContent(Section)},
+     * it is bounded to the available data like {@link #getString(Section, long)}.
+     */
+    @NonNull
+    ByteBuffer getStringTableContent(@NonNull Section stringTable) {
+        final int start = checkedOffset(stringTable.offset);
+        final int end = checkedOffset(Math.min(stringTable.offset + stringTable.size, mBuffer.limit()));
+        final ByteBuffer content = mBuffer.duplicate();
+        content.limit(end).position(start);
+        return content.slice();
+    }
+
+    /**
+     * Returns a view of the content of a section, bounded to its size.
+     */
+    @NonNull
+    ByteBuffer getSectionContent(@NonNull Section section) {
+        final int start = checkedOffset(section.offset);
+        final int end = checkedOffset(section.offset + section.size);
+        final ByteBuffer content = mBuffer.duplicate();
+        content.limit(end).position(start);
+        return content.slice().order(mBuffer.order());
+    }
+
+    private int checkedOffset(long offset) {
+        if (offset < 0 || offset > mBuffer.limit())
+            throw new IndexOutOfBoundsException("offset " + offset + " is outside of the ELF file");
+        return (int) offset;
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.lib;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Symbol lookup through the hash table of an ELF file, .gnu.hash or .hash, the way the dynamic linker does it:
+ * finding a symbol by name costs a hash and a short chain walk instead of a walk over all the dynamic symbols.
+ */
+final class ElfHashTable {
+    @NonNull
+    private final ElfFile mElf;
+    @NonNull
+    private final ElfFile.Section mSymbolTable;
+    @NonNull
+    private final ByteBuffer mStrings;
+    private final int mSymbolCount;
+    private final boolean mGnu;
+    private final long mBucketCount;
+    private final long mBuckets;
+    private final long mChains;
+    // .gnu.hash only
+    private final long mSymbolOffset;
+    private final long mBloomSize;
+    private final int mBloomShift;
+    private final long mBloom;
+
+    private ElfHashTable(@NonNull ElfFile elf, @NonNull ElfFile.Section hashTable, @NonNull ElfFile.Section symbolTable) {
+        mElf = elf;
+        mSymbolTable = symbolTable;
+        mStrings = elf.getStringTableContent(elf.getSection(symbolTable.link));
+        mSymbolCount = elf.getSymbolCount(symbolTable);
+        mGnu = hashTable.type == ElfFile.SHT_GNU_HASH;
+
+        final long offset = hashTable.offset;
+        mBucketCount = elf.getWord(offset) & 0xffffffffL;
+        if (mGnu) {
+            mSymbolOffset = elf.getWord(offset + 4) & 0xffffffffL;
+            mBloomSize = elf.getWord(offset + 8) & 0xffffffffL;
+            mBloomShift = elf.getWord(offset + 12);
+            mBloom = offset + 16;
+            mBuckets = mBloom + mBloomSize * (elf.is64 ? 8 : 4);
+        } else {
+            mSymbolOffset = 0;
+            mBloomSize = 0;
+            mBloomShift = 0;
+            mBloom = 0;
+            mBuckets = offset + 8;
+        }
+        mChains = mBuckets + mBucketCount * 4;
+    }
+
+    /**
+     * Returns the hash table of the dynamic symbols, preferring .gnu.hash, or null if the file has none.
+     */
+    @Nullable
+    static ElfHashTable find(@NonNull ElfFile elf) {
+        ElfFile.Section hashTable = null;
+        for (final ElfFile.Section section : elf.getSections()) {
+            if (section.type == ElfFile.SHT_GNU_HASH || (section.type == ElfFile.SHT_HASH && hashTable == null))
+                hashTable = section;
+        }
+        if (hashTable == null)
+            return null;
+
+        final ElfFile.Section symbolTable = elf.getSection(hashTable.link);
+        if (symbolTable.type != ElfFile.SHT_DYNSYM)
+            return null;
+
+        final ElfHashTable table = new ElfHashTable(elf, hashTable, symbolTable);
+        return table.mBucketCount > 0 && (!table.mGnu || table.mBloomSize > 0) ? table : null;
+    }
+
+    /**
+     * Looks up a symbol by name and reads it into symbol.
+     *
+     * @return whether the symbol was found. Only defined symbols are in .gnu.hash, while .hash has all of them.
+     */
+    boolean lookup(@NonNull byte[] name, @NonNull ElfFile.Symbol symbol) {
+        return mGnu ? lookupGnu(name, symbol) : lookupSysV(name, symbol);
+    }
+
+    private boolean lookupGnu(@NonNull byte[] name, @NonNull ElfFile.Symbol symbol) {
+        final long hash = gnuHash(name);
+
+        // the bloom filter rejects most missing symbols without touching the buckets.
+        final int bits = mElf.is64 ? 64 : 32;
+        final long bloomWord = mElf.getClassWord(mBloom + ((hash / bits) % mBloomSize) * (bits / 8));
+        if (((bloomWord >>> (hash % bits)) & (bloomWord >>> ((hash >>> mBloomShift) % bits)) & 1) == 0)
+            return false;
+
+        long index = mElf.getWord(mBuckets + (hash % mBucketCount) * 4) & 0xffffffffL;
+        if (index < mSymbolOffset)
+            return false;
+
+        for (; index < mSymbolCount; ++index) {
+            final int chainHash = mElf.getWord(mChains + (index - mSymbolOffset) * 4);
+            if (((chainHash ^ (int) hash) & ~1) == 0 && matches(name, (int) index, symbol))
+                return true;
+            if ((chainHash & 1) != 0) // end of the chain.
+                return false;
+        }
+        return false;
+    }
+
+    private boolean lookupSysV(@NonNull byte[] name, @NonNull ElfFile.Symbol symbol) {
+        long index = mElf.getWord(mBuckets + (sysVHash(name) % mBucketCount) * 4) & 0xffffffffL;
+        // chains are bounded by the symbol count, in case a malformed file has a loop in them.
+        for (int steps = 0; index != 0 && index < mSymbolCount && steps < mSymbolCount; ++steps) {
+            if (matches(name, (int) index, symbol))
+                return true;
+            index = mElf.getWord(mChains + index * 4) & 0xffffffffL;
+        }
+        return false;
+    }
+
+    private boolean matches(@NonNull byte[] name, int index, @NonNull ElfFile.Symbol symbol) {
+        mElf.readSymbol(mSymbolTable, index, symbol);
+        final long nameOffset = symbol.nameOffset & 0xffffffffL;
+        if (nameOffset + name.length >= mStrings.limit())
+            return false;
+
+        for (int i = 0; i < name.length; ++i) {
+            if (mStrings.get((int) nameOffset + i) != name[i])
+                return false;
+        }
+        return mStrings.get((int) nameOffset + name.length) == 0;
+    }
+
+    private static long gnuHash(@NonNull byte[] name) {
+        int hash = 5381;
+        for (final byte b : name) {
+            hash = hash * 33 + (b & 0xff);
+        }
+        return hash & 0xffffffffL;
+    }
+
+    private static long sysVHash(@NonNull byte[] name) {
+        int hash = 0;
+        for (final byte b : name) {
+            hash = (hash << 4) + (b & 0xff);
+            final int high = hash & 0xf0000000;
+            if (high != 0)
+                hash ^= high >>> 24;
+            hash &= ~high;
+        }
+        return hash & 0xffffffffL;
+    }
+}
@@ -0,0 +1,225 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.lib;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Framework detection rules, loaded from a data file so they can be updated without touching the analyzer code.
+ * All symbol rules are compiled into a single automaton, so each symbol name is matched in one pass over its bytes.
+ */
+public final class FrameworkSignatures {
+    public static final int VERSION = 1;
+
+    private static final String RESOURCE_NAME = "framework_signatures.txt";
+    private static final String HEADER = "framework-signatures";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // st_info of global function symbols, the only ones the symbol signatures apply to.
+    private static final int STINFO_GLOBAL_FUNC = 0x12;
+    private static final int SHN_UNDEF = 0;
+
+    private static FrameworkSignatures sDefault;
+
+    @NonNull
+    private final SignatureMatcher mSymbolMatcher;
+    @NonNull
+    private final String[] mSymbolFrameworks;
+    // exact symbol names, to be probed in hash tables; null when some symbol signatures aren't exact names.
+    @Nullable
+    private final byte[][] mSymbolNames;
+    @NonNull
+    private final SignatureMatcher mLibraryMatcher;
+    @NonNull
+    private final String[] mLibraryFrameworks;
+    private final boolean[] mLibraryExact;
+
+    private FrameworkSignatures(@NonNull SignatureMatcher.Builder symbolMatcher, @NonNull List<String> symbolFrameworks,
+                                @Nullable List<byte[]> symbolNames, @NonNull SignatureMatcher.Builder libraryMatcher,
+                                @NonNull List<String> libraryFrameworks, @NonNull List<Boolean> libraryExact) {
+        mSymbolMatcher = symbolMatcher.build();
+        mSymbolFrameworks = symbolFrameworks.toArray(new String[symbolFrameworks.size()]);
+        mSymbolNames = symbolNames != null ? symbolNames.toArray(new byte[symbolNames.size()][]) : null;
+        mLibraryMatcher = libraryMatcher.build();
+        mLibraryFrameworks = libraryFrameworks.toArray(new String[libraryFrameworks.size()]);
+        mLibraryExact = new boolean[libraryExact.size()];
+        for (int i = 0; i < mLibraryExact.length; ++i) {
+            mLibraryExact[i] = libraryExact.get(i);
+        }
+    }
+
+    /**
+     * Returns the signatures shipped with the library.
+     */
+    @NonNull
+    public static synchronized FrameworkSignatures getDefault() {
+        if (sDefault == null) {
+            try (InputStream in = FrameworkSignatures.class.getResourceAsStream(RESOURCE_NAME)) {
+                if (in == null)
+                    throw new IllegalStateException(RESOURCE_NAME + " not found");
+                sDefault = parse(in);
+            } catch (IOException e) {
+                throw new IllegalStateException("can't load " + RESOURCE_NAME, e);
+            }
+        }
+        return sDefault;
+    }
+
+    /**
+     * Parses signatures: a "framework-signatures TAB version" line, then "kind TAB pattern TAB framework" lines.
+     * Empty lines and lines starting with # are ignored.
+     */
+    @NonNull
+    public static FrameworkSignatures parse(@NonNull InputStream in) throws IOException {
+        final SignatureMatcher.Builder symbolMatcher = new SignatureMatcher.Builder();
+        final List<String> symbolFrameworks = new ArrayList<>();
+        final List<byte[]> symbolNames = new ArrayList<>();
+        boolean exactSymbolsOnly = true;
+        final SignatureMatcher.Builder libraryMatcher = new SignatureMatcher.Builder();
+        final List<String> libraryFrameworks = new ArrayList<>();
+        final List<Boolean> libraryExact = new ArrayList<>();
+
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+        boolean versionFound = false;
+        int lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            ++lineNumber;
+            if (line.length() == 0 || line.startsWith("#"))
+                continue;
+
+            final String[] fields = line.split("\t");
+            if (!versionFound) {
+                if (fields.length != 2 || !HEADER.equals(fields[0]))
+                    throw new IOException("missing " + HEADER + " header");
+                if (!String.valueOf(VERSION).equals(fields[1]))
+                    throw new IOException("unsupported " + HEADER + " version " + fields[1]);
+                versionFound = true;
+                continue;
+            }
+
+            if (fields.length != 3 || fields[1].length() == 0 || fields[2].length() == 0)
+                throw new IOException("invalid signature at line " + lineNumber);
+            final byte[] pattern = fields[1].getBytes(UTF_8);
+            final String framework = fields[2];
+            switch (fields[0]) {
+                case "symbol":
+                    symbolMatcher.add(pattern, SignatureMatcher.KIND_EXACT);
+                    symbolFrameworks.add(framework);
+                    symbolNames.add(pattern);
+                    break;
+                case "symbol-prefix":
+                    symbolMatcher.add(pattern, SignatureMatcher.KIND_PREFIX);
+                    symbolFrameworks.add(framework);
+                    exactSymbolsOnly = false;
+                    break;
+                case "symbol-substring":
+                    symbolMatcher.add(pattern, SignatureMatcher.KIND_SUBSTRING);
+                    symbolFrameworks.add(framework);
+                    exactSymbolsOnly = false;
+                    break;
+                case "library":
+                    libraryMatcher.add(pattern, SignatureMatcher.KIND_EXACT);
+                    libraryFrameworks.add(framework);
+                    libraryExact.add(true);
+                    break;
+                case "library-substring":
+                    libraryMatcher.add(pattern, SignatureMatcher.KIND_SUBSTRING);
+                    libraryFrameworks.add(framework);
+                    libraryExact.add(false);
+                    break;
+                default:
+                    throw new IOException("unknown signature kind " + fields[0] + " at line " + lineNumber);
+            }
+        }
+        if (!versionFound)
+            throw new IOException("missing " + HEADER + " header");
+
+        return new FrameworkSignatures(symbolMatcher, symbolFrameworks, exactSymbolsOnly ? symbolNames : null,
+                libraryMatcher, libraryFrameworks, libraryExact);
+    }
+
+    /**
+     * Returns the framework a library is part of, from its file name, or an empty string.
+     * Exact names take precedence over substrings, then the first substring listed wins.
+     */
+    @NonNull
+    public String getFrameworkFromLibraryName(@NonNull String libName) {
+        final byte[] name = libName.getBytes(UTF_8);
+        final int[] best = {-1};
+        mLibraryMatcher.match(ByteBuffer.wrap(name), 0, name.length, new SignatureMatcher.Listener() {
+            @Override
+            public void onMatch(int patternId) {
+                final int current = best[0];
+                if (current < 0 || (mLibraryExact[patternId] && !mLibraryExact[current])
+                        || (mLibraryExact[patternId] == mLibraryExact[current] && patternId < current)) {
+                    best[0] = patternId;
+                }
+            }
+        });
+        return best[0] < 0 ? "" : mLibraryFrameworks[best[0]];
+    }
+
+    /**
+     * Adds the frameworks identified by a NUL-terminated symbol name, read in place from a string table.
+     */
+    public void addFrameworksFromSymbol(@NonNull ByteBuffer strings, int offset, int limit, @NonNull final Set<String> frameworks) {
+        mSymbolMatcher.match(strings, offset, limit, new SignatureMatcher.Listener() {
+            @Override
+            public void onMatch(int patternId) {
+                frameworks.add(mSymbolFrameworks[patternId]);
+            }
+        });
+    }
+
+    /**
+     * Adds the frameworks identified by the symbols a library defines, probing its hash table once per signature
+     * instead of walking all its symbols. Imported symbols aren't in .gnu.hash tables so they are never matched.
+     *
+     * @return false if some signatures are prefixes or substrings, which can only be found by walking the symbols.
+     */
+    boolean addFrameworksFromHashTable(@NonNull ElfHashTable hashTable, @NonNull Set<String> frameworks) {
+        if (mSymbolNames == null)
+            return false;
+
+        final ElfFile.Symbol sym = new ElfFile.Symbol();
+        for (int i = 0; i < mSymbolNames.length; ++i) {
+            final byte[] name = mSymbolNames[i];
+            if (frameworks.contains(mSymbolFrameworks[i]) || !hashTable.lookup(name, sym))
+                continue;
+            if (sym.info != STINFO_GLOBAL_FUNC || sym.sectionIndex == SHN_UNDEF)
+                continue;
+            // internal symbols are skipped, but not C++ mangled ones, like when walking the symbols.
+            if (sym.size < 2 || name[0] != '_' || (name.length > 1 && name[1] == 'Z'))
+                frameworks.add(mSymbolFrameworks[i]);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,379 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.lib;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.drawable.AdaptiveIconDrawable;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import static android.graphics.Bitmap.Config.ARGB_8888;
+
+/**
+ * Icons of the apps, rendered the first time they're needed instead of during the analysis of the apps.
+ * They are kept in memory and in a size-bounded directory of the app cache, keyed by package name and version code.
+ * Identical icons, like the default one, are stored once: keys point to files named after the hash of the icon pixels.
+ * Least recently used files are deleted first.
+ */
+public final class IconCache {
+    private static final String TAG = "iconcache";
+    private static final String DIRECTORY_NAME = "icons";
+    private static final String KEY_SUFFIX = ".key";
+    private static final String ICON_SUFFIX = ".webp";
+    private static final long MAX_DISK_BYTES = 4 * 1024 * 1024;
+    private static final int MAX_MEMORY_BYTES = 2 * 1024 * 1024;
+    private static final int ICON_QUALITY = 90;
+    private static final int ICON_SIZE_DP = 36;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static IconCache sInstance;
+
+    public interface Listener {
+        void onIconLoaded(@Nullable Bitmap icon);
+    }
+
+    @NonNull
+    private final PackageManager mPackageManager;
+    @NonNull
+    private final File mDirectory;
+    private final int mIconSizeInPx;
+    @NonNull
+    private final LruCache<String, Bitmap> mMemoryCache;
+    // icons about to be displayed are loaded before the prefetched ones, which run at the lowest priority.
+    @NonNull
+    private final ExecutorService mLoadExecutor = Executors.newSingleThreadExecutor(newThreadFactory(Thread.NORM_PRIORITY - 1));
+    @NonNull
+    private final ExecutorService mPrefetchExecutor = Executors.newSingleThreadExecutor(newThreadFactory(Thread.MIN_PRIORITY));
+    @NonNull
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // bytes used by the directory, -1 until it's listed.
+    private long mDiskBytes = -1;
+
+    private IconCache(@NonNull Context context) {
+        mPackageManager = context.getPackageManager();
+        mDirectory = new File(context.getCacheDir(), DIRECTORY_NAME);
+        mIconSizeInPx = (int) (Resources.getSystem().getDisplayMetrics().density * ICON_SIZE_DP);
+        mMemoryCache = new LruCache<String, Bitmap>(MAX_MEMORY_BYTES) {
+            @Override
+            protected int sizeOf(String key, Bitmap icon) {
+                return icon.getByteCount();
+            }
+        };
+    }
+
+    @NonNull
+    public static synchronized IconCache getInstance(@NonNull Context context) {
+        if (sInstance == null) {
+            // enforce use of process context here
+            Context ctx = context.getApplicationContext();
+            assert ctx != null;
+            sInstance = new IconCache(ctx);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the icon if it's in memory, without any I/O.
+     */
+    @Nullable
+    public Bitmap getMemoryCachedIcon(@NonNull String packageName, long versionCode) {
+        return mMemoryCache.get(getKey(packageName, versionCode));
+    }
+
+    /**
+     * Gets an icon in background, rendering it if it isn't cached yet. The listener is called on the UI thread,
+     * right away if the icon is in memory.
+     */
+    public void load(@NonNull final String packageName, final long versionCode, @NonNull final Listener listener) {
+        final Bitmap cachedIcon = getMemoryCachedIcon(packageName, versionCode);
+        if (cachedIcon != null) {
+            listener.onIconLoaded(cachedIcon);
+            return;
+        }
+
+        mLoadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap icon = getIcon(packageName, versionCode);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onIconLoaded(icon);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Renders an icon to the disk cache at low priority, if it isn't there already.
+     */
+    public void prefetch(@NonNull final String packageName, final long versionCode) {
+        mPrefetchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final String key = getKey(packageName, versionCode);
+                if (mMemoryCache.get(key) != null || getIconFile(key) != null)
+                    return;
+
+                final Bitmap icon = renderIcon(packageName);
+                if (icon != null)
+                    writeToDisk(key, icon);
+            }
+        });
+    }
+
+    /**
+     * Returns an icon from memory, disk, or renders it, or null if the app has no icon that can be rendered.
+     */
+    @WorkerThread
+    @Nullable
+    public Bitmap getIcon(@NonNull String packageName, long versionCode) {
+        final String key = getKey(packageName, versionCode);
+        Bitmap icon = mMemoryCache.get(key);
+        if (icon != null)
+            return icon;
+
+        final File iconFile = getIconFile(key);
+        if (iconFile != null)
+            icon = BitmapFactory.decodeFile(iconFile.getPath());
+
+        if (icon == null) {
+            icon = renderIcon(packageName);
+            if (icon == null)
+                return null;
+            writeToDisk(key, icon);
+        }
+
+        mMemoryCache.put(key, icon);
+        return icon;
+    }
+
+    @NonNull
+    private static String getKey(@NonNull String packageName, long versionCode) {
+        return packageName + '@' + versionCode;
+    }
+
+    @NonNull
+    private static ThreadFactory newThreadFactory(final int priority) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                final Thread thread = new Thread(runnable, TAG);
+                thread.setPriority(priority);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Returns the file of the icon a key points to, marking both as recently used, or null if it isn't on disk.
+     */
+    @Nullable
+    private synchronized File getIconFile(@NonNull String key) {
+        final File keyFile = new File(mDirectory, key + KEY_SUFFIX);
+        if (!keyFile.isFile())
+            return null;
+
+        final byte[] hash = new byte[(int) keyFile.length()];
+        try (InputStream in = new FileInputStream(keyFile)) {
+            int read = 0;
+            while (read < hash.length) {
+                final int count = in.read(hash, read, hash.length - read);
+                if (count < 0)
+                    return null;
+                read += count;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+
+        final File iconFile = new File(mDirectory, new String(hash, UTF_8) + ICON_SUFFIX);
+        if (!iconFile.isFile())
+            return null;
+
+        final long now = System.currentTimeMillis();
+        keyFile.setLastModified(now);
+        iconFile.setLastModified(now);
+        return iconFile;
+    }
+
+    private synchronized void writeToDisk(@NonNull String key, @NonNull Bitmap icon) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs())
+            return;
+        if (mDiskBytes < 0)
+            mDiskBytes = getDirectorySize();
+
+        final String hash = hashPixels(icon);
+        if (hash == null)
+            return;
+
+        try {
+            final File iconFile = new File(mDirectory, hash + ICON_SUFFIX);
+            if (!iconFile.isFile()) { // only encoded once for all the apps sharing this icon.
+                final File tmpFile = new File(mDirectory, hash + ".tmp");
+                try (OutputStream out = new FileOutputStream(tmpFile)) {
+                    icon.compress(getCompressFormat(), ICON_QUALITY, out);
+                }
+                if (!tmpFile.renameTo(iconFile)) {
+                    tmpFile.delete();
+                    return;
+                }
+                mDiskBytes += iconFile.length();
+            }
+
+            final File keyFile = new File(mDirectory, key + KEY_SUFFIX);
+            final long formerKeyLength = keyFile.length();
+            try (OutputStream out = new FileOutputStream(keyFile)) {
+                out.write(hash.getBytes(UTF_8));
+            }
+            mDiskBytes += keyFile.length() - formerKeyLength;
+        } catch (IOException e) {
+            Log.d(TAG, "Couldn't write icon of " + key + ": " + e.getMessage());
+        }
+
+        if (mDiskBytes > MAX_DISK_BYTES)
+            trim();
+    }
+
+    // deletes the least recently used files until the directory fits in 3/4 of its budget.
+    private void trim() {
+        final File[] files = mDirectory.listFiles();
+        if (files == null)
+            return;
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                final long lhsLastModified = lhs.lastModified();
+                final long rhsLastModified = rhs.lastModified();
+                return lhsLastModified < rhsLastModified ? -1 : (lhsLastModified == rhsLastModified ? 0 : 1);
+            }
+        });
+        for (final File file : files) {
+            if (mDiskBytes <= MAX_DISK_BYTES * 3 / 4)
+                break;
+            final long length = file.length();
+            if (file.delete())
+                mDiskBytes -= length;
+        }
+    }
+
+    private long getDirectorySize() {
+        long size = 0;
+        final File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    @Nullable
+    private static String hashPixels(@NonNull Bitmap icon) {
+        final ByteBuffer pixels = ByteBuffer.allocate(icon.getByteCount());
+        icon.copyPixelsToBuffer(pixels);
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(pixels.array(), 0, pixels.position());
+            final byte[] hash = digest.digest();
+            final StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (final byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    // lossy WebP is much faster to encode than PNG at quality 100, and smaller.
+    @SuppressWarnings("deprecation")
+    @NonNull
+    private static Bitmap.CompressFormat getCompressFormat() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R ? Bitmap.CompressFormat.WEBP_LOSSY : Bitmap.CompressFormat.WEBP;
+    }
+
+    @TargetApi(Build.VERSION_CODES.O)
+    @Nullable
+    private Bitmap renderIcon(@NonNull String packageName) {
+        final ApplicationInfo ai;
+        try {
+            ai = mPackageManager.getApplicationInfo(packageName, 0);
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+
+        Drawable appIcon = ai.loadIcon(mPackageManager);
+
+        if (appIcon == null) appIcon = ai.loadLogo(mPackageManager);
+
+        if (appIcon == null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            appIcon = ai.loadBanner(mPackageManager);
+        }
+
+        final Bitmap bitmap;
+        if (appIcon instanceof BitmapDrawable) {
+            bitmap = ((BitmapDrawable) appIcon).getBitmap();
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && appIcon instanceof AdaptiveIconDrawable) {
+            bitmap = Bitmap.createBitmap(appIcon.getIntrinsicWidth(), appIcon.getIntrinsicHeight(), ARGB_8888);
+            Canvas canvas = new Canvas(bitmap);
+            appIcon.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
+            appIcon.draw(canvas);
+        } else
+            return null;
+
+        if (appIcon.getIntrinsicWidth() <= mIconSizeInPx && appIcon.getIntrinsicHeight() <= mIconSizeInPx)
+            return bitmap;
+        return Bitmap.createScaledBitmap(bitmap, mIconSizeInPx, mIconSizeInPx, true);
+    }
+}
@@ -0,0 +1,722 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.lib;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Pure-Java analyzer engine: libraries are mapped (or inflated) into a {@link ByteBuffer} and parsed by {@link ElfFile}.
+ * In {@link AnalysisMode#sections} mode, produces the same results as the JNI engine without needing any native library.
+ * In {@link AnalysisMode#dynamic} mode, libraries are analyzed from their dynamic segment, and compressed ones only get
+ * inflated up to the tables it points to.
+ */
+public final class JavaNativeLibAnalyzerEngine implements NativeLibAnalyzerEngine {
+    private static final String HOUDINI_PATH = "/system/lib/libhoudini.so";
+    // an ELF64 header is 64 bytes, an ELF32 one 52 bytes.
+    private static final int ELF_HEADER_MAX_SIZE = 64;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // SHT_SYMTAB_SHNDX value, which the native analyzer compares st_info to: global function symbols.
+    private static final int STINFO_GLOBAL_FUNC = 0x12;
+    // SHT_SYMTAB value, which the native analyzer compares st_info to: local function symbols.
+    private static final int STINFO_LOCAL_FUNC = 0x2;
+    private static final byte[] JAVA_PREFIX = "Java_".getBytes();
+    private static final byte[] JNI_ONLOAD = "JNI_OnLoad".getBytes();
+    private static final byte[] ANDROID_MAIN = "android_main".getBytes();
+    private static final byte[] INTEL_CPU_FEATURES_INIT = "__intel_cpu_features_init".getBytes();
+    // the inflated beginning of a library starts this large, and doubles each time the analysis reads past it.
+    private static final int LIBRARY_PREFIX_INITIAL_CAPACITY = 64 * 1024;
+    // symbols read between two deadline checks, checking is a volatile read and a clock call.
+    private static final int SYMBOLS_PER_DEADLINE_CHECK = 1024;
+    // libraries up to MemoryBudget.ARENA_MAX_SIZE are inflated into a buffer kept by each thread, larger ones into a buffer of their own.
+    private static final ThreadLocal<byte[]> sInflateArena = new ThreadLocal<>();
+
+    @NonNull
+    private final FrameworkSignatures mSignatures;
+    @NonNull
+    private final VersionProbes mVersionProbes;
+    @AnalysisMode.type
+    private final int mMode;
+
+    public JavaNativeLibAnalyzerEngine() {
+        this(FrameworkSignatures.getDefault(), VersionProbes.getDefault());
+    }
+
+    public JavaNativeLibAnalyzerEngine(@AnalysisMode.type int mode) {
+        this(FrameworkSignatures.getDefault(), VersionProbes.getDefault(), mode);
+    }
+
+    public JavaNativeLibAnalyzerEngine(@NonNull FrameworkSignatures signatures) {
+        this(signatures, VersionProbes.getDefault());
+    }
+
+    public JavaNativeLibAnalyzerEngine(@NonNull FrameworkSignatures signatures, @NonNull VersionProbes versionProbes) {
+        this(signatures, versionProbes, AnalysisMode.sections);
+    }
+
+    public JavaNativeLibAnalyzerEngine(@NonNull FrameworkSignatures signatures, @NonNull VersionProbes versionProbes,
+                                       @AnalysisMode.type int mode) {
+        this.mSignatures = signatures;
+        this.mVersionProbes = versionProbes;
+        this.mMode = mode;
+    }
+
+    @NonNull
+    @Override
+    public NativeLibrary analyzeNativeLib(@NonNull String nativeLibAbsoluteLocation, @NonNull AnalysisDeadline deadline) {
+        final AnalysisDeadline libraryDeadline = deadline.forLibrary();
+        try (RandomAccessFile file = new RandomAccessFile(nativeLibAbsoluteLocation, "r")) {
+            final FileChannel channel = file.getChannel();
+            final long size = channel.size();
+            if (size >= Integer.MAX_VALUE)
+                return new NativeLibrary(nativeLibAbsoluteLocation, size);
+            return analyzeNativeLib(nativeLibAbsoluteLocation, channel.map(FileChannel.MapMode.READ_ONLY, 0, size), size, libraryDeadline);
+        } catch (IOException e) {
+            return new NativeLibrary(nativeLibAbsoluteLocation, new File(nativeLibAbsoluteLocation).length());
+        }
+    }
+
+    @NonNull
+    @Override
+    public NativeLibrary analyzeNativeLib(@NonNull ApkFile apk, @NonNull ZipCentralDirectory.Entry entry,
+                                          @NonNull AnalysisDeadline deadline) throws IOException {
+        if (entry.size >= Integer.MAX_VALUE)
+            return new NativeLibrary(entry.name, entry.size);
+
+        final AnalysisDeadline libraryDeadline = deadline.forLibrary();
+        if (entry.method == ZipCentralDirectory.METHOD_STORED) {
+            final ByteBuffer content = apk.map(apk.getDataOffset(entry), entry.size);
+            return analyzeNativeLib(entry.name, content, entry.size, libraryDeadline);
+        } else if (entry.method == ZipCentralDirectory.METHOD_DEFLATED) {
+            if (mMode == AnalysisMode.dynamic) {
+                final NativeLibrary nativeLibrary = analyzeDynamicSegment(entry.name,
+                        new LibraryPrefix(apk.getInputStream(entry), (int) entry.size, libraryDeadline), libraryDeadline);
+                if (nativeLibrary != null)
+                    return nativeLibrary;
+                if (libraryDeadline.isExpired())
+                    return NativeLibrary.newTimedOut(entry.name, entry.size);
+            }
+
+            // a large library is about to be held in memory, along with the ones other threads are inflating.
+            final MemoryBudget memoryBudget = MemoryBudget.getDefault();
+            final boolean budgeted = entry.size > MemoryBudget.ARENA_MAX_SIZE;
+            if (budgeted && !memoryBudget.acquire(entry.size, libraryDeadline))
+                return NativeLibrary.newTimedOut(entry.name, entry.size);
+            try {
+                final ByteBuffer content = inflate(apk, entry, libraryDeadline);
+                if (content == null)
+                    return libraryDeadline.isExpired() ? NativeLibrary.newTimedOut(entry.name, entry.size) : new NativeLibrary(entry.name, entry.size);
+                return analyzeSections(entry.name, content, entry.size, libraryDeadline);
+            } finally {
+                if (budgeted)
+                    memoryBudget.release(entry.size);
+            }
+        } else
+            return new NativeLibrary(entry.name, entry.size);
+    }
+
+    @NonNull
+    @Override
+    public List<NativeLibrary> analyzeNativeLibs(@NonNull ApkFile apk, @NonNull List<ZipCentralDirectory.Entry> entries,
+                                                @NonNull AnalysisDeadline deadline) throws IOException {
+        final List<NativeLibrary> nativeLibraries = new ArrayList<>(entries.size());
+        for (final ZipCentralDirectory.Entry entry : entries) {
+            if (deadline.isExpired())
+                nativeLibraries.add(NativeLibrary.newTimedOut(entry.name, entry.size));
+            else
+                nativeLibraries.add(analyzeNativeLib(apk, entry, deadline));
+        }
+        return nativeLibraries;
+    }
+
+    @AnalysisMode.type
+    @Override
+    public int getAnalysisMode() {
+        return mMode;
+    }
+
+    @NonNull
+    @Override
+    public String getNativeBridgeVersion() {
+        try (RandomAccessFile file = new RandomAccessFile(HOUDINI_PATH, "r")) {
+            final FileChannel channel = file.getChannel();
+            final ElfFile elf = ElfFile.parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            if (elf == null)
+                return "";
+
+            final ElfFile.Section roData = findRoData(elf);
+            if (roData == null)
+                return "";
+
+            return mVersionProbes.getNativeBridgeVersion(elf.getSectionContent(roData));
+        } catch (IOException | RuntimeException ignore) {
+        }
+        return "";
+    }
+
+    // the whole library is available, in dynamic mode it still only reads what an inflated one would.
+    @NonNull
+    private NativeLibrary analyzeNativeLib(@NonNull String libPath, @NonNull ByteBuffer content, long size,
+                                           @NonNull AnalysisDeadline deadline) {
+        if (mMode == AnalysisMode.dynamic) {
+            final NativeLibrary nativeLibrary = analyzeDynamicSegment(libPath, new LibraryPrefix(content), deadline);
+            if (nativeLibrary != null)
+                return nativeLibrary;
+        }
+        return analyzeSections(libPath, content, size, deadline);
+    }
+
+    @NonNull
+    private NativeLibrary analyzeSections(@NonNull String libPath, @NonNull ByteBuffer content, long size,
+                                          @NonNull AnalysisDeadline deadline) {
+        final String libName = libPath.substring(libPath.lastIndexOf('/') + 1);
+        final List<String> entryPoints = new ArrayList<>();
+        final Set<String> frameworks = new TreeSet<>();
+        final List<String> dependencies = new ArrayList<>();
+        int abi = ABI.unknown;
+
+        final String knownFramework = mSignatures.getFrameworkFromLibraryName(libName);
+        final boolean knownSharedLib = knownFramework.length() > 0;
+        if (knownSharedLib)
+            frameworks.add(knownFramework);
+
+        try {
+            final ElfFile elf = ElfFile.parse(content);
+            if (elf != null) {
+                abi = analyzeLibElfEntries(elf, entryPoints, frameworks, dependencies, knownSharedLib, deadline);
+
+                // the whole library is available here, so its .rodata can be probed for versions at no extra I/O.
+                final ElfFile.Section roData = findRoData(elf);
+                if (roData != null && !deadline.isExpired())
+                    mVersionProbes.addVersions(elf.getSectionContent(roData), frameworks);
+            }
+        } catch (RuntimeException ignore) { // malformed ELF file, keep what we have found so far.
+        }
+
+        final NativeLibrary nativeLibrary = newNativeLibrary(size, abi, entryPoints, frameworks, dependencies);
+        nativeLibrary.timedOut = deadline.isExpired();
+        return nativeLibrary;
+    }
+
+    @NonNull
+    private static NativeLibrary newNativeLibrary(long size, @ABI.type int abi, @NonNull List<String> entryPoints,
+                                                  @NonNull Set<String> frameworks, @NonNull List<String> dependencies) {
+        return new NativeLibrary(size, abi,
+                entryPoints.toArray(new String[entryPoints.size()]),
+                frameworks.toArray(new String[frameworks.size()]),
+                dependencies.toArray(new String[dependencies.size()]));
+    }
+
+    /**
+     * Analyzes a library from its program headers, reading it only up to its dynamic entries, symbols and strings,
+     * which usually sit in the first loadable segment. Section headers are at the end of the file so local symbols,
+     * ARM build attributes and .rodata aren't looked at. The same bytes are read whether the library is mapped or
+     * inflated, so both give the same results.
+     *
+     * @return the library, or null if its dynamic segment can't be located: it is then analyzed from its sections.
+     */
+    @Nullable
+    private NativeLibrary analyzeDynamicSegment(@NonNull String libPath, @NonNull LibraryPrefix prefix,
+                                                @NonNull AnalysisDeadline deadline) {
+        final String libName = libPath.substring(libPath.lastIndexOf('/') + 1);
+        try {
+            ElfFile elf = prefix.parse(Math.min(ELF_HEADER_MAX_SIZE, prefix.getSize()));
+            if (elf == null)
+                return null;
+
+            elf = prefix.parse(elf.getProgramHeadersEnd());
+            final List<ElfFile.Segment> segments = elf.getSegments();
+            ElfFile.Segment dynamic = null;
+            for (final ElfFile.Segment segment : segments) {
+                if (segment.type == ElfFile.PT_DYNAMIC)
+                    dynamic = segment;
+            }
+            if (dynamic == null)
+                return null;
+
+            elf = prefix.parse(dynamic.offset + dynamic.fileSize);
+            final ElfFile.Section dynamicTable = new ElfFile.Section(-1, 0, ElfFile.SHT_DYNAMIC,
+                    dynamic.virtualAddress, dynamic.offset, dynamic.fileSize, 0, 0);
+            long stringTableAddress = -1;
+            long stringTableSize = 0;
+            long symbolTableAddress = -1;
+            long symbolEntrySize = elf.is64 ? 24 : 16;
+            long hashAddress = -1;
+            long gnuHashAddress = -1;
+
+            final int count = elf.getDynamicEntryCount(dynamicTable);
+            for (int i = 0; i < count; ++i) {
+                final long tag = elf.getDynamicTag(dynamicTable, i);
+                final long value = elf.getDynamicValue(dynamicTable, i);
+                if (tag == ElfFile.DT_NULL)
+                    break;
+                else if (tag == ElfFile.DT_STRTAB)
+                    stringTableAddress = value;
+                else if (tag == ElfFile.DT_STRSZ)
+                    stringTableSize = value;
+                else if (tag == ElfFile.DT_SYMTAB)
+                    symbolTableAddress = value;
+                else if (tag == ElfFile.DT_SYMENT && value > 0)
+                    symbolEntrySize = value;
+                else if (tag == ElfFile.DT_HASH)
+                    hashAddress = value;
+                else if (tag == ElfFile.DT_GNU_HASH)
+                    gnuHashAddress = value;
+            }
+
+            final long stringTableOffset = ElfFile.getFileOffset(segments, stringTableAddress);
+            final long symbolTableOffset = ElfFile.getFileOffset(segments, symbolTableAddress);
+            final long symbolCount = getDynamicSymbolCount(prefix, segments, hashAddress, gnuHashAddress);
+            if (stringTableOffset < 0 || symbolTableOffset < 0 || symbolCount < 0)
+                return null;
+
+            final ElfFile.Section stringTable = new ElfFile.Section(-1, 0, 0,
+                    stringTableAddress, stringTableOffset, stringTableSize, 0, 0);
+            final ElfFile.Section symbolTable = new ElfFile.Section(-1, 0, ElfFile.SHT_DYNSYM,
+                    symbolTableAddress, symbolTableOffset, symbolCount * symbolEntrySize, 0, symbolEntrySize);
+            elf = prefix.parse(Math.max(stringTable.offset + stringTable.size, symbolTable.offset + symbolTable.size));
+
+            final List<String> entryPoints = new ArrayList<>();
+            final Set<String> frameworks = new TreeSet<>();
+            final List<String> dependencies = new ArrayList<>();
+
+            final String knownFramework = mSignatures.getFrameworkFromLibraryName(libName);
+            final boolean knownSharedLib = knownFramework.length() > 0;
+            if (knownSharedLib)
+                frameworks.add(knownFramework);
+
+            analyzeDynamicSymbols(elf, symbolTable, stringTable, entryPoints, frameworks, knownSharedLib, deadline);
+            analyzeDynamicEntries(elf, dynamicTable, stringTable, dependencies);
+
+            final NativeLibrary nativeLibrary = newNativeLibrary(prefix.getSize(), elf.getAbi(), entryPoints, frameworks, dependencies);
+            nativeLibrary.timedOut = deadline.isExpired();
+            return nativeLibrary;
+        } catch (IOException | RuntimeException e) { // truncated or malformed, it is analyzed from its sections.
+            return null;
+        } finally {
+            prefix.close();
+        }
+    }
+
+    /**
+     * Returns the number of dynamic symbols, from the nchain field of the SysV hash table
+     * or by walking the longest chain of the GNU hash table, or -1 if there's none.
+     */
+    private static long getDynamicSymbolCount(@NonNull LibraryPrefix prefix, @NonNull List<ElfFile.Segment> segments,
+                                              long hashAddress, long gnuHashAddress) throws IOException {
+        if (hashAddress >= 0) {
+            final long offset = ElfFile.getFileOffset(segments, hashAddress);
+            if (offset < 0)
+                return -1;
+            return prefix.parse(offset + 8).getWord(offset + 4) & 0xffffffffL;
+        }
+
+        if (gnuHashAddress >= 0) {
+            final long offset = ElfFile.getFileOffset(segments, gnuHashAddress);
+            if (offset < 0)
+                return -1;
+
+            ElfFile elf = prefix.parse(offset + 16);
+            final long bucketCount = elf.getWord(offset) & 0xffffffffL;
+            final long symbolOffset = elf.getWord(offset + 4) & 0xffffffffL;
+            final long bloomSize = elf.getWord(offset + 8) & 0xffffffffL;
+            final long buckets = offset + 16 + bloomSize * (elf.is64 ? 8 : 4);
+            final long chains = buckets + bucketCount * 4;
+
+            elf = prefix.parse(chains);
+            long lastSymbol = 0;
+            for (long i = 0; i < bucketCount; ++i) {
+                lastSymbol = Math.max(lastSymbol, elf.getWord(buckets + i * 4) & 0xffffffffL);
+            }
+            if (lastSymbol < symbolOffset)
+                return symbolOffset;
+
+            // the last symbol of a chain has its lowest bit set.
+            while ((prefix.parse(chains + (lastSymbol - symbolOffset + 1) * 4).getWord(chains + (lastSymbol - symbolOffset) * 4) & 1) == 0) {
+                ++lastSymbol;
+            }
+            return lastSymbol + 1;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Walks the sections of a library, and returns its ABI: for ARM libraries, it is refined from their build attributes.
+     */
+    @ABI.type
+    private int analyzeLibElfEntries(@NonNull ElfFile elf, @NonNull List<String> entryPoints,
+                                     @NonNull Set<String> frameworks, @NonNull List<String> dependencies,
+                                     boolean knownSharedLib, @NonNull AnalysisDeadline deadline) {
+        int abi = elf.getAbi();
+        for (final ElfFile.Section section : elf.getSections()) {
+            if (section.type == ElfFile.SHT_DYNSYM) {
+                analyzeDynamicSymbols(elf, section, elf.getSection(section.link), entryPoints, frameworks, knownSharedLib, deadline);
+            } else if (section.type == ElfFile.SHT_SYMTAB && !knownSharedLib) {
+                analyzeSymbolsTable(elf, section, frameworks, deadline);
+            } else if (section.type == ElfFile.SHT_DYNAMIC) {
+                analyzeDynamicEntries(elf, section, elf.getSection(section.link), dependencies);
+            } else if (section.type == ElfFile.SHT_ARM_ATTRIBUTES && elf.machine == ElfFile.EM_ARM) {
+                abi = ArmAttributes.getAbi(elf.getSectionContent(section));
+            }
+        }
+        return abi;
+    }
+
+    private void analyzeDynamicSymbols(@NonNull ElfFile elf, @NonNull ElfFile.Section section, @NonNull ElfFile.Section stringTable,
+                                       @NonNull List<String> entryPoints, @NonNull Set<String> frameworks,
+                                       boolean knownSharedLib, @NonNull AnalysisDeadline deadline) {
+        // names are matched in place, only entry points get decoded.
+        final ByteBuffer strings = elf.getStringTableContent(stringTable);
+        final int limit = strings.limit();
+        final ElfFile.Symbol sym = new ElfFile.Symbol();
+        final int count = elf.getSymbolCount(section);
+
+        for (int i = 0; i < count; ++i) {
+            if (i % SYMBOLS_PER_DEADLINE_CHECK == 0 && deadline.isExpired())
+                break;
+
+            elf.readSymbol(section, i, sym);
+            if (sym.info != STINFO_GLOBAL_FUNC)
+                continue;
+
+            final long nameOffset = sym.nameOffset & 0xffffffffL;
+            if (nameOffset >= limit)
+                continue;
+
+            final int name = (int) nameOffset;
+            final byte first = byteAt(strings, name);
+            final byte second = first != 0 ? byteAt(strings, name + 1) : 0;
+            if (sym.size < 2 || first != '_' || second == 'Z') { //skip internal symbols, but not C++ mangled ones.
+                if (sym.size > 0) { // sym.st_size is correctly filled.
+                    if ((sym.size >= 5 && startsWith(strings, name, JAVA_PREFIX))
+                            || strncmpEquals(JNI_ONLOAD, strings, name, sym.size)
+                            || strncmpEquals(ANDROID_MAIN, strings, name, sym.size)) {
+                        entryPoints.add(decodeString(strings, name));
+                    }
+                } else if (first != 0 && (first != '_' || second == 'Z')) { // sym.st_size is 0
+                    if (startsWith(strings, name, JAVA_PREFIX) || startsWith(strings, name, JNI_ONLOAD) || startsWith(strings, name, ANDROID_MAIN)) {
+                        entryPoints.add(decodeString(strings, name));
+                    }
+                }
+
+                if (!knownSharedLib) //if this isn't a well-known shared lib, we do a static analysis of its non-internal symbols
+                    mSignatures.addFrameworksFromSymbol(strings, name, limit, frameworks);
+            }
+        }
+    }
+
+    private static void analyzeSymbolsTable(@NonNull ElfFile elf, @NonNull ElfFile.Section section, @NonNull Set<String> frameworks,
+                                            @NonNull AnalysisDeadline deadline) {
+        final ByteBuffer strings = elf.getStringTableContent(elf.getSection(section.link));
+        final ElfFile.Symbol sym = new ElfFile.Symbol();
+        final int count = elf.getSymbolCount(section);
+
+        for (int i = 0; i < count; ++i) {
+            if (i % SYMBOLS_PER_DEADLINE_CHECK == 0 && deadline.isExpired())
+                break;
+
+            elf.readSymbol(section, i, sym);
+            if (sym.info == STINFO_LOCAL_FUNC) {
+                final long nameOffset = sym.nameOffset & 0xffffffffL;
+                if (nameOffset < strings.limit() && startsWith(strings, (int) nameOffset, INTEL_CPU_FEATURES_INIT)) {
+                    frameworks.add("Intel Compiler");
+                }
+            }
+        }
+    }
+
+    private static void analyzeDynamicEntries(@NonNull ElfFile elf, @NonNull ElfFile.Section section, @NonNull ElfFile.Section stringTable,
+                                              @NonNull List<String> dependencies) {
+        final int count = elf.getDynamicEntryCount(section);
+
+        for (int i = 0; i < count; ++i) {
+            if (elf.getDynamicTag(section, i) == ElfFile.DT_NEEDED) {
+                final String name = elf.getString(stringTable, elf.getDynamicValue(section, i));
+                if (name != null)
+                    dependencies.add(name);
+            }
+        }
+    }
+
+    @Nullable
+    private static ElfFile.Section findRoData(@NonNull ElfFile elf) {
+        ElfFile.Section roData = null;
+        for (final ElfFile.Section section : elf.getSections()) {
+            if (section.type == ElfFile.SHT_PROGBITS) {
+                final String name = elf.getSectionName(section);
+                if (name != null && name.startsWith(".rodata"))
+                    roData = section;
+            }
+        }
+        return roData;
+    }
+
+    /**
+     * Inflates a library, into the buffer of the calling thread when small enough: the content is only valid
+     * until the next call on the same thread. Inflating stops once all that {@link #getAnalyzedLength} says the analysis
+     * reads is available, so the returned content can be shorter than the library.
+     */
+    @Nullable
+    private ByteBuffer inflate(@NonNull ApkFile apk, @NonNull ZipCentralDirectory.Entry entry,
+                               @NonNull AnalysisDeadline deadline) throws IOException {
+        final long dataOffset = apk.getDataOffset(entry);
+        final String libName = entry.name.substring(entry.name.lastIndexOf('/') + 1);
+        final int size = (int) entry.size;
+        final byte[] output = getInflateBuffer(size);
+        final byte[] input = new byte[64 * 1024];
+        final Inflater inflater = new Inflater(true); // raw deflate data, without zlib header.
+
+        try {
+            long position = dataOffset;
+            long remaining = entry.compressedSize;
+            int inflated = 0;
+            long analyzedLength = Math.min(size, ELF_HEADER_MAX_SIZE);
+            while (!inflater.finished() && inflated < analyzedLength) {
+                if (inflater.needsInput()) {
+                    if (remaining <= 0 || deadline.isExpired())
+                        break;
+                    final int read = apk.read(position, input, 0, (int) Math.min(input.length, remaining));
+                    if (read <= 0)
+                        break;
+                    position += read;
+                    remaining -= read;
+                    inflater.setInput(input, 0, read);
+                }
+                inflated += inflater.inflate(output, inflated, size - inflated);
+                if (inflated >= analyzedLength)
+                    analyzedLength = Math.min(size, getAnalyzedLength(ByteBuffer.wrap(output, 0, inflated).slice(), libName, size));
+            }
+            return inflated >= analyzedLength ? ByteBuffer.wrap(output, 0, inflated).slice() : null;
+        } catch (DataFormatException e) {
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Returns how much of a library its analysis reads: its section headers and the sections looked at by
+     * {@link #analyzeSections(String, ByteBuffer, long, AnalysisDeadline)}. Given the beginning of the library, returns
+     * either that length, or when it can't be known yet, the length needed to go further. Section headers are usually
+     * at the end of the file, so most libraries still get inflated entirely.
+     */
+    private long getAnalyzedLength(@NonNull ByteBuffer prefix, @NonNull String libName, long size) {
+        if (prefix.limit() < ELF_HEADER_MAX_SIZE && prefix.limit() < size)
+            return ELF_HEADER_MAX_SIZE;
+
+        try {
+            final ElfFile elf = ElfFile.parse(prefix);
+            if (elf == null) // not an ELF file, nothing more gets read.
+                return prefix.limit();
+
+            long length = elf.getSectionHeadersEnd();
+            if (prefix.limit() < length)
+                return length;
+            final ElfFile.Section sectionNames = elf.getSectionNames();
+            if (sectionNames != null)
+                length = Math.max(length, sectionNames.offset + sectionNames.size);
+            if (prefix.limit() < length)
+                return length;
+
+            final boolean knownSharedLib = mSignatures.getFrameworkFromLibraryName(libName).length() > 0;
+            for (final ElfFile.Section section : elf.getSections()) {
+                if (section.type == ElfFile.SHT_DYNSYM || section.type == ElfFile.SHT_DYNAMIC
+                        || (section.type == ElfFile.SHT_SYMTAB && !knownSharedLib)) {
+                    final ElfFile.Section strings = elf.getSection(section.link);
+                    length = Math.max(length, Math.max(section.offset + section.size, strings.offset + strings.size));
+                } else if (section.type == ElfFile.SHT_ARM_ATTRIBUTES && elf.machine == ElfFile.EM_ARM) {
+                    length = Math.max(length, section.offset + section.size);
+                } else if (section.type == ElfFile.SHT_PROGBITS) {
+                    final String name = elf.getSectionName(section);
+                    if (name != null && name.startsWith(".rodata"))
+                        length = Math.max(length, section.offset + section.size);
+                }
+            }
+            return length;
+        } catch (RuntimeException e) { // malformed, it is analyzed from its whole content.
+            return size;
+        }
+    }
+
+    @NonNull
+    private static byte[] getInflateBuffer(int size) {
+        if (size > MemoryBudget.ARENA_MAX_SIZE)
+            return new byte[size];
+
+        byte[] buffer = sInflateArena.get();
+        if (buffer == null || buffer.length < size) {
+            buffer = new byte[size];
+            sInflateArena.set(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * Beginning of a library, grown on demand: an inflated one is only inflated as far as the analysis reads, and its
+     * buffer reserved from the memory budget once larger than {@link MemoryBudget#ARENA_MAX_SIZE}. A mapped one is
+     * available as a whole, but reading past its size fails the same way.
+     */
+    private static final class LibraryPrefix implements Closeable {
+        @Nullable
+        private final InputStream mIn;
+        private final int mSize;
+        @Nullable
+        private final AnalysisDeadline mDeadline;
+        @NonNull
+        private byte[] mData;
+        private int mLength;
+        private long mBudgeted = 0;
+        @Nullable
+        private ElfFile mElf;
+
+        LibraryPrefix(@NonNull ByteBuffer content) {
+            this.mIn = null;
+            this.mSize = content.limit();
+            this.mDeadline = null;
+            this.mData = new byte[0];
+            this.mLength = mSize;
+            this.mElf = ElfFile.parse(content);
+        }
+
+        LibraryPrefix(@NonNull InputStream in, int size, @NonNull AnalysisDeadline deadline) {
+            this.mIn = in;
+            this.mSize = size;
+            this.mDeadline = deadline;
+            this.mData = new byte[Math.min(size, LIBRARY_PREFIX_INITIAL_CAPACITY)];
+            this.mLength = 0;
+        }
+
+        int getSize() {
+            return mSize;
+        }
+
+        /**
+         * Makes sure at least length bytes are available and returns the ELF file over what's available so far.
+         */
+        @Nullable
+        ElfFile parse(long length) throws IOException {
+            if (length < 0 || length > mSize)
+                throw new IllegalArgumentException("offset " + length + " is outside of the library");
+
+            if (length > mLength && mIn != null && mDeadline != null) {
+                if (length > mData.length)
+                    grow((int) Math.min(mSize, Math.max(length, 2L * mData.length)), mDeadline);
+
+                while (mLength < length) {
+                    final int read = mIn.read(mData, mLength, mData.length - mLength);
+                    if (read < 0)
+                        throw new EOFException("unexpected end of entry data");
+                    mLength += read;
+                }
+                mElf = ElfFile.parse(ByteBuffer.wrap(mData, 0, mLength).slice());
+            }
+            return mElf;
+        }
+
+        // the previous reservation is given back first, so threads growing their prefixes never wait on each other.
+        private void grow(int capacity, @NonNull AnalysisDeadline deadline) throws IOException {
+            final MemoryBudget memoryBudget = MemoryBudget.getDefault();
+            if (mBudgeted > 0) {
+                memoryBudget.release(mBudgeted);
+                mBudgeted = 0;
+            }
+            if (capacity > MemoryBudget.ARENA_MAX_SIZE) {
+                if (!memoryBudget.acquire(capacity, deadline))
+                    throw new InterruptedIOException("no memory budget left before the deadline");
+                mBudgeted = capacity;
+            }
+            mData = Arrays.copyOf(mData, capacity);
+        }
+
+        @Override
+        public void close() {
+            if (mBudgeted > 0) {
+                MemoryBudget.getDefault().release(mBudgeted);
+                mBudgeted = 0;
+            }
+            if (mIn != null) {
+                try {
+                    mIn.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    // mirrors strncmp(literal, name, n) == 0 on NUL-terminated strings, name being read in place.
+    private static boolean strncmpEquals(@NonNull byte[] literal, @NonNull ByteBuffer strings, int name, long n) {
+        for (int i = 0; i < n; ++i) {
+            final byte c1 = i < literal.length ? literal[i] : 0;
+            final byte c2 = byteAt(strings, name + i);
+            if (c1 != c2)
+                return false;
+            if (c1 == 0)
+                return true;
+        }
+        return true;
+    }
+
+    private static boolean startsWith(@NonNull ByteBuffer strings, int offset, @NonNull byte[] prefix) {
+        if (strings.limit() - offset < prefix.length)
+            return false;
+        for (int i = 0; i < prefix.length; ++i) {
+            if (strings.get(offset + i) != prefix[i])
+                return false;
+        }
+        return true;
+    }
+
+    // past the end of a truncated string table, strings read as NUL-terminated.
+    private static byte byteAt(@NonNull ByteBuffer strings, int offset) {
+        return offset < strings.limit() ? strings.get(offset) : 0;
+    }
+
+    @NonNull
+    private static String decodeString(@NonNull ByteBuffer strings, int offset) {
+        int end = offset;
+        while (end < strings.limit() && strings.get(end) != 0) {
+            ++end;
+        }
+        final byte[] bytes = new byte[end - offset];
+        final ByteBuffer string = strings.duplicate();
+        string.position(offset);
+        string.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.lib;
+
+import android.os.ParcelFileDescriptor;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Analyzer engine backed by libelf, through JNI.
+ */
+public final class JniNativeLibAnalyzerEngine implements NativeLibAnalyzerEngine {
+    private final static String TAG = "jnianalyzerengine";
+    // localHeaderOffset, compressionMethod, compressedSize, soFileSize
+    private static final int PACKED_ENTRY_FIELDS = 4;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static boolean nativeLibLoaded;
+
+    static {
+        try {
+            System.loadLibrary("elf");
+            System.loadLibrary("nativelibanalyzer");
+            nativeLibLoaded = true;
+        } catch (UnsatisfiedLinkError e) {
+            Log.e(TAG, e.getMessage());
+            nativeLibLoaded = false;
+        }
+    }
+
+    public static boolean isAvailable() {
+        return nativeLibLoaded;
+    }
+
+    @NonNull
+    private native static NativeLibrary analyzeNativeLibFile(String nativeLibAbsoluteLocation, long deadlineNanos) throws RuntimeException;
+
+    @NonNull
+    private native static NativeLibrary analyzeNativeLib(String nativeLibPath, byte[] soFileContent, long soFileSize, long deadlineNanos) throws RuntimeException;
+
+    @NonNull
+    private static native NativeLibrary analyzeNativeLib(String nativeLibPath, int apkFd, long localHeaderOffset, int compressionMethod, long compressedSize, long soFileSize, long deadlineNanos) throws RuntimeException;
+
+    /**
+     * Analyzes several entries of an APK in a single call. Entries are described by PACKED_ENTRY_FIELDS longs each.
+     * Each entry gets libraryTimeoutNanos within appDeadlineNanos, and deadline is polled for cancellation between them.
+     * DEFLATED entries are only inflated once memoryBudget has room for them.
+     * The results are packed in a direct buffer allocated by the native side, which must be released afterwards.
+     */
+    @NonNull
+    private static native ByteBuffer analyzeNativeLibs(int apkFd, String[] nativeLibPaths, long[] entries,
+                                                       AnalysisDeadline deadline, long appDeadlineNanos, long libraryTimeoutNanos,
+                                                       MemoryBudget memoryBudget) throws RuntimeException;
+
+    private static native void releaseResults(ByteBuffer results);
+
+    @NonNull
+    private native static String getHoudiniVersion();
+
+    @NonNull
+    @Override
+    public NativeLibrary analyzeNativeLib(@NonNull String nativeLibAbsoluteLocation, @NonNull AnalysisDeadline deadline) {
+        return analyzeNativeLibFile(nativeLibAbsoluteLocation, deadline.forLibrary().getDeadlineNanos());
+    }
+
+    @NonNull
+    @Override
+    public NativeLibrary analyzeNativeLib(@NonNull ApkFile apk, @NonNull ZipCentralDirectory.Entry entry,
+                                          @NonNull AnalysisDeadline deadline) throws IOException {
+        if (entry.size < Integer.MAX_VALUE
+                && (entry.method == ZipCentralDirectory.METHOD_STORED || entry.method == ZipCentralDirectory.METHOD_DEFLATED)) {
+            // the entry is read (and inflated if needed) straight from the APK file descriptor by the native side.
+            final AnalysisDeadline libraryDeadline = deadline.forLibrary();
+            try (ParcelFileDescriptor apkFd = ParcelFileDescriptor.dup(apk.getFD())) {
+                if (entry.method == ZipCentralDirectory.METHOD_STORED)
+                    return analyzeNativeLib(entry.name, apkFd.getFd(), entry.localHeaderOffset, entry.method, entry.compressedSize,
+                            entry.size, libraryDeadline.getDeadlineNanos());
+
+                // libs larger than the native inflate arena get a buffer of their own.
+                final MemoryBudget memoryBudget = MemoryBudget.getNative();
+                final boolean budgeted = entry.size > MemoryBudget.ARENA_MAX_SIZE;
+                if (budgeted && !memoryBudget.acquire(entry.size, libraryDeadline))
+                    return NativeLibrary.newTimedOut(entry.name, entry.size);
+                try {
+                    return analyzeNativeLib(entry.name, apkFd.getFd(), entry.localHeaderOffset, entry.method, entry.compressedSize,
+                            entry.size, libraryDeadline.getDeadlineNanos());
+                } finally {
+                    if (budgeted)
+                        memoryBudget.release(entry.size);
+                }
+            }
+        } else
+            return new NativeLibrary(entry.name, entry.size);
+    }
+
+    @NonNull
+    @Override
+    public List<NativeLibrary> analyzeNativeLibs(@NonNull ApkFile apk, @NonNull List<ZipCentralDirectory.Entry> entries,
+                                                @NonNull AnalysisDeadline deadline) throws IOException {
+        final NativeLibrary[] nativeLibraries = new NativeLibrary[entries.size()];
+        final List<String> paths = new ArrayList<>(entries.size());
+        final long[] packedEntries = new long[entries.size() * PACKED_ENTRY_FIELDS];
+        final int[] indexes = new int[entries.size()];
+
+        for (int i = 0; i < entries.size(); ++i) {
+            final ZipCentralDirectory.Entry entry = entries.get(i);
+            if (entry.size < Integer.MAX_VALUE
+                    && (entry.method == ZipCentralDirectory.METHOD_STORED || entry.method == ZipCentralDirectory.METHOD_DEFLATED)) {
+                final int packed = paths.size() * PACKED_ENTRY_FIELDS;
+                packedEntries[packed] = entry.localHeaderOffset;
+                packedEntries[packed + 1] = entry.method;
+                packedEntries[packed + 2] = entry.compressedSize;
+                packedEntries[packed + 3] = entry.size;
+                indexes[paths.size()] = i;
+                paths.add(entry.name);
+            } else
+                nativeLibraries[i] = new NativeLibrary(entry.name, entry.size);
+        }
+
+        if (!paths.isEmpty()) {
+            // the descriptor is only read through pread(), a duplicate shares the file but not its lifetime.
+            try (ParcelFileDescriptor apkFd = ParcelFileDescriptor.dup(apk.getFD())) {
+                final ByteBuffer results = analyzeNativeLibs(apkFd.getFd(), paths.toArray(new String[paths.size()]), packedEntries,
+                        deadline, deadline.getDeadlineNanos(), deadline.getLibraryTimeoutNanos(), MemoryBudget.getNative());
+                try {
+                    decodeResults(results.order(ByteOrder.nativeOrder()), nativeLibraries, indexes, paths.size());
+                } finally {
+                    releaseResults(results);
+                }
+            }
+        }
+        return Arrays.asList(nativeLibraries);
+    }
+
+    // libelf gets to the dynamic symbols through the section headers, so the whole library is read anyway.
+    @AnalysisMode.type
+    @Override
+    public int getAnalysisMode() {
+        return AnalysisMode.sections;
+    }
+
+    @NonNull
+    @Override
+    public String getNativeBridgeVersion() {
+        return getHoudiniVersion();
+    }
+
+    /**
+     * Decodes the results of {@link #analyzeNativeLibs(int, String[], long[], AnalysisDeadline, long, long, MemoryBudget)}:
+     * a table of deduplicated strings, each one an int length followed by its UTF-8 bytes, then for each library its
+     * size (long), its ABI (int), whether it timed out (int), and its entry points, frameworks and dependencies as an int count followed by string indexes.
+     * Strings are only decoded and interned the first time they are referenced.
+     */
+    private static void decodeResults(@NonNull ByteBuffer results, @NonNull NativeLibrary[] nativeLibraries,
+                                      @NonNull int[] indexes, int count) {
+        final int stringCount = results.getInt();
+        final int[] stringOffsets = new int[stringCount];
+        for (int i = 0; i < stringCount; ++i) {
+            stringOffsets[i] = results.position();
+            results.position(results.position() + 4 + results.getInt(results.position()));
+        }
+
+        // string index -> StringPool id
+        final int[] ids = new int[stringCount];
+        Arrays.fill(ids, -1);
+        for (int i = 0; i < count; ++i) {
+            final long size = results.getLong();
+            final int abi = results.getInt();
+            final boolean timedOut = results.getInt() != 0;
+            final int[] entryPoints = decodeStrings(results, stringOffsets, ids);
+            final int[] frameworks = decodeStrings(results, stringOffsets, ids);
+            final int[] dependencies = decodeStrings(results, stringOffsets, ids);
+            nativeLibraries[indexes[i]] = new NativeLibrary(size, abi, entryPoints, frameworks, dependencies);
+            nativeLibraries[indexes[i]].timedOut = timedOut;
+        }
+    }
+
+    @NonNull
+    private static int[] decodeStrings(@NonNull ByteBuffer results, @NonNull int[] stringOffsets, @NonNull int[] ids) {
+        final int[] decoded = new int[results.getInt()];
+        for (int i = 0; i < decoded.length; ++i) {
+            final int index = results.getInt();
+            if (ids[index] < 0) {
+                final ByteBuffer string = results.duplicate();
+                string.position(stringOffsets[index] + 4);
+                final byte[] bytes = new byte[results.getInt(stringOffsets[index])];
+                string.get(bytes);
+                ids[index] = StringPool.intern(new String(bytes, UTF_8));
+            }
+            decoded[i] = ids[index];
+        }
+        return decoded;
+    }
+}
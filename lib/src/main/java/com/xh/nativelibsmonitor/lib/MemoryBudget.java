@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.lib;
+
+import android.support.annotation.NonNull;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Bytes available to the buffers libraries get inflated into, shared by all the analysis threads so their peak
+ * memory use stays bounded whatever the number of threads and the size of the libraries.
+ * Libraries up to {@link #ARENA_MAX_SIZE} are inflated into a buffer each thread keeps and reuses, which bounds those
+ * to ARENA_MAX_SIZE per thread: only larger ones are reserved from a budget.
+ */
+public final class MemoryBudget {
+    public static final int ARENA_MAX_SIZE = 1024 * 1024;
+
+    // while waiting, the deadline is checked this often so cancelled scans stop waiting quickly.
+    private static final long WAIT_STEP_MS = 100;
+    // the native budget, a share of the physical memory within these bounds.
+    private static final long NATIVE_MIN_CAPACITY = 32 * 1024 * 1024;
+    private static final long NATIVE_MAX_CAPACITY = 512 * 1024 * 1024;
+    private static final String MEMINFO_PATH = "/proc/meminfo";
+    private static final String MEMINFO_TOTAL = "MemTotal:";
+
+    private static final MemoryBudget sDefault = new MemoryBudget(Runtime.getRuntime().maxMemory() / 4);
+    private static MemoryBudget sNative;
+
+    private final long mCapacity;
+    private long mAvailable;
+
+    public MemoryBudget(long capacity) {
+        this.mCapacity = capacity;
+        this.mAvailable = capacity;
+    }
+
+    /**
+     * The budget of the Java heap buffers of the Java engine, a quarter of the maximum heap size.
+     */
+    @NonNull
+    public static MemoryBudget getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * The budget of the native buffers of the JNI engine, which the heap size says nothing about: a sixteenth of the
+     * physical memory, between 32MB and 512MB.
+     */
+    @NonNull
+    public static synchronized MemoryBudget getNative() {
+        if (sNative == null) {
+            final long physicalMemory = getPhysicalMemory();
+            final long capacity = physicalMemory > 0 ? physicalMemory / 16 : NATIVE_MIN_CAPACITY;
+            sNative = new MemoryBudget(Math.max(NATIVE_MIN_CAPACITY, Math.min(capacity, NATIVE_MAX_CAPACITY)));
+        }
+        return sNative;
+    }
+
+    /**
+     * Reserves bytes for a buffer, waiting for other analyses to release theirs if needed. A request larger than the
+     * whole budget waits for it to be entirely available, so such libraries are inflated one at a time.
+     *
+     * @return false if the deadline expired first, nothing being reserved then.
+     */
+    public boolean acquire(long bytes, @NonNull AnalysisDeadline deadline) {
+        return acquire(bytes, deadline, AnalysisDeadline.NO_DEADLINE);
+    }
+
+    /**
+     * Same as {@link #acquire(long, AnalysisDeadline)}, also giving up once System.nanoTime() reaches deadlineNanos:
+     * the native analyzer tracks the deadlines of its libraries itself, deadline being the one of their app.
+     */
+    boolean acquire(long bytes, @NonNull AnalysisDeadline deadline, long deadlineNanos) {
+        final long reserved = Math.min(bytes, mCapacity);
+        synchronized (this) {
+            while (mAvailable < reserved) {
+                if (deadline.isExpired() || (deadlineNanos != AnalysisDeadline.NO_DEADLINE && System.nanoTime() - deadlineNanos >= 0))
+                    return false;
+                try {
+                    wait(WAIT_STEP_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            mAvailable -= reserved;
+            return true;
+        }
+    }
+
+    /**
+     * Gives back bytes reserved by {@link #acquire(long, AnalysisDeadline)}.
+     */
+    public synchronized void release(long bytes) {
+        mAvailable += Math.min(bytes, mCapacity);
+        notifyAll();
+    }
+
+    public synchronized long getAvailable() {
+        return mAvailable;
+    }
+
+    // in bytes, or -1 if unknown.
+    private static long getPhysicalMemory() {
+        try (BufferedReader reader = new BufferedReader(new FileReader(MEMINFO_PATH))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(MEMINFO_TOTAL)) // MemTotal:        3867408 kB
+                    return Long.parseLong(line.substring(MEMINFO_TOTAL.length()).replace("kB", "").trim()) * 1024;
+            }
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.lib;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Analyzes native libraries, either installed on disk or packaged inside an APK.
+ * Implementations must be thread-safe, as apps are analyzed concurrently.
+ * <p>
+ * Each library is analyzed within its own budget derived from the given deadline. Once it expires, the analysis stops
+ * and returns what it has found so far, flagged as {@link NativeLibrary#timedOut}.
+ */
+public interface NativeLibAnalyzerEngine {
+
+    /**
+     * Analyzes an installed library. Failures are reported by returning a library with only its size filled.
+     */
+    @NonNull
+    NativeLibrary analyzeNativeLib(@NonNull String nativeLibAbsoluteLocation, @NonNull AnalysisDeadline deadline);
+
+    /**
+     * Analyzes a library packaged in an APK. Failures to parse the library are reported by returning
+     * a library with only its size filled, failures to read the APK by an IOException.
+     */
+    @NonNull
+    NativeLibrary analyzeNativeLib(@NonNull ApkFile apk, @NonNull ZipCentralDirectory.Entry entry, @NonNull AnalysisDeadline deadline) throws IOException;
+
+    /**
+     * Analyzes several libraries packaged in the same APK, with the same failure reporting as
+     * {@link #analyzeNativeLib(ApkFile, ZipCentralDirectory.Entry, AnalysisDeadline)}. Libraries left once the
+     * deadline has expired are returned with only their size filled, flagged as timed out.
+     *
+     * @return the libraries, in the order of entries.
+     */
+    @NonNull
+    List<NativeLibrary> analyzeNativeLibs(@NonNull ApkFile apk, @NonNull List<ZipCentralDirectory.Entry> entries,
+                                         @NonNull AnalysisDeadline deadline) throws IOException;
+
+    /**
+     * Returns what this engine reads of the libraries, which their cached results are kept apart by.
+     */
+    @AnalysisMode.type
+    int getAnalysisMode();
+
+    @NonNull
+    String getNativeBridgeVersion();
+}
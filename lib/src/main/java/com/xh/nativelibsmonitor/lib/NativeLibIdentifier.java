@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.lib;
+
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Quick identification of native libraries: only the ELF header is read, which is enough to get their ABI.
+ * Libraries that can be mapped, installed or STORED in the APK, also get their frameworks from hash table probes,
+ * and ARM ones their exact ABI from their build attributes.
+ * Entry points and dependencies are left empty until a {@link NativeLibAnalyzerEngine} deep analysis.
+ */
+final class NativeLibIdentifier {
+    // an ELF64 header is 64 bytes, an ELF32 one 52 bytes.
+    private static final int ELF_HEADER_MAX_SIZE = 64;
+
+    private NativeLibIdentifier() {
+        throw new AssertionError();
+    }
+
+    @NonNull
+    static NativeLibrary identifyNativeLib(@NonNull String nativeLibAbsoluteLocation) {
+        try (RandomAccessFile file = new RandomAccessFile(nativeLibAbsoluteLocation, "r")) {
+            final FileChannel channel = file.getChannel();
+            final long size = channel.size();
+            if (size < Integer.MAX_VALUE)
+                return identifyMappedNativeLib(nativeLibAbsoluteLocation, channel.map(FileChannel.MapMode.READ_ONLY, 0, size), size);
+
+            final byte[] header = new byte[ELF_HEADER_MAX_SIZE];
+            file.readFully(header);
+            return new NativeLibrary(nativeLibAbsoluteLocation, size, getAbi(header, header.length));
+        } catch (IOException e) {
+            return new NativeLibrary(nativeLibAbsoluteLocation, new File(nativeLibAbsoluteLocation).length());
+        }
+    }
+
+    @NonNull
+    static NativeLibrary identifyNativeLib(@NonNull ApkFile apk, @NonNull ZipCentralDirectory.Entry entry) throws IOException {
+        if (entry.method != ZipCentralDirectory.METHOD_STORED && entry.method != ZipCentralDirectory.METHOD_DEFLATED)
+            return new NativeLibrary(entry.name, entry.size);
+        if (entry.method == ZipCentralDirectory.METHOD_STORED && entry.size < Integer.MAX_VALUE)
+            return identifyMappedNativeLib(entry.name,
+                    apk.map(apk.getDataOffset(entry), entry.size), entry.size);
+
+        // for DEFLATED entries, only the first compressed block gets inflated.
+        final byte[] header = new byte[ELF_HEADER_MAX_SIZE];
+        int length = 0;
+        try (InputStream in = apk.getInputStream(entry)) {
+            int read;
+            while (length < header.length && (read = in.read(header, length, header.length - length)) > 0) {
+                length += read;
+            }
+        } catch (IOException e) { // corrupted entry data, the library itself can't be identified.
+            return new NativeLibrary(entry.name, entry.size);
+        }
+
+        return new NativeLibrary(entry.name, entry.size, getAbi(header, length));
+    }
+
+    /**
+     * Identifies a library fully available in memory. Its frameworks are found by looking up each signature symbol
+     * in its hash table, which is much cheaper than the symbol walk of a deep analysis on large libraries.
+     */
+    @NonNull
+    private static NativeLibrary identifyMappedNativeLib(@NonNull String libPath, @NonNull ByteBuffer content, long size) {
+        final String libName = libPath.substring(libPath.lastIndexOf('/') + 1);
+        final FrameworkSignatures signatures = FrameworkSignatures.getDefault();
+        final Set<String> frameworks = new TreeSet<>();
+        int abi = ABI.unknown;
+
+        final String knownFramework = signatures.getFrameworkFromLibraryName(libName);
+        if (knownFramework.length() > 0)
+            frameworks.add(knownFramework);
+
+        try {
+            final ElfFile elf = ElfFile.parse(content);
+            if (elf != null) {
+                abi = ArmAttributes.getAbi(elf);
+                if (knownFramework.length() == 0) {
+                    final ElfHashTable hashTable = ElfHashTable.find(elf);
+                    if (hashTable != null)
+                        signatures.addFrameworksFromHashTable(hashTable, frameworks);
+                }
+            }
+        } catch (RuntimeException ignore) { // malformed ELF file, keep what we have found so far.
+        }
+
+        final NativeLibrary nativeLibrary = new NativeLibrary(libPath, size, abi);
+        nativeLibrary.setFrameworks(frameworks);
+        return nativeLibrary;
+    }
+
+    @ABI.type
+    private static int getAbi(@NonNull byte[] header, int length) {
+        final ElfFile elf = ElfFile.parse(ByteBuffer.wrap(header, 0, length).slice());
+        return elf != null ? elf.getAbi() : ABI.unknown;
+    }
+}
@@ -22,21 +22,30 @@ package com.xh.nativelibsmonitor.lib;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 
 public class NativeLibrary {
 
     public int abi = ABI.unknown;
 
-    public List<String> entryPoints = new ArrayList<>();
-    public List<String> frameworks = new ArrayList<>();
-    public List<String> dependencies = new ArrayList<>();
     @NonNull
     public String path = "";
     public long size = -1;
     public int type = TYPE.UNDEFINED;
+    // the analysis ran out of time, entry points, frameworks and dependencies may be incomplete.
+    public boolean timedOut = false;
+    // left unanalyzed as the device doesn't support its ABI directory, only its ABI and size are known. Not persisted.
+    public boolean abiPruned = false;
+
+    // names are interned in the StringPool, and only resolved when displayed or exported.
+    @NonNull
+    private int[] mEntryPoints = StringPool.NO_IDS;
+    @NonNull
+    private int[] mFrameworks = StringPool.NO_IDS;
+    @NonNull
+    private int[] mDependencies = StringPool.NO_IDS;
 
     public NativeLibrary() {
     }
@@ -46,13 +55,29 @@ public class NativeLibrary {
         this.size = size;
     }
 
-    public NativeLibrary(@NonNull String name, long size, int abi, int type, List<String> entryPoints, List<String> frameworks, List<String> dependencies) {
+    /**
+     * Creates a library left unanalyzed because its deadline had expired.
+     */
+    @NonNull
+    public static NativeLibrary newTimedOut(@NonNull String name, long size) {
+        final NativeLibrary nativeLibrary = new NativeLibrary(name, size);
+        nativeLibrary.timedOut = true;
+        return nativeLibrary;
+    }
+
+    public NativeLibrary(@NonNull String name, long size, int abi) {
         this.path = name;
         this.size = size;
         this.abi = abi;
-        this.entryPoints = entryPoints;
-        this.frameworks = frameworks;
-        this.dependencies = dependencies;
+    }
+
+    public NativeLibrary(@NonNull String name, long size, int abi, int type, Collection<String> entryPoints, Collection<String> frameworks, Collection<String> dependencies) {
+        this.path = name;
+        this.size = size;
+        this.abi = abi;
+        setEntryPoints(entryPoints);
+        setFrameworks(frameworks);
+        setDependencies(dependencies);
         this.type = type;
     }
 
@@ -60,11 +85,56 @@ public class NativeLibrary {
         this.size = size;
         this.abi = abi;
         if (entryPoints != null)
-            this.entryPoints = Arrays.asList(entryPoints);
+            setEntryPoints(Arrays.asList(entryPoints));
         if (frameworks != null)
-            this.frameworks = Arrays.asList(frameworks);
+            setFrameworks(Arrays.asList(frameworks));
         if (dependencies != null)
-            this.dependencies = Arrays.asList(dependencies);
+            setDependencies(Arrays.asList(dependencies));
+    }
+
+    // names already interned in the StringPool.
+    NativeLibrary(long size, int abi, @NonNull int[] entryPoints, @NonNull int[] frameworks, @NonNull int[] dependencies) {
+        this.size = size;
+        this.abi = abi;
+        this.mEntryPoints = entryPoints;
+        this.mFrameworks = frameworks;
+        this.mDependencies = dependencies;
+    }
+
+    @NonNull
+    public List<String> getEntryPoints() {
+        return StringPool.asList(mEntryPoints);
+    }
+
+    public void setEntryPoints(@Nullable Collection<String> entryPoints) {
+        mEntryPoints = entryPoints != null ? StringPool.intern(entryPoints) : StringPool.NO_IDS;
+    }
+
+    @NonNull
+    public List<String> getFrameworks() {
+        return StringPool.asList(mFrameworks);
+    }
+
+    public void setFrameworks(@Nullable Collection<String> frameworks) {
+        mFrameworks = frameworks != null ? StringPool.intern(frameworks) : StringPool.NO_IDS;
+    }
+
+    @NonNull
+    public List<String> getDependencies() {
+        return StringPool.asList(mDependencies);
+    }
+
+    public void setDependencies(@Nullable Collection<String> dependencies) {
+        mDependencies = dependencies != null ? StringPool.intern(dependencies) : StringPool.NO_IDS;
+    }
+
+    /**
+     * Copies the entry points, frameworks and dependencies of another library, without resolving nor interning them again.
+     */
+    public void copyNamesFrom(@NonNull NativeLibrary other) {
+        mEntryPoints = other.mEntryPoints;
+        mFrameworks = other.mFrameworks;
+        mDependencies = other.mDependencies;
     }
 
     public static final class TYPE {
@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.lib;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Stores analysis results by content, so the same library packaged in several apps, or found again on a rescan,
+ * is only analyzed once. The CRC32 and size come from the zip central directory. The file name of the library is
+ * part of the key too, since known shared libs are recognized by name and analyzed accordingly, and so is the
+ * {@link AnalysisMode} of the engine, since both modes don't find the same extras.
+ */
+public interface NativeLibraryCache {
+
+    /**
+     * @return a new NativeLibrary the caller is free to modify, or null on a cache miss.
+     */
+    @Nullable
+    NativeLibrary get(long crc, long size, @NonNull String abiDirectory, @NonNull String libName,
+                      @AnalysisMode.type int analysisMode);
+
+    void put(long crc, long size, @NonNull String abiDirectory, @NonNull String libName, @AnalysisMode.type int analysisMode,
+             @NonNull NativeLibrary nativeLibrary);
+}
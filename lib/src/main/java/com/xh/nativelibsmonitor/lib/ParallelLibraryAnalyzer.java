@@ -0,0 +1,293 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.lib;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Analyzes the APKs of an app, and the libraries of each APK, as subtasks of a work-stealing pool, so a large app gets
+ * spread over the cores left idle by the threads scanning the other apps. Subtasks analyzing libraries share the
+ * ApkFile of their APK, and write their results at the index of their entries, which keeps the order deterministic.
+ * ForkJoinPool is only available from Lollipop, earlier releases analyze them serially on the calling thread.
+ */
+final class ParallelLibraryAnalyzer {
+    // below this total uncompressed size, entries are analyzed in a single engine call rather than split further.
+    private static final long MIN_SPLIT_SIZE = 1024 * 1024;
+
+    /**
+     * A task run for each index of a range, concurrently: it must only touch the results of its own index.
+     */
+    interface IndexedTask {
+        void run(int index);
+    }
+
+    private ParallelLibraryAnalyzer() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Runs a task for each index from 0 to count, and returns once all of them have run.
+     */
+    static void forEach(int count, @NonNull IndexedTask task) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP || count < 2) {
+            for (int i = 0; i < count; ++i) {
+                task.run(i);
+            }
+        } else
+            ForkJoinAnalysis.forEach(count, task);
+    }
+
+    /**
+     * Wraps an engine so that the libraries of an APK analyzed together get split over the pool.
+     */
+    @NonNull
+    static NativeLibAnalyzerEngine parallel(@NonNull final NativeLibAnalyzerEngine engine) {
+        return new NativeLibAnalyzerEngine() {
+            @NonNull
+            @Override
+            public NativeLibrary analyzeNativeLib(@NonNull String nativeLibAbsoluteLocation, @NonNull AnalysisDeadline deadline) {
+                return engine.analyzeNativeLib(nativeLibAbsoluteLocation, deadline);
+            }
+
+            @NonNull
+            @Override
+            public NativeLibrary analyzeNativeLib(@NonNull ApkFile apk, @NonNull ZipCentralDirectory.Entry entry,
+                                                  @NonNull AnalysisDeadline deadline) throws IOException {
+                return engine.analyzeNativeLib(apk, entry, deadline);
+            }
+
+            @NonNull
+            @Override
+            public List<NativeLibrary> analyzeNativeLibs(@NonNull ApkFile apk, @NonNull List<ZipCentralDirectory.Entry> entries,
+                                                        @NonNull AnalysisDeadline deadline) throws IOException {
+                return ParallelLibraryAnalyzer.analyzeNativeLibs(engine, apk, entries, deadline);
+            }
+
+            @AnalysisMode.type
+            @Override
+            public int getAnalysisMode() {
+                return engine.getAnalysisMode();
+            }
+
+            @NonNull
+            @Override
+            public String getNativeBridgeVersion() {
+                return engine.getNativeBridgeVersion();
+            }
+        };
+    }
+
+    /**
+     * Same contract as {@link NativeLibAnalyzerEngine#analyzeNativeLibs(ApkFile, List, AnalysisDeadline)}.
+     */
+    @NonNull
+    static List<NativeLibrary> analyzeNativeLibs(@NonNull NativeLibAnalyzerEngine engine, @NonNull ApkFile apk,
+                                                 @NonNull List<ZipCentralDirectory.Entry> entries,
+                                                 @NonNull AnalysisDeadline deadline) throws IOException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP || entries.size() < 2
+                || getTotalSize(entries, 0, entries.size()) < MIN_SPLIT_SIZE)
+            return engine.analyzeNativeLibs(apk, entries, deadline);
+        return ForkJoinAnalysis.analyzeNativeLibs(engine, apk, entries, deadline);
+    }
+
+    private static long getTotalSize(@NonNull List<ZipCentralDirectory.Entry> entries, int from, int to) {
+        long size = 0;
+        for (int i = from; i < to; ++i) {
+            size += entries.get(i).size;
+        }
+        return size;
+    }
+
+    // only loaded from Lollipop, the pool is created on first use.
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static final class ForkJoinAnalysis {
+        private static final int CORES = Runtime.getRuntime().availableProcessors();
+        private static final ForkJoinPool POOL = new ForkJoinPool(CORES);
+        // threads analyzing: callers waiting for their task, each having one pool thread running it, plus the subtasks
+        // forked for them. Those are only forked while below CORES, so the apps a scheduler analyzes on as many threads
+        // as cores keep to a thread each, and only the last ones spread over the cores left idle.
+        private static final AtomicInteger sBusyThreads = new AtomicInteger();
+
+        @NonNull
+        static List<NativeLibrary> analyzeNativeLibs(@NonNull NativeLibAnalyzerEngine engine, @NonNull ApkFile apk,
+                                                     @NonNull List<ZipCentralDirectory.Entry> entries,
+                                                     @NonNull AnalysisDeadline deadline) throws IOException {
+            final NativeLibrary[] nativeLibraries = new NativeLibrary[entries.size()];
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+            invoke(new AnalysisTask(engine, apk, entries, 0, entries.size(), deadline, nativeLibraries, failure));
+
+            // subtasks never complete abnormally, so none can still be reading the APK once its caller closes it.
+            final Throwable throwable = failure.get();
+            if (throwable instanceof IOException)
+                throw (IOException) throwable;
+            rethrowUnchecked(throwable);
+            return Arrays.asList(nativeLibraries);
+        }
+
+        static void forEach(int count, @NonNull IndexedTask task) {
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+            invoke(new ForEachTask(task, 0, count, failure));
+            rethrowUnchecked(failure.get());
+        }
+
+        // the libraries of an APK are analyzed from the task of that APK, already running in the pool.
+        private static void invoke(@NonNull ForkJoinTask<?> task) {
+            if (ForkJoinTask.getPool() == POOL) {
+                task.invoke();
+                return;
+            }
+
+            sBusyThreads.incrementAndGet();
+            try {
+                POOL.invoke(task);
+            } finally {
+                sBusyThreads.decrementAndGet();
+            }
+        }
+
+        // reserves a thread for a subtask about to be forked, unless all the cores are busy.
+        static boolean reserveThread() {
+            for (;;) {
+                final int busyThreads = sBusyThreads.get();
+                if (busyThreads >= CORES)
+                    return false;
+                if (sBusyThreads.compareAndSet(busyThreads, busyThreads + 1))
+                    return true;
+            }
+        }
+
+        static void releaseThread() {
+            sBusyThreads.decrementAndGet();
+        }
+
+        private static void rethrowUnchecked(Throwable throwable) {
+            if (throwable instanceof RuntimeException)
+                throw (RuntimeException) throwable;
+            if (throwable instanceof Error)
+                throw (Error) throwable;
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static final class ForEachTask extends RecursiveAction {
+        @NonNull
+        private final IndexedTask mTask;
+        private final int mFrom;
+        private final int mTo;
+        @NonNull
+        private final AtomicReference<Throwable> mFailure;
+
+        ForEachTask(@NonNull IndexedTask task, int from, int to, @NonNull AtomicReference<Throwable> failure) {
+            this.mTask = task;
+            this.mFrom = from;
+            this.mTo = to;
+            this.mFailure = failure;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom > 1 && ForkJoinAnalysis.reserveThread()) {
+                final int middle = (mFrom + mTo) >>> 1;
+                try {
+                    invokeAll(new ForEachTask(mTask, mFrom, middle, mFailure), new ForEachTask(mTask, middle, mTo, mFailure));
+                } finally {
+                    ForkJoinAnalysis.releaseThread();
+                }
+                return;
+            }
+
+            for (int i = mFrom; i < mTo; ++i) {
+                try {
+                    mTask.run(i);
+                } catch (Throwable t) {
+                    mFailure.compareAndSet(null, t);
+                }
+            }
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static final class AnalysisTask extends RecursiveAction {
+        @NonNull
+        private final NativeLibAnalyzerEngine mEngine;
+        @NonNull
+        private final ApkFile mApk;
+        @NonNull
+        private final List<ZipCentralDirectory.Entry> mEntries;
+        private final int mFrom;
+        private final int mTo;
+        @NonNull
+        private final AnalysisDeadline mDeadline;
+        @NonNull
+        private final NativeLibrary[] mResults;
+        @NonNull
+        private final AtomicReference<Throwable> mFailure;
+
+        AnalysisTask(@NonNull NativeLibAnalyzerEngine engine, @NonNull ApkFile apk, @NonNull List<ZipCentralDirectory.Entry> entries,
+                     int from, int to, @NonNull AnalysisDeadline deadline, @NonNull NativeLibrary[] results,
+                     @NonNull AtomicReference<Throwable> failure) {
+            this.mEngine = engine;
+            this.mApk = apk;
+            this.mEntries = entries;
+            this.mFrom = from;
+            this.mTo = to;
+            this.mDeadline = deadline;
+            this.mResults = results;
+            this.mFailure = failure;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom > 1 && getTotalSize(mEntries, mFrom, mTo) >= MIN_SPLIT_SIZE && !mDeadline.isExpired()
+                    && ForkJoinAnalysis.reserveThread()) {
+                final int middle = (mFrom + mTo) >>> 1;
+                try {
+                    invokeAll(new AnalysisTask(mEngine, mApk, mEntries, mFrom, middle, mDeadline, mResults, mFailure),
+                            new AnalysisTask(mEngine, mApk, mEntries, middle, mTo, mDeadline, mResults, mFailure));
+                } finally {
+                    ForkJoinAnalysis.releaseThread();
+                }
+                return;
+            }
+
+            // engines read the APK with ApkFile.read() and map(), which the interrupted threads of a cancelled scan
+            // can't close for the other subtasks.
+            try {
+                final List<NativeLibrary> nativeLibraries = mEngine.analyzeNativeLibs(mApk, mEntries.subList(mFrom, mTo), mDeadline);
+                for (int i = mFrom; i < mTo; ++i) {
+                    mResults[i] = nativeLibraries.get(i - mFrom);
+                }
+            } catch (Throwable t) {
+                mFailure.compareAndSet(null, t);
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.lib;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Gives read access to APKs that can't be opened otherwise, like the ones of some system apps.
+ * A single root session is kept until {@link #close()}, and permissions are granted and reverted for many files
+ * in a single command, instead of opening a root shell and running two commands per APK.
+ */
+public final class RootAccessBroker implements Closeable {
+    private static final String TAG = "rootaccessbroker";
+
+    @NonNull
+    private final RootSession.Factory mSessionFactory;
+    private RootSession mSession;
+    private boolean mRootUnavailable = false;
+    // files made readable, and how many of them are in each remounted directory.
+    private final Set<String> mGrantedPaths = new LinkedHashSet<>();
+    private final Map<String, Integer> mRemountedDirectories = new HashMap<>();
+
+    public RootAccessBroker(@NonNull RootSession.Factory sessionFactory) {
+        this.mSessionFactory = sessionFactory;
+    }
+
+    /**
+     * Makes files readable, remounting their directories read-write, in a single root command.
+     *
+     * @return the paths this call granted access to, to be passed to {@link #revokeReadAccess(Collection)}.
+     * Paths already granted are left out, and nothing is returned if root isn't available. If the command failed, it
+     * may have stopped after changing some of the paths: all of them are returned, and recorded, so they get reverted.
+     */
+    @NonNull
+    public synchronized Collection<String> grantReadAccess(@NonNull Collection<String> paths) {
+        final List<String> newPaths = new ArrayList<>();
+        for (final String path : paths) {
+            if (!mGrantedPaths.contains(path) && !newPaths.contains(path))
+                newPaths.add(path);
+        }
+        if (newPaths.isEmpty() || !openSession())
+            return Collections.emptyList();
+
+        final List<String> commands = new ArrayList<>();
+        final Set<String> newDirectories = new LinkedHashSet<>();
+        for (final String path : newPaths) {
+            final String directory = getDirectory(path);
+            if (!mRemountedDirectories.containsKey(directory) && newDirectories.add(directory))
+                commands.add("mount -o remount,rw " + directory);
+        }
+        for (final String path : newPaths) {
+            commands.add("chmod 644 " + path);
+        }
+
+        try {
+            mSession.run(commands);
+        } catch (IOException e) {
+            Log.d(TAG, "Couldn't get read access to all of " + newPaths + ": " + e.getMessage());
+        }
+
+        for (final String path : newPaths) {
+            mGrantedPaths.add(path);
+            final String directory = getDirectory(path);
+            final Integer count = mRemountedDirectories.get(directory);
+            mRemountedDirectories.put(directory, count == null ? 1 : count + 1);
+        }
+        return newPaths;
+    }
+
+    /**
+     * Reverts permissions granted by {@link #grantReadAccess(Collection)} in a single root command, remounting
+     * directories read-only once none of their files is granted anymore.
+     */
+    public synchronized void revokeReadAccess(@NonNull Collection<String> paths) {
+        final List<String> commands = new ArrayList<>();
+        final List<String> remounts = new ArrayList<>();
+        for (final String path : paths) {
+            if (!mGrantedPaths.remove(path))
+                continue;
+
+            commands.add("chmod 640 " + path);
+            final String directory = getDirectory(path);
+            final int count = mRemountedDirectories.get(directory) - 1;
+            if (count == 0) {
+                mRemountedDirectories.remove(directory);
+                remounts.add("mount -o remount,ro " + directory);
+            } else
+                mRemountedDirectories.put(directory, count);
+        }
+        commands.addAll(remounts);
+        if (commands.isEmpty() || mSession == null)
+            return;
+
+        try {
+            mSession.run(commands);
+        } catch (IOException e) {
+            Log.d(TAG, "Couldn't revert read access: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reverts all the permissions still granted and closes the root session. The broker can be used again afterwards.
+     */
+    @Override
+    public synchronized void close() {
+        revokeReadAccess(new ArrayList<>(mGrantedPaths));
+        if (mSession != null) {
+            try {
+                mSession.close();
+            } catch (IOException e) {
+                Log.d(TAG, "Couldn't close root session: " + e.getMessage());
+            }
+            mSession = null;
+        }
+        mRootUnavailable = false;
+    }
+
+    private boolean openSession() {
+        if (mSession != null)
+            return true;
+        if (mRootUnavailable)
+            return false;
+
+        try {
+            mSession = mSessionFactory.open();
+        } catch (IOException e) {
+            Log.d(TAG, "Couldn't get root access: " + e.getMessage());
+        }
+        mRootUnavailable = mSession == null;
+        return mSession != null;
+    }
+
+    @NonNull
+    private static String getDirectory(@NonNull String path) {
+        return path.substring(0, path.lastIndexOf('/'));
+    }
+}
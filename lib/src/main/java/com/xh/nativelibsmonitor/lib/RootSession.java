@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.lib;
+
+import android.support.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A shell running as root, kept open to run several commands. See {@link RootAccessBroker}.
+ */
+public interface RootSession extends Closeable {
+
+    /**
+     * Runs commands one after the other and waits for them to complete.
+     *
+     * @throws IOException if the commands couldn't be run or failed.
+     */
+    void run(@NonNull List<String> commands) throws IOException;
+
+    interface Factory {
+        /**
+         * @return a new session, or null if root isn't available on this device.
+         */
+        RootSession open() throws IOException;
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.lib;
+
+import android.support.annotation.NonNull;
+
+import com.stericson.RootShell.RootShell;
+import com.stericson.RootShell.exceptions.RootDeniedException;
+import com.stericson.RootShell.execution.Command;
+import com.stericson.RootShell.execution.Shell;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link RootSession} backed by a RootShell root shell.
+ */
+public final class RootShellSession implements RootSession {
+    public static final RootSession.Factory FACTORY = new RootSession.Factory() {
+        @Override
+        public RootSession open() throws IOException {
+            return RootShell.isRootAvailable() ? new RootShellSession() : null;
+        }
+    };
+
+    private static final long COMMAND_TIMEOUT_MS = 30 * 1000;
+
+    @NonNull
+    private final Shell mShell;
+
+    private RootShellSession() throws IOException {
+        try {
+            mShell = RootShell.getShell(true);
+        } catch (TimeoutException | RootDeniedException e) {
+            throw new IOException("couldn't open a root shell: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void run(@NonNull List<String> commands) throws IOException {
+        final Command command = new Command(0, commands.toArray(new String[commands.size()]));
+        mShell.add(command);
+
+        final long deadline = System.currentTimeMillis() + COMMAND_TIMEOUT_MS;
+        try {
+            //noinspection SynchronizationOnLocalVariableOrMethodParameter
+            synchronized (command) {
+                long remaining;
+                while (!command.isFinished() && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                    command.wait(remaining);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a root command");
+        }
+
+        if (!command.isFinished())
+            throw new IOException("root command timed out");
+        if (command.getExitCode() != 0)
+            throw new IOException("root command failed with exit code " + command.getExitCode());
+    }
+
+    @Override
+    public void close() throws IOException {
+        RootShell.closeShell(true);
+    }
+}
@@ -0,0 +1,245 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.lib;
+
+import android.support.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Aho-Corasick automaton matching exact, prefix and substring byte patterns against NUL-terminated strings
+ * in a single pass, without decoding them. It can also scan whole blocks of data for all the patterns at once. Patterns are identified by the order they were added in.
+ */
+final class SignatureMatcher {
+    static final int KIND_EXACT = 0;
+    static final int KIND_PREFIX = 1;
+    static final int KIND_SUBSTRING = 2;
+
+    private static final int[] NO_OUTPUTS = new int[0];
+
+    interface Listener {
+        void onMatch(int patternId);
+    }
+
+    interface ScanListener {
+        /**
+         * @param end position right after the matched bytes.
+         * @return false to stop scanning.
+         */
+        boolean onMatch(int patternId, int end);
+    }
+
+    private final int[] mPatternKinds;
+    private final int[] mPatternLengths;
+    private final boolean mHasSubstringPatterns;
+    // the root transitions are a direct table, the other ones linked lists of children.
+    private final int[] mRootTransitions;
+    private final byte[] mLabels;
+    private final int[] mFirstChild;
+    private final int[] mNextSibling;
+    private final int[] mFailures;
+    private final int[] mDepths;
+    private final int[][] mOutputs;
+
+    private SignatureMatcher(@NonNull Builder builder) {
+        final int patternCount = builder.mKinds.size();
+        mPatternKinds = new int[patternCount];
+        mPatternLengths = new int[patternCount];
+        boolean hasSubstringPatterns = false;
+        for (int i = 0; i < patternCount; ++i) {
+            mPatternKinds[i] = builder.mKinds.get(i);
+            mPatternLengths[i] = builder.mLengths.get(i);
+            hasSubstringPatterns |= mPatternKinds[i] == KIND_SUBSTRING;
+        }
+        mHasSubstringPatterns = hasSubstringPatterns;
+
+        final int stateCount = builder.mLabels.size();
+        mLabels = new byte[stateCount];
+        mFirstChild = new int[stateCount];
+        mNextSibling = new int[stateCount];
+        mDepths = new int[stateCount];
+        mFailures = new int[stateCount];
+        mOutputs = new int[stateCount][];
+        for (int i = 0; i < stateCount; ++i) {
+            mLabels[i] = builder.mLabels.get(i);
+            mFirstChild[i] = builder.mFirstChild.get(i);
+            mNextSibling[i] = builder.mNextSibling.get(i);
+            mDepths[i] = builder.mDepths.get(i);
+            final List<Integer> outputs = builder.mOutputs.get(i);
+            mOutputs[i] = outputs == null ? NO_OUTPUTS : toArray(outputs);
+        }
+
+        mRootTransitions = new int[256];
+        for (int child = mFirstChild[0]; child != 0; child = mNextSibling[child]) {
+            mRootTransitions[mLabels[child] & 0xff] = child;
+        }
+
+        // breadth-first, so failure states are complete before their dependents; outputs of failure states are merged in.
+        final Queue<Integer> queue = new ArrayDeque<>();
+        for (int child = mFirstChild[0]; child != 0; child = mNextSibling[child]) {
+            mFailures[child] = 0;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            final int state = queue.remove();
+            for (int child = mFirstChild[state]; child != 0; child = mNextSibling[child]) {
+                mFailures[child] = next(mFailures[state], mLabels[child]);
+                mOutputs[child] = merge(mOutputs[child], mOutputs[mFailures[child]]);
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Reports every pattern matching the NUL-terminated string starting at offset, which ends at limit at the latest.
+     */
+    void match(@NonNull ByteBuffer buffer, int offset, int limit, @NonNull Listener listener) {
+        int state = 0;
+        for (int i = offset; i < limit; ++i) {
+            final byte b = buffer.get(i);
+            if (b == 0)
+                break;
+
+            state = next(state, b);
+            final int length = i - offset + 1;
+            if (!mHasSubstringPatterns && mDepths[state] != length)
+                return; // anchored patterns can't match anymore.
+
+            for (final int patternId : mOutputs[state]) {
+                final int kind = mPatternKinds[patternId];
+                if (kind == KIND_SUBSTRING
+                        || (mPatternLengths[patternId] == length
+                        && (kind == KIND_PREFIX || i + 1 >= limit || buffer.get(i + 1) == 0))) {
+                    listener.onMatch(patternId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reports every occurrence of the patterns between offset and limit, in a single pass over a whole block of data.
+     * NULs are regular bytes here, so patterns can span several strings. Pattern kinds are ignored.
+     */
+    void scan(@NonNull ByteBuffer buffer, int offset, int limit, @NonNull ScanListener listener) {
+        int state = 0;
+        for (int i = offset; i < limit; ++i) {
+            state = next(state, buffer.get(i));
+            for (final int patternId : mOutputs[state]) {
+                if (!listener.onMatch(patternId, i + 1))
+                    return;
+            }
+        }
+    }
+
+    private int next(int state, byte b) {
+        while (true) {
+            if (state == 0)
+                return mRootTransitions[b & 0xff];
+            for (int child = mFirstChild[state]; child != 0; child = mNextSibling[child]) {
+                if (mLabels[child] == b)
+                    return child;
+            }
+            state = mFailures[state];
+        }
+    }
+
+    @NonNull
+    private static int[] merge(@NonNull int[] own, @NonNull int[] inherited) {
+        if (inherited.length == 0)
+            return own;
+        if (own.length == 0)
+            return inherited;
+        final int[] merged = Arrays.copyOf(own, own.length + inherited.length);
+        System.arraycopy(inherited, 0, merged, own.length, inherited.length);
+        return merged;
+    }
+
+    @NonNull
+    private static int[] toArray(@NonNull List<Integer> list) {
+        final int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; ++i) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    static final class Builder {
+        private final List<Integer> mKinds = new ArrayList<>();
+        private final List<Integer> mLengths = new ArrayList<>();
+        private final List<Byte> mLabels = new ArrayList<>();
+        private final List<Integer> mFirstChild = new ArrayList<>();
+        private final List<Integer> mNextSibling = new ArrayList<>();
+        private final List<Integer> mDepths = new ArrayList<>();
+        private final List<List<Integer>> mOutputs = new ArrayList<>();
+
+        Builder() {
+            addState((byte) 0, 0); // root
+        }
+
+        /**
+         * @return the id of the pattern, as reported to {@link Listener#onMatch(int)}.
+         */
+        int add(@NonNull byte[] pattern, int kind) {
+            if (pattern.length == 0)
+                throw new IllegalArgumentException("empty pattern");
+
+            int state = 0;
+            for (final byte b : pattern) {
+                int child = mFirstChild.get(state);
+                while (child != 0 && mLabels.get(child) != b) {
+                    child = mNextSibling.get(child);
+                }
+                if (child == 0) {
+                    child = addState(b, mDepths.get(state) + 1);
+                    mNextSibling.set(child, mFirstChild.get(state));
+                    mFirstChild.set(state, child);
+                }
+                state = child;
+            }
+
+            final int patternId = mKinds.size();
+            mKinds.add(kind);
+            mLengths.add(pattern.length);
+            if (mOutputs.get(state) == null)
+                mOutputs.set(state, new ArrayList<Integer>());
+            mOutputs.get(state).add(patternId);
+            return patternId;
+        }
+
+        @NonNull
+        SignatureMatcher build() {
+            return new SignatureMatcher(this);
+        }
+
+        private int addState(byte label, int depth) {
+            mLabels.add(label);
+            mFirstChild.add(0);
+            mNextSibling.add(0);
+            mDepths.add(depth);
+            mOutputs.add(null);
+            return mLabels.size() - 1;
+        }
+    }
+}
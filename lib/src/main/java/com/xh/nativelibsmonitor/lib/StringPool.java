@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.lib;
+
+import android.support.annotation.NonNull;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide dictionary of the names found in native libraries (entry points, frameworks, dependencies).
+ * Each distinct name is stored once and referred to by an int id, as the same few names come up in thousands of libs.
+ * Names are never removed: the pool only grows with the number of distinct names, not with the number of libs.
+ */
+public final class StringPool {
+    static final int[] NO_IDS = new int[0];
+
+    private static final ConcurrentHashMap<String, Integer> sIds = new ConcurrentHashMap<>();
+    // append-only, element i holds the name of id i. Guarded by StringPool.class for writes.
+    private static volatile String[] sStrings = new String[1024];
+    private static int sCount = 0;
+
+    private StringPool() {
+        throw new AssertionError();
+    }
+
+    public static int intern(@NonNull String string) {
+        final Integer id = sIds.get(string);
+        if (id != null)
+            return id;
+
+        synchronized (StringPool.class) {
+            final Integer existingId = sIds.get(string);
+            if (existingId != null)
+                return existingId;
+
+            // the name is in place before its id gets published through the map.
+            if (sCount == sStrings.length)
+                sStrings = Arrays.copyOf(sStrings, sCount * 2);
+            sStrings[sCount] = string;
+            sIds.put(string, sCount);
+            return sCount++;
+        }
+    }
+
+    @NonNull
+    public static String get(int id) {
+        return sStrings[id];
+    }
+
+    @NonNull
+    public static int[] intern(@NonNull Collection<String> strings) {
+        if (strings.isEmpty())
+            return NO_IDS;
+
+        final int[] ids = new int[strings.size()];
+        int i = 0;
+        for (final String string : strings) {
+            ids[i++] = intern(string);
+        }
+        return ids;
+    }
+
+    /**
+     * Returns a read-only view over interned names, each name being resolved when accessed.
+     */
+    @NonNull
+    public static List<String> asList(@NonNull final int[] ids) {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return StringPool.get(ids[index]);
+            }
+
+            @Override
+            public int size() {
+                return ids.length;
+            }
+        };
+    }
+}
@@ -0,0 +1,239 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.lib;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Version strings of engines and libraries, looked for in the read-only data of native libs.
+ * All the markers are compiled into a single automaton, so a section is read once whatever the number of markers.
+ */
+public final class VersionProbes {
+    public static final int VERSION = 1;
+
+    private static final String RESOURCE_NAME = "version_probes.txt";
+    private static final String HEADER = "version-probes";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAX_PADDING = 8;
+    private static final int MAX_VERSION_LENGTH = 32;
+
+    private static VersionProbes sDefault;
+
+    @NonNull
+    private final SignatureMatcher mLibraryMatcher;
+    @NonNull
+    private final String[] mLibraryNames;
+    @NonNull
+    private final SignatureMatcher mNativeBridgeMatcher;
+    private final int mNativeBridgeMarkerCount;
+
+    private VersionProbes(@NonNull SignatureMatcher.Builder libraryMatcher, @NonNull List<String> libraryNames,
+                          @NonNull SignatureMatcher.Builder nativeBridgeMatcher, int nativeBridgeMarkerCount) {
+        mLibraryMatcher = libraryMatcher.build();
+        mLibraryNames = libraryNames.toArray(new String[libraryNames.size()]);
+        mNativeBridgeMatcher = nativeBridgeMatcher.build();
+        mNativeBridgeMarkerCount = nativeBridgeMarkerCount;
+    }
+
+    /**
+     * Returns the probes shipped with the library.
+     */
+    @NonNull
+    public static synchronized VersionProbes getDefault() {
+        if (sDefault == null) {
+            try (InputStream in = VersionProbes.class.getResourceAsStream(RESOURCE_NAME)) {
+                if (in == null)
+                    throw new IllegalStateException(RESOURCE_NAME + " not found");
+                sDefault = parse(in);
+            } catch (IOException e) {
+                throw new IllegalStateException("can't load " + RESOURCE_NAME, e);
+            }
+        }
+        return sDefault;
+    }
+
+    /**
+     * Parses probes: a "version-probes TAB version" line, then "kind TAB marker TAB name" lines.
+     * Empty lines and lines starting with # are ignored.
+     */
+    @NonNull
+    public static VersionProbes parse(@NonNull InputStream in) throws IOException {
+        final SignatureMatcher.Builder libraryMatcher = new SignatureMatcher.Builder();
+        final List<String> libraryNames = new ArrayList<>();
+        final SignatureMatcher.Builder nativeBridgeMatcher = new SignatureMatcher.Builder();
+        int nativeBridgeMarkerCount = 0;
+
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+        boolean versionFound = false;
+        int lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            ++lineNumber;
+            if (line.length() == 0 || line.startsWith("#"))
+                continue;
+
+            final String[] fields = line.split("\t");
+            if (!versionFound) {
+                if (fields.length != 2 || !HEADER.equals(fields[0]))
+                    throw new IOException("missing " + HEADER + " header");
+                if (!String.valueOf(VERSION).equals(fields[1]))
+                    throw new IOException("unsupported " + HEADER + " version " + fields[1]);
+                versionFound = true;
+                continue;
+            }
+
+            if (fields.length != 3 || fields[1].length() == 0 || fields[2].length() == 0)
+                throw new IOException("invalid probe at line " + lineNumber);
+            final byte[] marker = unescape(fields[1], lineNumber);
+            switch (fields[0]) {
+                case "library-version":
+                    libraryMatcher.add(marker, SignatureMatcher.KIND_SUBSTRING);
+                    libraryNames.add(fields[2]);
+                    break;
+                case "native-bridge-version":
+                    nativeBridgeMatcher.add(marker, SignatureMatcher.KIND_SUBSTRING);
+                    ++nativeBridgeMarkerCount;
+                    break;
+                default:
+                    throw new IOException("unknown probe kind " + fields[0] + " at line " + lineNumber);
+            }
+        }
+        if (!versionFound)
+            throw new IOException("missing " + HEADER + " header");
+
+        return new VersionProbes(libraryMatcher, libraryNames, nativeBridgeMatcher, nativeBridgeMarkerCount);
+    }
+
+    /**
+     * Adds a "name version" framework for each name whose version is found in the read-only data of a library.
+     * When several markers share a name, the first one listed that is found wins.
+     */
+    public void addVersions(@NonNull ByteBuffer roData, @NonNull Set<String> frameworks) {
+        final String[] versions = probe(mLibraryMatcher, mLibraryNames.length, roData);
+        final Set<String> namesFound = new HashSet<>();
+        for (int i = 0; i < versions.length; ++i) {
+            if (versions[i] != null && namesFound.add(mLibraryNames[i]))
+                frameworks.add(mLibraryNames[i] + ' ' + versions[i]);
+        }
+    }
+
+    /**
+     * Returns the version found in the read-only data of the native bridge, or an empty string.
+     */
+    @NonNull
+    public String getNativeBridgeVersion(@NonNull ByteBuffer roData) {
+        for (final String version : probe(mNativeBridgeMatcher, mNativeBridgeMarkerCount, roData)) {
+            if (version != null)
+                return version;
+        }
+        return "";
+    }
+
+    // the first version found after each marker, scanning until all the markers have one.
+    @NonNull
+    private static String[] probe(@NonNull SignatureMatcher matcher, final int markerCount, @NonNull final ByteBuffer roData) {
+        final String[] versions = new String[markerCount];
+        if (markerCount == 0)
+            return versions;
+
+        matcher.scan(roData, roData.position(), roData.limit(), new SignatureMatcher.ScanListener() {
+            private int mFound = 0;
+
+            @Override
+            public boolean onMatch(int patternId, int end) {
+                if (versions[patternId] == null) {
+                    versions[patternId] = readVersion(roData, end);
+                    if (versions[patternId] != null)
+                        ++mFound;
+                }
+                return mFound < markerCount;
+            }
+        });
+        return versions;
+    }
+
+    @Nullable
+    private static String readVersion(@NonNull ByteBuffer content, int offset) {
+        final int limit = content.limit();
+        int start = offset;
+        while (start < limit && start - offset < MAX_PADDING && (content.get(start) == 0 || content.get(start) == ' ')) {
+            ++start;
+        }
+        if (start >= limit || !isDigit(content.get(start)))
+            return null;
+
+        int end = start;
+        while (end < limit && end - start < MAX_VERSION_LENGTH && isVersionChar(content.get(end))) {
+            ++end;
+        }
+        final byte[] version = new byte[end - start];
+        for (int i = 0; i < version.length; ++i) {
+            version[i] = content.get(start + i);
+        }
+        return new String(version, UTF_8);
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean isVersionChar(byte b) {
+        return isDigit(b) || (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || b == '.' || b == '-' || b == '_' || b == '+';
+    }
+
+    @NonNull
+    private static byte[] unescape(@NonNull String marker, int lineNumber) throws IOException {
+        final byte[] bytes = marker.getBytes(UTF_8);
+        final ByteArrayOutputStream unescaped = new ByteArrayOutputStream(bytes.length);
+        for (int i = 0; i < bytes.length; ++i) {
+            if (bytes[i] != '\\') {
+                unescaped.write(bytes[i]);
+            } else if (i + 1 < bytes.length && bytes[i + 1] == '0') {
+                unescaped.write(0);
+                i += 1;
+            } else if (i + 1 < bytes.length && bytes[i + 1] == '\\') {
+                unescaped.write('\\');
+                i += 1;
+            } else if (i + 3 < bytes.length && bytes[i + 1] == 'x') {
+                try {
+                    unescaped.write(Integer.parseInt(new String(bytes, i + 2, 2, UTF_8), 16));
+                } catch (NumberFormatException e) {
+                    throw new IOException("invalid escape sequence at line " + lineNumber);
+                }
+                i += 3;
+            } else
+                throw new IOException("invalid escape sequence at line " + lineNumber);
+        }
+        return unescaped.toByteArray();
+    }
+}
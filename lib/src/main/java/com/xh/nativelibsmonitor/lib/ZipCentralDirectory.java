@@ -0,0 +1,237 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.lib;
+
+import android.support.annotation.NonNull;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipException;
+
+/**
+ * Minimal reader for the central directory of a zip/APK file.
+ * Unlike {@link java.util.zip.ZipFile} it exposes where each entry is stored in the archive,
+ * so its content can be read directly from the file descriptor.
+ */
+public final class ZipCentralDirectory {
+    public static final int METHOD_STORED = 0;
+    public static final int METHOD_DEFLATED = 8;
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int EOCD_MAX_COMMENT_LENGTH = 0xffff;
+    private static final int ZIP64_EOCD_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EOCD_LOCATOR_SIZE = 20;
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_EOCD_SIZE = 56;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    static final int LOCAL_HEADER_SIZE = 30;
+    private static final int ZIP64_EXTRA_FIELD_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xffffffffL;
+    // larger central directories are mapped rather than copied onto the heap.
+    private static final int MAX_HEAP_CENTRAL_DIRECTORY_SIZE = 64 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Selects entries on the raw bytes of their name, before any object gets created for them.
+     */
+    public interface NameFilter {
+        boolean accept(@NonNull ByteBuffer centralDirectory, int nameOffset, int nameLength);
+    }
+
+    public static final NameFilter ALL_ENTRIES = new NameFilter() {
+        @Override
+        public boolean accept(@NonNull ByteBuffer centralDirectory, int nameOffset, int nameLength) {
+            return true;
+        }
+    };
+
+    private ZipCentralDirectory() {
+        throw new AssertionError();
+    }
+
+    public static final class Entry {
+        @NonNull
+        public final String name;
+        public final int method;
+        public final long crc;
+        public final long compressedSize;
+        public final long size;
+        public final long localHeaderOffset;
+
+        Entry(@NonNull String name, int method, long crc, long compressedSize, long size, long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+
+    @NonNull
+    static List<Entry> read(@NonNull FileChannel channel) throws IOException {
+        return read(channel, ALL_ENTRIES);
+    }
+
+    /**
+     * Reads the entries accepted by a filter. Rejected entries are skipped over without allocating anything,
+     * which keeps enumeration cheap on APKs with tens of thousands of assets.
+     */
+    @NonNull
+    static List<Entry> read(@NonNull FileChannel channel, @NonNull NameFilter filter) throws IOException {
+        final long fileSize = channel.size();
+        if (fileSize < EOCD_SIZE)
+            throw new ZipException("file too short to be a zip file");
+
+        // the end of central directory record is followed by a comment of up to 64KB.
+        final int tailLength = (int) Math.min(fileSize, EOCD_SIZE + EOCD_MAX_COMMENT_LENGTH);
+        final long tailStart = fileSize - tailLength;
+        final ByteBuffer tail = ByteBuffer.allocate(tailLength).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, tail, tailStart);
+
+        int eocdPosition = -1;
+        for (int i = tailLength - EOCD_SIZE; i >= 0; --i) {
+            if (tail.getInt(i) == EOCD_SIGNATURE) {
+                eocdPosition = i;
+                break;
+            }
+        }
+        if (eocdPosition < 0)
+            throw new ZipException("end of central directory not found");
+
+        long entriesCount = tail.getShort(eocdPosition + 10) & 0xffff;
+        long centralDirectorySize = tail.getInt(eocdPosition + 12) & ZIP64_MAGIC;
+        long centralDirectoryOffset = tail.getInt(eocdPosition + 16) & ZIP64_MAGIC;
+
+        final long locatorPosition = tailStart + eocdPosition - ZIP64_EOCD_LOCATOR_SIZE;
+        if (locatorPosition >= 0 && (entriesCount == 0xffff || centralDirectoryOffset == ZIP64_MAGIC || centralDirectorySize == ZIP64_MAGIC)) {
+            final ByteBuffer locator = ByteBuffer.allocate(ZIP64_EOCD_LOCATOR_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, locator, locatorPosition);
+            if (locator.getInt(0) == ZIP64_EOCD_LOCATOR_SIGNATURE) {
+                final ByteBuffer zip64Eocd = ByteBuffer.allocate(ZIP64_EOCD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                readFully(channel, zip64Eocd, locator.getLong(8));
+                if (zip64Eocd.getInt(0) != ZIP64_EOCD_SIGNATURE)
+                    throw new ZipException("invalid zip64 end of central directory");
+                entriesCount = zip64Eocd.getLong(32);
+                centralDirectorySize = zip64Eocd.getLong(40);
+                centralDirectoryOffset = zip64Eocd.getLong(48);
+            }
+        }
+
+        if (centralDirectorySize > Integer.MAX_VALUE || centralDirectoryOffset + centralDirectorySize > fileSize)
+            throw new ZipException("invalid central directory");
+
+        final ByteBuffer centralDirectory;
+        if (centralDirectorySize > MAX_HEAP_CENTRAL_DIRECTORY_SIZE) {
+            centralDirectory = channel.map(FileChannel.MapMode.READ_ONLY, centralDirectoryOffset, centralDirectorySize);
+        } else {
+            centralDirectory = ByteBuffer.allocate((int) centralDirectorySize);
+            readFully(channel, centralDirectory, centralDirectoryOffset);
+        }
+        centralDirectory.order(ByteOrder.LITTLE_ENDIAN);
+
+        final List<Entry> entries = filter == ALL_ENTRIES ? new ArrayList<Entry>((int) Math.min(entriesCount, 0xffff)) : new ArrayList<Entry>();
+        int position = 0;
+        while (position + CENTRAL_HEADER_SIZE <= centralDirectory.limit()) {
+            if (centralDirectory.getInt(position) != CENTRAL_HEADER_SIGNATURE)
+                break;
+
+            final int method = centralDirectory.getShort(position + 10) & 0xffff;
+            final long crc = centralDirectory.getInt(position + 16) & ZIP64_MAGIC;
+            long compressedSize = centralDirectory.getInt(position + 20) & ZIP64_MAGIC;
+            long size = centralDirectory.getInt(position + 24) & ZIP64_MAGIC;
+            final int nameLength = centralDirectory.getShort(position + 28) & 0xffff;
+            final int extraLength = centralDirectory.getShort(position + 30) & 0xffff;
+            final int commentLength = centralDirectory.getShort(position + 32) & 0xffff;
+            long localHeaderOffset = centralDirectory.getInt(position + 42) & ZIP64_MAGIC;
+
+            final int nameStart = position + CENTRAL_HEADER_SIZE;
+            final int extraStart = nameStart + nameLength;
+            final int next = extraStart + extraLength + commentLength;
+            if (next > centralDirectory.limit())
+                throw new ZipException("truncated central directory");
+
+            if (!filter.accept(centralDirectory, nameStart, nameLength)) {
+                position = next;
+                continue;
+            }
+
+            if (size == ZIP64_MAGIC || compressedSize == ZIP64_MAGIC || localHeaderOffset == ZIP64_MAGIC) {
+                int extra = extraStart;
+                while (extra + 4 <= extraStart + extraLength) {
+                    final int id = centralDirectory.getShort(extra) & 0xffff;
+                    final int length = centralDirectory.getShort(extra + 2) & 0xffff;
+                    if (id == ZIP64_EXTRA_FIELD_ID) { // values are only present when the regular field is saturated, in this order.
+                        int field = extra + 4;
+                        if (size == ZIP64_MAGIC && field + 8 <= extra + 4 + length) {
+                            size = centralDirectory.getLong(field);
+                            field += 8;
+                        }
+                        if (compressedSize == ZIP64_MAGIC && field + 8 <= extra + 4 + length) {
+                            compressedSize = centralDirectory.getLong(field);
+                            field += 8;
+                        }
+                        if (localHeaderOffset == ZIP64_MAGIC && field + 8 <= extra + 4 + length) {
+                            localHeaderOffset = centralDirectory.getLong(field);
+                        }
+                        break;
+                    }
+                    extra += 4 + length;
+                }
+            }
+
+            final byte[] nameBytes = new byte[nameLength];
+            centralDirectory.position(nameStart);
+            centralDirectory.get(nameBytes);
+            final String name = new String(nameBytes, UTF_8);
+            // the data of an entry is read or mapped straight from the file, it must lie within it.
+            if (localHeaderOffset < 0 || compressedSize < 0 || size < 0
+                    || localHeaderOffset > fileSize - LOCAL_HEADER_SIZE - compressedSize)
+                throw new ZipException("entry past the end of the zip file: " + name);
+            entries.add(new Entry(name, method, crc, compressedSize, size, localHeaderOffset));
+
+            position = next;
+        }
+
+        return entries;
+    }
+
+    static void readFully(@NonNull FileChannel channel, @NonNull ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position);
+            if (read < 0)
+                throw new EOFException("unexpected end of zip file");
+            position += read;
+        }
+        buffer.flip();
+    }
+}
@@ -20,7 +20,7 @@ ifeq ($(TARGET_ARCH_ABI),x86_64)
     LOCAL_CFLAGS += -mtune=slm -maes -msse4.2
 endif
 
-LOCAL_LDLIBS := -llog
+LOCAL_LDLIBS := -llog -lz
 
 LOCAL_SRC_FILES := nativelibanalyzer.cpp nativelibanalyzer_jni.cpp # main.cpp
 
@@ -20,8 +20,10 @@
 #include <fcntl.h>
 #include <limits>
 #include <cassert>
+#include <ctime>
 #include <libelf.h>
 #include <unistd.h>
+#include <sys/mman.h>
 
 // defines missing flags from current libelf:
 #define EF_MIPS_ARCH_32R6 0x90000000
@@ -31,13 +33,27 @@
 
 using namespace std;
 
+int64_t NativeLibAnalyzer::nowNanos() {
+    timespec now;
+    clock_gettime(CLOCK_MONOTONIC, &now);
+    return (int64_t) now.tv_sec * 1000000000LL + now.tv_nsec;
+}
+
+bool NativeLibAnalyzer::isExpired(int64_t deadlineNanos) {
+    return deadlineNanos != noDeadline && nowNanos() - deadlineNanos >= 0;
+}
+
 void NativeLibAnalyzer::analyzeDynamicSymbols(Elf *elf, GElf_Shdr shdr, Elf_Data *edata,
                                               vector<string> &entryPoints,
-                                              set<string> &frameworks, bool knownSharedLib) {
+                                              set<string> &frameworks, bool knownSharedLib,
+                                              int64_t deadlineNanos) {
     GElf_Sym sym;
     int i = 0;
 
     while (gelf_getsym(edata, i++, &sym) != NULL) {
+        if (i % symbolsPerDeadlineCheck == 0 && isExpired(deadlineNanos))
+            break;
+
         if (sym.st_info == SHT_SYMTAB_SHNDX) {
             const char *name = elf_strptr(elf, shdr.sh_link, sym.st_name);
             if (name != nullptr) {
@@ -83,10 +99,13 @@ void NativeLibAnalyzer::analyzeDynamicSymbols(Elf *elf, GElf_Shdr shdr, Elf_Data
 
 
 void NativeLibAnalyzer::analyzeSymbolsTable(Elf *elf, GElf_Shdr shdr, Elf_Data *edata,
-                                            set<string> &frameworks) {
+                                            set<string> &frameworks, int64_t deadlineNanos) {
     GElf_Sym sym;
     size_t i = 0;
     while (gelf_getsym(edata, i++, &sym) != nullptr) {
+        if (i % symbolsPerDeadlineCheck == 0 && isExpired(deadlineNanos))
+            break;
+
         if (sym.st_info == SHT_SYMTAB) {
             const char *name = elf_strptr(elf, shdr.sh_link, sym.st_name);
             if (strncmp("__intel_cpu_features_init", name, 25) == 0) {
@@ -148,102 +167,125 @@ pair<uint64_t, uint64_t> NativeLibAnalyzer::getRoDataStartAndSize(Elf *elf) {
     return result;
 }
 
+static const size_t versionMaxPadding = 8;
+static const size_t versionMaxLength = 32;
+
+static bool isVersionChar(char c) {
+    return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+           || c == '.' || c == '-' || c == '_' || c == '+';
+}
+
+static string readVersion(const char *data, size_t size, size_t offset) {
+    size_t start = offset;
+    while (start < size && start - offset < versionMaxPadding && (data[start] == '\0' || data[start] == ' '))
+        ++start;
+    if (start >= size || data[start] < '0' || data[start] > '9')
+        return "";
+
+    size_t end = start;
+    while (end < size && end - start < versionMaxLength && isVersionChar(data[end]))
+        ++end;
+    return string(data + start, end - start);
+}
+
+// maps a range of a file, which doesn't have to be page aligned. The mapping has to be unmapped with munmap(map, mapLength).
+static const char *mapFileRange(int fd, uint64_t start, uint64_t size, void *&map, size_t &mapLength) {
+    const uint64_t pageSize = (uint64_t) sysconf(_SC_PAGESIZE);
+    const uint64_t mapStart = start & ~(pageSize - 1);
+    if (size == 0 || start + size - mapStart > numeric_limits<size_t>::max()
+        || mapStart > (uint64_t) numeric_limits<off_t>::max())
+        return nullptr;
+
+    mapLength = (size_t) (start + size - mapStart);
+    map = mmap(nullptr, mapLength, PROT_READ, MAP_PRIVATE, fd, (off_t) mapStart);
+    if (map == MAP_FAILED)
+        return nullptr;
+    return (const char *) map + (start - mapStart);
+}
+
+vector<string> NativeLibAnalyzer::probeVersions(const char *data, size_t size,
+                                                const vector<pair<const string, const string>> &markers) {
+    vector<string> versions(markers.size());
+    // markers are indexed by their first byte, so each byte of data is looked at once whatever the number of markers.
+    vector<size_t> markersByFirstByte[256];
+    for (size_t m = 0; m < markers.size(); ++m)
+        markersByFirstByte[(unsigned char) markers[m].first[0]].push_back(m);
+
+    size_t found = 0;
+    for (size_t i = 0; i < size && found < markers.size(); ++i) {
+        for (const size_t m : markersByFirstByte[(unsigned char) data[i]]) {
+            const string &marker = markers[m].first;
+            if (versions[m].empty() && marker.size() <= size - i
+                && memcmp(data + i, marker.data(), marker.size()) == 0) {
+                versions[m] = readVersion(data, size, i + marker.size());
+                if (!versions[m].empty())
+                    ++found;
+            }
+        }
+    }
+    return versions;
+}
+
 string NativeLibAnalyzer::getHoudiniVersion() {
-    uint64_t roDataSectionStart = 0;
-    uint64_t roDataSectionSize = 0;
+    string version;
     int fd = open("/system/lib/libhoudini.so", O_RDONLY);
 
     if (fd > -1) {
-        lseek64(fd, 0, SEEK_SET);
-
         elf_version(EV_CURRENT);
         Elf *elf = elf_begin(fd, ELF_C_READ_MMAP, nullptr); //ELF_C_READ_MMAP
         if (elf != nullptr) {
             auto roDataSectionStartAndSize = getRoDataStartAndSize(elf);
-            roDataSectionStart = roDataSectionStartAndSize.first;
-            roDataSectionSize = roDataSectionStartAndSize.second;
             elf_end(elf);
-        }
 
-        char buf[32] ,valid_buf[32];
-        size_t stringLength = 0;
-        size_t count = 0;
-        lseek64(fd, roDataSectionStart, SEEK_SET);
-        while (read(fd, buf, sizeof(buf)) != 0 && count < roDataSectionSize / sizeof(buf)) {
-            strlcpy(valid_buf, buf, sizeof(valid_buf));
-            if (strncmp("version: ", valid_buf, 9) == 0) {
-                stringLength = strnlen(valid_buf, sizeof(valid_buf));
-                break;
+            void *map = nullptr;
+            size_t mapLength = 0;
+            const char *roData = mapFileRange(fd, roDataSectionStartAndSize.first, roDataSectionStartAndSize.second,
+                                              map, mapLength);
+            if (roData != nullptr) {
+                for (const string &found : probeVersions(roData, (size_t) roDataSectionStartAndSize.second,
+                                                         nativeBridgeVersionMarkers)) {
+                    if (!found.empty()) {
+                        version = found;
+                        break;
+                    }
+                }
+                munmap(map, mapLength);
             }
-            ++count;
         }
-
         close(fd);
-        if (stringLength > 9)
-            return string(buf + 9, stringLength - 9);
-        else
-            return "";
     }
 
-    return "";
+    return version;
 }
 
-
-string NativeLibAnalyzer::getUnityVersion(Elf *elf, int fd, char *soFileContent) {
-
+void NativeLibAnalyzer::addRoDataVersions(Elf *elf, int fd, char *soFileContent, set<string> &frameworks) {
     auto roDataSectionStartAndSize = getRoDataStartAndSize(elf);
     auto roDataSectionStart = roDataSectionStartAndSize.first;
     auto roDataSectionSize = roDataSectionStartAndSize.second;
-
-    char buf[1024];
-
-    size_t count = 0;
-    const char stringToLookFor[] = "Initialize engine version";
-    //const size_t sizeOfStringToLookFor = 25;
-    const size_t versionOffsetFromString = sizeof(stringToLookFor) + 7;
-    const size_t versionStringMaxLength = 32;
-
-    if (fd > -1 && soFileContent == nullptr) { //file from fd
-        lseek64(fd, roDataSectionStart, SEEK_SET);
-        while (read(fd, buf, sizeof(buf)) != 0 &&
-               count * (sizeof(buf) - 2 * versionStringMaxLength) <
-               roDataSectionSize) { // search windows is around 64 bytes less than bufer, to handle overlaps.
-
-            const char *found = (char *) memmem(buf, sizeof(buf), stringToLookFor,
-                                                sizeof(stringToLookFor));
-            if (found != nullptr) {
-                if (*(found + versionOffsetFromString - 1) >= '0' &&
-                    *(found + versionOffsetFromString - 1) <= '9')
-                    return string(found + versionOffsetFromString - 1,
-                                  strnlen(found + versionOffsetFromString - 1,
-                                          versionStringMaxLength));
-                else
-                    return string(found + versionOffsetFromString,
-                                  strnlen(found + versionOffsetFromString, versionStringMaxLength));
-            }
-
-            ++count;
-            lseek64(fd, roDataSectionStart + count * (sizeof(buf) - 2 * versionStringMaxLength),
-                    SEEK_SET);
-        }
-    }
+    if (roDataSectionSize == 0)
+        return;
+
+    const char *roData = nullptr;
+    void *map = nullptr;
+    size_t mapLength = 0;
+    if (fd > -1 && soFileContent == nullptr) //file from fd, only .rodata gets mapped
+        roData = mapFileRange(fd, roDataSectionStart, roDataSectionSize, map, mapLength);
     else {//file from memory
         assert(roDataSectionSize < numeric_limits<size_t>::max());
-        const char *found = (char *) memmem(soFileContent + roDataSectionStart,
-                                            (size_t) roDataSectionSize,
-                                            stringToLookFor, sizeof(stringToLookFor));
-        if (found != nullptr) {
-            if (*(found + versionOffsetFromString - 1) >= '0' &&
-                *(found + versionOffsetFromString - 1) <= '9')
-                return string(found + versionOffsetFromString - 1,
-                              strnlen(found + versionOffsetFromString - 1, versionStringMaxLength));
-            else
-                return string(found + versionOffsetFromString,
-                              strnlen(found + versionOffsetFromString, versionStringMaxLength));
-        }
+        roData = soFileContent + roDataSectionStart;
+    }
+    if (roData == nullptr)
+        return;
+
+    const vector<string> versions = probeVersions(roData, (size_t) roDataSectionSize, libraryVersionMarkers);
+    set<string> namesFound;
+    for (size_t m = 0; m < versions.size(); ++m) {
+        if (!versions[m].empty() && namesFound.insert(libraryVersionMarkers[m].second).second)
+            frameworks.insert(libraryVersionMarkers[m].second + " " + versions[m]);
     }
 
-    return "";
+    if (map != nullptr)
+        munmap(map, mapLength);
 }
 
 NativeLibAnalyzer::ABI NativeLibAnalyzer::getAbi(Elf *elf) {
@@ -253,7 +295,7 @@ NativeLibAnalyzer::ABI NativeLibAnalyzer::getAbi(Elf *elf) {
         case EM_386:
             return ABI::x86;
         case EM_ARM:
-            return ABI::arm; //armN
+            return ABI::arm; // ARMv5 or ARMv7, see getArmAbi().
         case EM_MIPS:
             if ((ehdr.e_flags & EF_MIPS_ARCH) == EF_MIPS_ARCH_64
                 || (ehdr.e_flags & EF_MIPS_ARCH) == EF_MIPS_ARCH_64R2
@@ -271,9 +313,113 @@ NativeLibAnalyzer::ABI NativeLibAnalyzer::getAbi(Elf *elf) {
     }
 }
 
-void NativeLibAnalyzer::analyzeLibElfEntries(Elf *elf, vector<string> &entryPoints,
+static const uint32_t shtArmAttributes = 0x70000003U;
+static const unsigned tagFile = 1;
+static const unsigned tagCpuRawName = 4;
+static const unsigned tagCpuName = 5;
+static const unsigned tagCpuArch = 6;
+static const unsigned tagFpArch = 10;
+static const unsigned tagAdvancedSimdArch = 12;
+static const unsigned tagCompatibility = 32;
+static const unsigned cpuArchV7 = 10;
+static const unsigned cpuArchV6M = 11;
+static const unsigned cpuArchV6SM = 12;
+static const unsigned fpArchVfpV3 = 3;
+
+static size_t readUleb128(const unsigned char *data, size_t position, size_t end, unsigned &value) {
+    uint64_t result = 0;
+    unsigned shift = 0;
+    while (position < end) {
+        const unsigned char b = data[position++];
+        if (shift < 63)
+            result |= (uint64_t) (b & 0x7f) << shift;
+        shift += 7;
+        if ((b & 0x80) == 0)
+            break;
+    }
+    value = result > UINT32_MAX ? UINT32_MAX : (unsigned) result;
+    return position;
+}
+
+static size_t skipString(const unsigned char *data, size_t position, size_t end) {
+    while (position < end && data[position] != 0)
+        ++position;
+    return position + 1;
+}
+
+// ARM Android libraries are little-endian.
+static uint32_t readWord(const unsigned char *data, size_t position) {
+    return data[position] | (data[position + 1] << 8) | (data[position + 2] << 16) | ((uint32_t) data[position + 3] << 24);
+}
+
+// the SHT_ARM_ATTRIBUTES section is an 'A' version byte followed by vendor subsections, the "aeabi" one holding the
+// attributes of the whole file as (ULEB128 tag, ULEB128 or NUL-terminated string value) pairs.
+NativeLibAnalyzer::ABI NativeLibAnalyzer::getArmAbi(const unsigned char *attributes, size_t size) {
+    if (size < 1 || attributes[0] != 'A')
+        return ABI::arm;
+
+    int64_t cpuArch = -1, fpArch = -1, simdArch = -1;
+    size_t position = 1;
+    while (position + 4 <= size) {
+        const uint32_t length = readWord(attributes, position);
+        if (length < 4 || length > size - position)
+            break;
+        const size_t end = position + length;
+
+        const char *vendor = (const char *) attributes + position + 4;
+        size_t subsection = skipString(attributes, position + 4, end);
+        if (subsection <= end && strcmp(vendor, "aeabi") == 0) {
+            while (subsection < end) {
+                unsigned tag;
+                const size_t tagEnd = readUleb128(attributes, subsection, end, tag);
+                if (tagEnd + 4 > end)
+                    break;
+                const uint32_t subsectionLength = readWord(attributes, tagEnd);
+                if (subsectionLength < 5 || subsectionLength > end - subsection)
+                    break;
+                const size_t subsectionEnd = subsection + subsectionLength;
+
+                if (tag == tagFile) {
+                    size_t attribute = tagEnd + 4;
+                    while (attribute < subsectionEnd) {
+                        unsigned attributeTag, value;
+                        attribute = readUleb128(attributes, attribute, subsectionEnd, attributeTag);
+                        // tags 4, 5, 65, 67 and the other odd ones from 32 hold strings, Tag_compatibility a ULEB128 and a string.
+                        if (attributeTag == tagCpuRawName || attributeTag == tagCpuName
+                            || (attributeTag > tagCompatibility && (attributeTag & 1) == 1)) {
+                            attribute = skipString(attributes, attribute, subsectionEnd);
+                            continue;
+                        }
+
+                        attribute = readUleb128(attributes, attribute, subsectionEnd, value);
+                        if (attributeTag == tagCompatibility)
+                            attribute = skipString(attributes, attribute, subsectionEnd);
+                        else if (attributeTag == tagCpuArch)
+                            cpuArch = value;
+                        else if (attributeTag == tagFpArch)
+                            fpArch = value;
+                        else if (attributeTag == tagAdvancedSimdArch)
+                            simdArch = value;
+                    }
+                }
+                subsection = subsectionEnd;
+            }
+        }
+        position = end;
+    }
+
+    if (cpuArch >= 0)
+        return cpuArch >= cpuArchV7 && cpuArch != cpuArchV6M && cpuArch != cpuArchV6SM ? ABI::armv7 : ABI::armv5;
+    // without Tag_CPU_arch, NEON or VFPv3 still require an ARMv7 CPU.
+    if (simdArch > 0 || fpArch >= fpArchVfpV3)
+        return ABI::armv7;
+    return ABI::arm;
+}
+
+void NativeLibAnalyzer::analyzeLibElfEntries(Elf *elf, ABI &abi, vector<string> &entryPoints,
                                              set<string> &frameworks,
-                                             vector<string> &dependencies, bool knownSharedLib) {
+                                             vector<string> &dependencies, bool knownSharedLib,
+                                             int64_t deadlineNanos) {
     Elf_Scn *scn = nullptr;
     Elf_Data *edata = nullptr;
 
@@ -284,20 +430,24 @@ void NativeLibAnalyzer::analyzeLibElfEntries(Elf *elf, vector<string> &entryPoin
                 edata = elf_getdata(scn, nullptr);
                 if (edata != NULL) {
                     analyzeDynamicSymbols(elf, shdr, edata, entryPoints, frameworks,
-                                          knownSharedLib);
+                                          knownSharedLib, deadlineNanos);
                 }
             }
             else if (shdr.sh_type == SHT_SYMTAB && !knownSharedLib) {
                 edata = elf_getdata(scn, nullptr);
                 if (edata != NULL)
-                    analyzeSymbolsTable(elf, shdr, edata, frameworks);
+                    analyzeSymbolsTable(elf, shdr, edata, frameworks, deadlineNanos);
             }
             else if (shdr.sh_type == SHT_DYNAMIC) {
                 edata = elf_getdata(scn, nullptr);
                 if (edata != NULL)
                     analyzeDynamicEntries(elf, shdr, edata, dependencies);
             }
-            //  (ehdr.e_machine == EM_ARM && shdr.sh_type == 0x70000003U){ //SHT_ARM_ATTRIBUTES      = 0x70000003U, // ARMv5/v7 differentiation ?
+            else if (shdr.sh_type == shtArmAttributes && abi == ABI::arm) {
+                edata = elf_getdata(scn, nullptr);
+                if (edata != NULL && edata->d_buf != NULL)
+                    abi = getArmAbi((const unsigned char *) edata->d_buf, edata->d_size);
+            }
         }
     }
 }
\ No newline at end of file
@@ -24,18 +24,29 @@
 #include <set>
 #include <vector>
 #include <map>
+#include <cstdint>
 #include <gelf.h>
 
 namespace NativeLibAnalyzer {
 
     enum ABI {unknown, x86, armv5, armv7, mips, x86_64, arm64, mips64, arm};
 
+    // deadlines are CLOCK_MONOTONIC nanoseconds, the clock of System.nanoTime() on Android.
+    static const int64_t noDeadline = INT64_MAX;
+
+    // symbols read between two deadline checks.
+    static const size_t symbolsPerDeadlineCheck = 1024;
+
+    int64_t nowNanos();
+
+    bool isExpired(int64_t deadlineNanos);
+
     void analyzeDynamicSymbols(Elf *elf, GElf_Shdr shdr, Elf_Data *edata,
                         std::vector<std::string> &entryPoints,
-                        std::set<std::string> &frameworks, bool knownSharedLib);
+                        std::set<std::string> &frameworks, bool knownSharedLib, int64_t deadlineNanos);
 
     void analyzeSymbolsTable(Elf *elf, GElf_Shdr shdr, Elf_Data *edata,
-                      std::set<std::string> &frameworks);
+                      std::set<std::string> &frameworks, int64_t deadlineNanos);
 
     void analyzeDynamicEntries(Elf *elf, GElf_Shdr shdr, Elf_Data *edata,
                         std::vector<std::string> &dependencies);
@@ -46,15 +57,22 @@ namespace NativeLibAnalyzer {
 
     std::string getHoudiniVersion();
 
-    std::string getUnityVersion(Elf *elf, int fd, char *soFileContent);
+    std::vector<std::string> probeVersions(const char *data, size_t size,
+                                           const std::vector<std::pair<const std::string, const std::string>> &markers);
+
+    void addRoDataVersions(Elf *elf, int fd, char *soFileContent, std::set<std::string> &frameworks);
 
     ABI getAbi(Elf *elf);
 
-    void analyzeLibElfEntries(Elf *elf, std::vector<std::string> &entryPoints,
+    ABI getArmAbi(const unsigned char *attributes, size_t size);
+
+    void analyzeLibElfEntries(Elf *elf, ABI &abi, std::vector<std::string> &entryPoints,
                               std::set<std::string> &frameworks,
-                              std::vector<std::string> &dependencies, bool knownSharedLib);
+                              std::vector<std::string> &dependencies, bool knownSharedLib,
+                              int64_t deadlineNanos);
 
-    static const std::map<const std::string, const std::string> staticLibIdentifiers = {
+    // transparent comparator: symbol names are looked up as const char *, without building a std::string for each one.
+    static const std::map<const std::string, const std::string, std::less<>> staticLibIdentifiers = {
             {"zlibVersion",                                               "zlib"},
             {"png_flush",                                                 "libpng"},
             {"jpeg_input_complete",                                       "libjpeg"},
@@ -241,6 +259,21 @@ namespace NativeLibAnalyzer {
             {"libsdl",             "SDL"}
     };
 
+    // same markers as version_probes.txt of the Java analyzer: the version follows them, after some NUL or space padding.
+    static const std::vector<std::pair<const std::string, const std::string>> libraryVersionMarkers = {
+            {std::string("Initialize engine version\0", 26), "Unity"},
+            {"++UE4+Release-",                             "Unreal Engine"},
+            {"++UE5+Release-",                             "Unreal Engine"},
+            {std::string("\0OpenSSL ", 9),                  "OpenSSL"},
+            {" inflate ",                                  "zlib"},
+            {" deflate ",                                  "zlib"},
+            {"libpng version ",                            "libpng"},
+    };
+
+    static const std::vector<std::pair<const std::string, const std::string>> nativeBridgeVersionMarkers = {
+            {std::string("\0version: ", 10),                "Houdini"},
+    };
+
 };
 
 #endif //NATIVELIBSMONITOR_NATIVELIBANALYZER_H
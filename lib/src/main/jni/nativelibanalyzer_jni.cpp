@@ -19,8 +19,16 @@
 
 #include <jni.h>
 #include <stdexcept>
+#include <algorithm>
+#include <cerrno>
 #include <fcntl.h>
 #include <unistd.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+#include <zlib.h>
+#include <cstdlib>
+#include <cstring>
+#include <unordered_map>
 
 #include "nativelibanalyzer.h"
 
@@ -44,10 +52,28 @@
 
 using namespace std;
 
+// class, constructor and field IDs are resolved once in JNI_OnLoad.
+static jclass stringClass = nullptr;
+static jclass nativeLibObjectClass = nullptr;
+static jmethodID nativeLibObjectConstructor = nullptr;
+static jclass runtimeExceptionClass = nullptr;
+static jfieldID nativeLibTimedOutFieldId = nullptr;
+static jmethodID deadlineIsCancelledMethod = nullptr;
+static jmethodID memoryBudgetAcquireMethod = nullptr;
+static jmethodID memoryBudgetReleaseMethod = nullptr;
+
+struct NativeLibResult {
+    jlong size = 0;
+    NativeLibAnalyzer::ABI abi = NativeLibAnalyzer::ABI::unknown;
+    vector<string> entryPoints;
+    set<string> frameworks;
+    vector<string> dependencies;
+    bool timedOut = false;
+};
+
 template<typename T>
 jobjectArray createJavaStringArray(JNIEnv *env, const T &stringsContainer) {
-    jclass strCls = env->FindClass("java/lang/String");
-    jobjectArray javaArray = env->NewObjectArray(stringsContainer.size(), strCls, nullptr);
+    jobjectArray javaArray = env->NewObjectArray(stringsContainer.size(), stringClass, nullptr);
     int i = 0;
     for (const string &element : stringsContainer) {
         jstring str = env->NewStringUTF(element.c_str());
@@ -58,50 +84,40 @@ jobjectArray createJavaStringArray(JNIEnv *env, const T &stringsContainer) {
     return javaArray;
 }
 
-jobject createNativeLibObject(JNIEnv *env, jlong soFileLength, NativeLibAnalyzer::ABI abi,
-                              const vector<string> &entryPoints, const set<string> &frameworks,
-                              const vector<string> &dependencies) {
-
-    jclass nativeLibObjectClass = env->FindClass("com/xh/nativelibsmonitor/lib/NativeLibrary");
-    jmethodID nativeLibObjectConstructor = env->GetMethodID(nativeLibObjectClass, "<init>",
-                                                            "(JI[Ljava/lang/String;[Ljava/lang/String;[Ljava/lang/String;)V");
+jobject createNativeLibObject(JNIEnv *env, const NativeLibResult &lib) {
+    jobjectArray entryPointsArray = createJavaStringArray(env, lib.entryPoints);
+    jobjectArray frameworksArray = createJavaStringArray(env, lib.frameworks);
+    jobjectArray dependenciesArray = createJavaStringArray(env, lib.dependencies);
 
-    jobjectArray entryPointsArray = createJavaStringArray(env, entryPoints);
-    jobjectArray frameworksArray = createJavaStringArray(env, frameworks);
-    jobjectArray dependenciesArray = createJavaStringArray(env, dependencies);
-
-    jobject object = env->NewObject(nativeLibObjectClass, nativeLibObjectConstructor, soFileLength,
-                                    abi, //WARNING: NativeLibAnalyzer::ABI has to match NativeLibrary ABI type.
+    jobject object = env->NewObject(nativeLibObjectClass, nativeLibObjectConstructor, lib.size,
+                                    lib.abi, //WARNING: NativeLibAnalyzer::ABI has to match NativeLibrary ABI type.
                                     entryPointsArray, frameworksArray, dependenciesArray);
 
     env->DeleteLocalRef(entryPointsArray);
     env->DeleteLocalRef(frameworksArray);
     env->DeleteLocalRef(dependenciesArray);
+    if (object != nullptr && lib.timedOut)
+        env->SetBooleanField(object, nativeLibTimedOutFieldId, JNI_TRUE);
 
     jthrowable ex = env->ExceptionOccurred();
     if (ex != nullptr) {
         env->ExceptionClear();
-        throw new runtime_error("Couldn't create NativeLibrary object.");
+        throw runtime_error("Couldn't create NativeLibrary object.");
     }
 
     return object;
 }
 
-jobject analyzeNativeLib(JNIEnv *env, jclass, jstring lib, char *soFileContent = nullptr,
-                         jlong soFileLength = 0) {
-    jobject result = nullptr;
-    vector<string> entryPoints;
-    set<string> frameworks;
-    vector<string> dependencies;
-    NativeLibAnalyzer::ABI abi = NativeLibAnalyzer::ABI::unknown;
-
+// analyzes a lib from its path, or from its content when soFileContent isn't null, until deadlineNanos.
+void analyzeNativeLib(const char *libName, char *soFileContent, jlong soFileLength, int64_t deadlineNanos,
+                      NativeLibResult &result) {
 #ifdef EXTRACT_SYMBOLS_TO_FILE
     ofstream myfile;
     myfile.open("/sdcard/entry_points.txt", ios::app);
 #endif
 
-    const char *libName = env->GetStringUTFChars(lib, nullptr);
-    const string libNameStr = strrchr(libName, '/') + 1;
+    const char *lastSlash = strrchr(libName, '/');
+    const string libNameStr = lastSlash != nullptr ? lastSlash + 1 : libName;
 
     bool knownSharedLib = false;
     bool analyzingFile = (soFileContent == nullptr);
@@ -110,7 +126,7 @@ jobject analyzeNativeLib(JNIEnv *env, jclass, jstring lib, char *soFileContent =
     {
         string framework = NativeLibAnalyzer::getFrameworkFromKnownSharedLibs(libNameStr);
         if (framework.size() > 0) {
-            frameworks.insert(framework);
+            result.frameworks.insert(framework);
             knownSharedLib = true;
         }
     }
@@ -125,9 +141,7 @@ jobject analyzeNativeLib(JNIEnv *env, jclass, jstring lib, char *soFileContent =
             else soFileLength = length;
         }
     }
-
-    env->ReleaseStringUTFChars(lib, libName);
-
+    result.size = soFileLength;
 
     if (fd > -1 || !analyzingFile) {
         elf_version(EV_CURRENT);
@@ -140,17 +154,13 @@ jobject analyzeNativeLib(JNIEnv *env, jclass, jstring lib, char *soFileContent =
             elf = elf_memory(soFileContent, (size_t) soFileLength);
 
         if (elf != nullptr) {
-            abi = NativeLibAnalyzer::getAbi(elf);
+            result.abi = NativeLibAnalyzer::getAbi(elf);
 
-            NativeLibAnalyzer::analyzeLibElfEntries(elf, entryPoints, frameworks, dependencies,
-                                                    knownSharedLib);
+            NativeLibAnalyzer::analyzeLibElfEntries(elf, result.abi, result.entryPoints, result.frameworks,
+                                                    result.dependencies, knownSharedLib, deadlineNanos);
 
-            if (libNameStr.find("libunity") != string::npos) { // get Unity version
-                const string unityVersion = NativeLibAnalyzer::getUnityVersion(elf, fd,
-                                                                               soFileContent);
-                if (unityVersion.size() > 0)
-                    frameworks.insert("Unity " + unityVersion);
-            }
+            if (!NativeLibAnalyzer::isExpired(deadlineNanos))
+                NativeLibAnalyzer::addRoDataVersions(elf, fd, soFileContent, result.frameworks);
 
             elf_end(elf);
         }
@@ -165,79 +175,430 @@ jobject analyzeNativeLib(JNIEnv *env, jclass, jstring lib, char *soFileContent =
             close(fd);
         }
     }
+    result.timedOut = NativeLibAnalyzer::isExpired(deadlineNanos);
 
 #ifdef EXTRACT_SYMBOLS_TO_FILE
     myfile.close();
 #endif
+}
+
+jobject analyzeNativeLib(JNIEnv *env, jclass, jstring lib, jlong deadlineNanos, char *soFileContent = nullptr,
+                         jlong soFileLength = 0) {
+    jobject result = nullptr;
+    NativeLibResult nativeLib;
+
+    const char *libName = env->GetStringUTFChars(lib, nullptr);
+    analyzeNativeLib(libName, soFileContent, soFileLength, deadlineNanos, nativeLib);
+    env->ReleaseStringUTFChars(lib, libName);
 
     try {
-        result = createNativeLibObject(env, soFileLength, abi, entryPoints, frameworks,
-                                       dependencies);
+        result = createNativeLibObject(env, nativeLib);
     }
     catch (const runtime_error &e) {
         result = nullptr;
-        env->ThrowNew(env->FindClass("java/lang/RuntimeException"), e.what());
+        env->ThrowNew(runtimeExceptionClass, e.what());
     }
 
     return result;
 }
 
-jobject analyzeNativeLibFromFile(JNIEnv *env, jclass clazz, jstring lib) {
-    return analyzeNativeLib(env, clazz, lib);
+jobject analyzeNativeLibFromFile(JNIEnv *env, jclass clazz, jstring lib, jlong deadlineNanos) {
+    return analyzeNativeLib(env, clazz, lib, deadlineNanos);
 }
 
 jobject analyzeNativeLibFromJavaMemory(JNIEnv *env, jclass clazz, jstring lib,
-                                       jbyteArray soFileContent, jlong numBytes) {
+                                       jbyteArray soFileContent, jlong numBytes, jlong deadlineNanos) {
     char *bytes = reinterpret_cast<char *>(env->GetByteArrayElements(soFileContent, nullptr));
-    jobject result = analyzeNativeLib(env, clazz, lib, bytes, numBytes);
+    jobject result = analyzeNativeLib(env, clazz, lib, deadlineNanos, bytes, numBytes);
     env->ReleaseByteArrayElements(soFileContent, reinterpret_cast<jbyte *>(bytes), JNI_ABORT);
     return result;
 }
 
-jobject analyzeNativeLibFromJavaInputStream(JNIEnv *env, jclass clazz, jstring lib,
-                                            jobject soFileInputStream, jlong numBytes,
-                                            jbyteArray buffer) {
-    char *soFileContent = new char[numBytes];
+static const int ZIP_METHOD_STORED = 0;
+static const int ZIP_METHOD_DEFLATED = 8;
+static const size_t ZIP_LOCAL_HEADER_SIZE = 30;
+static const size_t INFLATE_CHUNK_SIZE = 64 * 1024;
+// libs up to this size are inflated into a buffer kept by each thread, larger ones into a buffer of their own
+// reserved from the MemoryBudget: MemoryBudget.ARENA_MAX_SIZE.
+static const size_t INFLATE_ARENA_MAX_SIZE = 1024 * 1024;
+
+static thread_local vector<char> inflateArena;
+
+static bool preadFully(int fd, void *buffer, size_t count, off64_t offset) {
+    auto *dst = static_cast<unsigned char *>(buffer);
+    while (count > 0) {
+        ssize_t ret = pread64(fd, dst, count, offset);
+        if (ret < 0 && errno == EINTR)
+            continue;
+        if (ret <= 0)
+            return false;
+        dst += ret;
+        count -= (size_t) ret;
+        offset += ret;
+    }
+    return true;
+}
 
-    jclass inputStreamClass = env->FindClass("java/io/InputStream");
-    jmethodID readMethod = env->GetMethodID(inputStreamClass, "read", "([B)I");
+static off64_t getZipEntryDataOffset(int fd, off64_t localHeaderOffset) {
+    unsigned char header[ZIP_LOCAL_HEADER_SIZE];
+    if (!preadFully(fd, header, sizeof(header), localHeaderOffset))
+        return -1;
 
-    jint bytesRead = 0;
-    jint ret = 0;
-    while (ret >= 0) {
-        ret = env->CallIntMethod(soFileInputStream, readMethod, buffer);
-        if (ret > 0) {
-            if (bytesRead + ret <= numBytes) {
-                env->GetByteArrayRegion(buffer, 0, ret,
-                                        reinterpret_cast<jbyte *>(soFileContent) + bytesRead);
-            }
-            bytesRead += ret;
+    if (header[0] != 'P' || header[1] != 'K' || header[2] != 3 || header[3] != 4)
+        return -1;
+
+    // name and extra field lengths of the local header can differ from the central directory ones.
+    const size_t nameLength = header[26] | (header[27] << 8);
+    const size_t extraLength = header[28] | (header[29] << 8);
+    return localHeaderOffset + ZIP_LOCAL_HEADER_SIZE + nameLength + extraLength;
+}
+
+static bool inflateZipEntry(int fd, off64_t dataOffset, jlong compressedSize, char *out, jlong size,
+                            int64_t deadlineNanos) {
+    z_stream stream = {};
+    if (inflateInit2(&stream, -MAX_WBITS) != Z_OK) // raw deflate data, without zlib header.
+        return false;
+
+    vector<unsigned char> in(INFLATE_CHUNK_SIZE);
+    stream.next_out = reinterpret_cast<Bytef *>(out);
+    stream.avail_out = (uInt) size;
+
+    off64_t position = dataOffset;
+    jlong remaining = compressedSize;
+    int ret = Z_OK;
+    while (ret == Z_OK) {
+        if (stream.avail_in == 0) {
+            if (remaining <= 0 || NativeLibAnalyzer::isExpired(deadlineNanos))
+                break;
+            const size_t chunk = (size_t) min<jlong>(remaining, (jlong) in.size());
+            if (!preadFully(fd, in.data(), chunk, position))
+                break;
+            position += chunk;
+            remaining -= chunk;
+            stream.next_in = in.data();
+            stream.avail_in = (uInt) chunk;
+        }
+        ret = inflate(&stream, Z_NO_FLUSH);
+    }
+
+    inflateEnd(&stream);
+    return ret == Z_STREAM_END && stream.total_out == (uLong) size;
+}
+
+// maps the data of a STORED entry: since Marshmallow these are page-aligned inside the APK,
+// but we align the mapping ourselves so any stored entry can be parsed without being copied.
+static char *mapZipEntry(int fd, off64_t dataOffset, jlong size, void **mapping, size_t *mappingLength) {
+    const off64_t pageSize = sysconf(_SC_PAGESIZE);
+    const off64_t alignedOffset = dataOffset & ~(pageSize - 1);
+    const size_t delta = (size_t) (dataOffset - alignedOffset);
+
+    // private writable mapping: libelf may convert data in place, this must never reach the APK.
+    void *address = mmap64(nullptr, (size_t) size + delta, PROT_READ | PROT_WRITE, MAP_PRIVATE,
+                           fd, alignedOffset);
+    if (address == MAP_FAILED)
+        return nullptr;
+
+    *mapping = address;
+    *mappingLength = (size_t) size + delta;
+    return static_cast<char *>(address) + delta;
+}
+
+// content of a zip entry: mapped when STORED, inflated into a heap buffer when DEFLATED.
+class ZipEntryContent {
+public:
+    char *data = nullptr;
+
+    ZipEntryContent() = default;
+
+    ZipEntryContent(const ZipEntryContent &) = delete;
+
+    ZipEntryContent &operator=(const ZipEntryContent &) = delete;
+
+    ~ZipEntryContent() {
+        if (mapping != nullptr)
+            munmap(mapping, mappingLength);
+        delete[] ownedData;
+    }
+
+    bool read(int apkFd, jlong localHeaderOffset, jint compressionMethod, jlong compressedSize, jlong numBytes,
+              int64_t deadlineNanos) {
+        const off64_t dataOffset = getZipEntryDataOffset(apkFd, localHeaderOffset);
+        if (dataOffset < 0 || numBytes <= 0 || compressedSize < 0)
+            return false;
+
+        // libelf reads mapped entries without bounds of its own: a range past the end of a truncated APK would fault.
+        struct stat64 apkStat;
+        const jlong dataLength = compressionMethod == ZIP_METHOD_STORED ? numBytes : compressedSize;
+        if (fstat64(apkFd, &apkStat) != 0 || dataOffset > apkStat.st_size || dataLength > apkStat.st_size - dataOffset)
+            return false;
+
+        if (compressionMethod == ZIP_METHOD_STORED) {
+            data = mapZipEntry(apkFd, dataOffset, numBytes, &mapping, &mappingLength);
+            if (data != nullptr)
+                return true;
+            // couldn't map the entry, fall back to reading it.
+            data = allocate(numBytes);
+            return preadFully(apkFd, data, (size_t) numBytes, dataOffset);
+        } else if (compressionMethod == ZIP_METHOD_DEFLATED) {
+            data = allocate(numBytes);
+            return inflateZipEntry(apkFd, dataOffset, compressedSize, data, numBytes, deadlineNanos);
         }
+        return false;
     }
 
-    jobject result = analyzeNativeLib(env, clazz, lib, soFileContent, numBytes);
-    delete[] soFileContent;
+private:
+    void *mapping = nullptr;
+    size_t mappingLength = 0;
+    char *ownedData = nullptr;
+
+    char *allocate(jlong size) {
+        if ((size_t) size <= INFLATE_ARENA_MAX_SIZE) {
+            if (inflateArena.size() < (size_t) size)
+                inflateArena.resize((size_t) size);
+            return inflateArena.data();
+        }
+        ownedData = new char[size];
+        return ownedData;
+    }
+};
+
+static void analyzeZipEntry(int apkFd, const char *libName, jlong localHeaderOffset, jint compressionMethod,
+                            jlong compressedSize, jlong numBytes, int64_t deadlineNanos, NativeLibResult &result) {
+    ZipEntryContent content;
+    if (content.read(apkFd, localHeaderOffset, compressionMethod, compressedSize, numBytes, deadlineNanos)) {
+        analyzeNativeLib(libName, content.data, numBytes, deadlineNanos, result);
+    } else {
+        LOGW("couldn't read zip entry at offset %lld.", (long long) localHeaderOffset);
+        result.size = numBytes;
+        result.timedOut = NativeLibAnalyzer::isExpired(deadlineNanos);
+    }
+}
+
+jobject analyzeNativeLibFromApk(JNIEnv *env, jclass, jstring lib, jint apkFd,
+                                jlong localHeaderOffset, jint compressionMethod,
+                                jlong compressedSize, jlong numBytes, jlong deadlineNanos) {
+    jobject result = nullptr;
+    NativeLibResult nativeLib;
+
+    const char *libName = env->GetStringUTFChars(lib, nullptr);
+    analyzeZipEntry(apkFd, libName, localHeaderOffset, compressionMethod, compressedSize, numBytes, deadlineNanos,
+                    nativeLib);
+    env->ReleaseStringUTFChars(lib, libName);
+
+    try {
+        result = createNativeLibObject(env, nativeLib);
+    }
+    catch (const runtime_error &e) {
+        result = nullptr;
+        env->ThrowNew(runtimeExceptionClass, e.what());
+    }
     return result;
 }
 
-jstring getNativeBridgeVersion(JNIEnv *env, jclass) {
+// packs results as decoded by JniNativeLibAnalyzerEngine.decodeResults(), in native byte order.
+class ResultsWriter {
+public:
+    void addLib(const NativeLibResult &lib) {
+        write(lib.size);
+        write((jint) lib.abi);
+        write((jint) lib.timedOut);
+        writeStrings(lib.entryPoints);
+        writeStrings(lib.frameworks);
+        writeStrings(lib.dependencies);
+    }
+
+    // returns a malloc'ed buffer holding the string table followed by the libs.
+    unsigned char *finish(size_t *length) {
+        size_t stringsLength = sizeof(jint);
+        for (const string *str : strings)
+            stringsLength += sizeof(jint) + str->size();
+
+        *length = stringsLength + libs.size();
+        auto *buffer = static_cast<unsigned char *>(malloc(*length));
+        if (buffer == nullptr)
+            return nullptr;
+
+        unsigned char *position = buffer;
+        const jint stringCount = (jint) strings.size();
+        memcpy(position, &stringCount, sizeof(stringCount));
+        position += sizeof(stringCount);
+        for (const string *str : strings) {
+            const jint strLength = (jint) str->size();
+            memcpy(position, &strLength, sizeof(strLength));
+            position += sizeof(strLength);
+            memcpy(position, str->data(), str->size());
+            position += str->size();
+        }
+        memcpy(position, libs.data(), libs.size());
+        return buffer;
+    }
+
+private:
+    // string -> index in the string table, each string being stored only once.
+    unordered_map<string, jint> indexes;
+    vector<const string *> strings;
+    vector<unsigned char> libs;
+
+    template<typename T>
+    void write(T value) {
+        const auto *bytes = reinterpret_cast<const unsigned char *>(&value);
+        libs.insert(libs.end(), bytes, bytes + sizeof(value));
+    }
+
+    template<typename T>
+    void writeStrings(const T &stringsContainer) {
+        write((jint) stringsContainer.size());
+        for (const string &str : stringsContainer) {
+            const auto inserted = indexes.emplace(str, (jint) strings.size());
+            if (inserted.second)
+                strings.push_back(&inserted.first->first);
+            write(inserted.first->second);
+        }
+    }
+};
+
+// each lib gets libraryTimeoutNanos, within appDeadlineNanos. The deadline object is only polled for cancellation
+// between libs, calling back into Java being too costly for the symbol loops.
+// DEFLATED libs larger than the inflate arena are inflated once memoryBudget has room for them before their own
+// deadline, or reported as timed out if it never had.
+// an exception thrown by any of those calls back into Java is left pending and nullptr returned.
+jobject analyzeNativeLibsFromApk(JNIEnv *env, jclass, jint apkFd, jobjectArray libs,
+                                 jlongArray entries, jobject deadline, jlong appDeadlineNanos,
+                                 jlong libraryTimeoutNanos, jobject memoryBudget) {
+    const jsize libsCount = env->GetArrayLength(libs);
+    jlong *packedEntries = env->GetLongArrayElements(entries, nullptr);
+    if (packedEntries == nullptr)
+        return nullptr;
+    ResultsWriter writer;
+
+    for (jsize i = 0; i < libsCount; ++i) {
+        const jlong *entry = packedEntries + i * 4; // localHeaderOffset, compressionMethod, compressedSize, numBytes
+        NativeLibResult nativeLib;
+        const bool expired = NativeLibAnalyzer::isExpired(appDeadlineNanos)
+                             || env->CallBooleanMethod(deadline, deadlineIsCancelledMethod);
+        if (env->ExceptionCheck()) {
+            env->ReleaseLongArrayElements(entries, packedEntries, JNI_ABORT);
+            return nullptr;
+        }
+        if (expired) {
+            nativeLib.size = entry[3];
+            nativeLib.timedOut = true;
+            writer.addLib(nativeLib);
+            continue;
+        }
+
+        int64_t libraryDeadlineNanos = appDeadlineNanos;
+        if (libraryTimeoutNanos != NativeLibAnalyzer::noDeadline)
+            libraryDeadlineNanos = min<int64_t>(appDeadlineNanos, NativeLibAnalyzer::nowNanos() + libraryTimeoutNanos);
+
+        const bool budgeted = entry[1] == ZIP_METHOD_DEFLATED && (uint64_t) entry[3] > INFLATE_ARENA_MAX_SIZE;
+        const bool acquired = budgeted && env->CallBooleanMethod(memoryBudget, memoryBudgetAcquireMethod, entry[3],
+                                                                 deadline, (jlong) libraryDeadlineNanos);
+        if (env->ExceptionCheck()) {
+            env->ReleaseLongArrayElements(entries, packedEntries, JNI_ABORT);
+            return nullptr;
+        }
+        if (budgeted && !acquired) {
+            nativeLib.size = entry[3];
+            nativeLib.timedOut = true;
+            writer.addLib(nativeLib);
+            continue;
+        }
+
+        auto lib = static_cast<jstring>(env->GetObjectArrayElement(libs, i));
+        const char *libName = lib != nullptr ? env->GetStringUTFChars(lib, nullptr) : nullptr;
+        if (libName != nullptr) {
+            analyzeZipEntry(apkFd, libName, entry[0], (jint) entry[1], entry[2], entry[3], libraryDeadlineNanos, nativeLib);
+            env->ReleaseStringUTFChars(lib, libName);
+        } else // a failure record, so the results stay aligned with the entries. Out of memory, nullptr is returned below.
+            nativeLib.size = entry[3];
+        writer.addLib(nativeLib);
+        if (lib != nullptr)
+            env->DeleteLocalRef(lib);
+        // the budget is given back even with an exception pending, release() being safe to call then.
+        if (budgeted) {
+            jthrowable pending = env->ExceptionOccurred();
+            if (pending != nullptr)
+                env->ExceptionClear();
+            env->CallVoidMethod(memoryBudget, memoryBudgetReleaseMethod, entry[3]);
+            if (pending != nullptr) {
+                env->Throw(pending);
+                env->DeleteLocalRef(pending);
+            }
+        }
+        if (env->ExceptionCheck()) {
+            env->ReleaseLongArrayElements(entries, packedEntries, JNI_ABORT);
+            return nullptr;
+        }
+    }
+    env->ReleaseLongArrayElements(entries, packedEntries, JNI_ABORT);
+
+    size_t length = 0;
+    unsigned char *results = writer.finish(&length);
+    if (results == nullptr) {
+        env->ThrowNew(runtimeExceptionClass, "Couldn't allocate native libs analysis results.");
+        return nullptr;
+    }
+    return env->NewDirectByteBuffer(results, (jlong) length);
+}
+
+void releaseResults(JNIEnv *env, jclass, jobject results) {
+    free(env->GetDirectBufferAddress(results));
+}
+
+jstring getHoudiniVersion(JNIEnv *env, jclass) {
     return env->NewStringUTF(NativeLibAnalyzer::getHoudiniVersion().c_str());
 }
 
 static JNINativeMethod exposedMethods[] = {
-        {"analyzeNativeLib",       "(Ljava/lang/String;)Lcom/xh/nativelibsmonitor/lib/NativeLibrary;",                         (void *) analyzeNativeLibFromFile},
-        {"analyzeNativeLib",       "(Ljava/lang/String;[BJ)Lcom/xh/nativelibsmonitor/lib/NativeLibrary;",                      (void *) analyzeNativeLibFromJavaMemory},
-        {"analyzeNativeLib",       "(Ljava/lang/String;Ljava/io/InputStream;J[B)Lcom/xh/nativelibsmonitor/lib/NativeLibrary;", (void *) analyzeNativeLibFromJavaInputStream},
-        {"getNativeBridgeVersion", "()Ljava/lang/String;",                                                                     (void *) getNativeBridgeVersion},
+        {"analyzeNativeLibFile",   "(Ljava/lang/String;J)Lcom/xh/nativelibsmonitor/lib/NativeLibrary;",                        (void *) analyzeNativeLibFromFile},
+        {"analyzeNativeLib",       "(Ljava/lang/String;[BJJ)Lcom/xh/nativelibsmonitor/lib/NativeLibrary;",                     (void *) analyzeNativeLibFromJavaMemory},
+        {"analyzeNativeLib",       "(Ljava/lang/String;IJIJJJ)Lcom/xh/nativelibsmonitor/lib/NativeLibrary;", (void *) analyzeNativeLibFromApk},
+        {"analyzeNativeLibs",      "(I[Ljava/lang/String;[JLcom/xh/nativelibsmonitor/lib/AnalysisDeadline;JJLcom/xh/nativelibsmonitor/lib/MemoryBudget;)Ljava/nio/ByteBuffer;", (void *) analyzeNativeLibsFromApk},
+        {"releaseResults",         "(Ljava/nio/ByteBuffer;)V",                                                                 (void *) releaseResults},
+        {"getHoudiniVersion",      "()Ljava/lang/String;",                                                                     (void *) getHoudiniVersion},
 };
 
+static jclass findGlobalClass(JNIEnv *env, const char *name) {
+    jclass localClass = env->FindClass(name);
+    if (localClass == nullptr)
+        return nullptr;
+    auto globalClass = static_cast<jclass>(env->NewGlobalRef(localClass));
+    env->DeleteLocalRef(localClass);
+    return globalClass;
+}
+
 jint JNI_OnLoad(JavaVM *vm, void *) {
     JNIEnv *env;
     if (vm->GetEnv(reinterpret_cast<void **>(&env), JNI_VERSION_1_6) != JNI_OK) {
         return -1;
     }
 
-    jclass clazz = env->FindClass("com/xh/nativelibsmonitor/lib/AppAnalyzer");
+    stringClass = findGlobalClass(env, "java/lang/String");
+    nativeLibObjectClass = findGlobalClass(env, "com/xh/nativelibsmonitor/lib/NativeLibrary");
+    runtimeExceptionClass = findGlobalClass(env, "java/lang/RuntimeException");
+    if (stringClass == nullptr || nativeLibObjectClass == nullptr || runtimeExceptionClass == nullptr) return JNI_ERR;
+    nativeLibObjectConstructor = env->GetMethodID(nativeLibObjectClass, "<init>",
+                                                  "(JI[Ljava/lang/String;[Ljava/lang/String;[Ljava/lang/String;)V");
+    if (nativeLibObjectConstructor == nullptr) return JNI_ERR;
+    nativeLibTimedOutFieldId = env->GetFieldID(nativeLibObjectClass, "timedOut", "Z");
+    if (nativeLibTimedOutFieldId == nullptr) return JNI_ERR;
+
+    jclass deadlineClass = env->FindClass("com/xh/nativelibsmonitor/lib/AnalysisDeadline");
+    if (deadlineClass == nullptr) return JNI_ERR;
+    deadlineIsCancelledMethod = env->GetMethodID(deadlineClass, "isCancelled", "()Z");
+    env->DeleteLocalRef(deadlineClass);
+    if (deadlineIsCancelledMethod == nullptr) return JNI_ERR;
+
+    jclass memoryBudgetClass = env->FindClass("com/xh/nativelibsmonitor/lib/MemoryBudget");
+    if (memoryBudgetClass == nullptr) return JNI_ERR;
+    memoryBudgetAcquireMethod = env->GetMethodID(memoryBudgetClass, "acquire",
+                                                 "(JLcom/xh/nativelibsmonitor/lib/AnalysisDeadline;J)Z");
+    memoryBudgetReleaseMethod = env->GetMethodID(memoryBudgetClass, "release", "(J)V");
+    env->DeleteLocalRef(memoryBudgetClass);
+    if (memoryBudgetAcquireMethod == nullptr || memoryBudgetReleaseMethod == nullptr) return JNI_ERR;
+
+    jclass clazz = env->FindClass("com/xh/nativelibsmonitor/lib/JniNativeLibAnalyzerEngine");
     if (clazz == nullptr) return JNI_ERR;
     env->RegisterNatives(clazz, exposedMethods, sizeof(exposedMethods) / sizeof(JNINativeMethod));
     env->DeleteLocalRef(clazz);
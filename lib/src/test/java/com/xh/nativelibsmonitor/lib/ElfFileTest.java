@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.lib;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ElfFileTest {
+    @Test
+    public void parsesElf64Header() throws IOException {
+        final ElfFile elf = ElfFixtures.parse(ElfFixtures.LIB64);
+        assertTrue(elf.is64);
+        assertEquals(ElfFile.EM_X86_64, elf.machine);
+        assertEquals(ABI.x86_64, elf.getAbi());
+    }
+
+    @Test
+    public void parsesElf32Header() throws IOException {
+        final ElfFile elf = ElfFixtures.parse(ElfFixtures.LIB32);
+        assertFalse(elf.is64);
+        assertEquals(ElfFile.EM_386, elf.machine);
+        assertEquals(ABI.x86, elf.getAbi());
+    }
+
+    @Test
+    public void rejectsNonElfAndTruncatedHeaders() throws IOException {
+        assertNull(ElfFile.parse(ByteBuffer.wrap("not an ELF file, only text".getBytes(Charset.forName("UTF-8")))));
+        assertNull(ElfFile.parse(ByteBuffer.wrap(Arrays.copyOf(ElfFixtures.read(ElfFixtures.LIB64), 52))));
+        assertNotNull(ElfFile.parse(ByteBuffer.wrap(Arrays.copyOf(ElfFixtures.read(ElfFixtures.LIB32), 52))));
+    }
+
+    @Test
+    public void namesSections() throws IOException {
+        for (final String lib : new String[]{ElfFixtures.LIB64, ElfFixtures.LIB32}) {
+            final Map<String, ElfFile.Section> sections = getSectionsByName(ElfFixtures.parse(lib));
+            assertEquals(lib, ElfFile.SHT_DYNSYM, sections.get(".dynsym").type);
+            assertEquals(lib, ElfFile.SHT_DYNAMIC, sections.get(".dynamic").type);
+            assertEquals(lib, ElfFile.SHT_SYMTAB, sections.get(".symtab").type);
+            assertEquals(lib, ElfFile.SHT_PROGBITS, sections.get(".rodata").type);
+            assertEquals(lib, ElfFile.SHT_GNU_HASH, sections.get(".gnu.hash").type);
+            assertEquals(lib, ElfFile.SHT_HASH, sections.get(".hash").type);
+        }
+    }
+
+    @Test
+    public void strippedLibsHaveNoSymbolTable() throws IOException {
+        for (final String lib : new String[]{"libsample64_stripped.so", "libsample32_stripped.so"}) {
+            final Map<String, ElfFile.Section> sections = getSectionsByName(ElfFixtures.parse(lib));
+            assertFalse(lib, sections.containsKey(".symtab"));
+            assertTrue(lib, sections.containsKey(".dynsym"));
+        }
+    }
+
+    @Test
+    public void readsSymbolsAndDynamicEntries() throws IOException {
+        for (final String lib : new String[]{ElfFixtures.LIB64, ElfFixtures.LIB32}) {
+            final ElfFile elf = ElfFixtures.parse(lib);
+            final Map<String, ElfFile.Section> sections = getSectionsByName(elf);
+
+            final ElfFile.Section dynsym = sections.get(".dynsym");
+            final ElfFile.Section dynstr = elf.getSection(dynsym.link);
+            final ElfFile.Symbol symbol = new ElfFile.Symbol();
+            boolean found = false;
+            for (int i = 0; i < elf.getSymbolCount(dynsym); ++i) {
+                elf.readSymbol(dynsym, i, symbol);
+                found |= "JNI_OnLoad".equals(elf.getString(dynstr, symbol.nameOffset & 0xffffffffL));
+            }
+            assertTrue(lib, found);
+
+            final ElfFile.Section dynamic = sections.get(".dynamic");
+            final ElfFile.Section strings = elf.getSection(dynamic.link);
+            String needed = null;
+            for (int i = 0; i < elf.getDynamicEntryCount(dynamic); ++i) {
+                if (elf.getDynamicTag(dynamic, i) == ElfFile.DT_NEEDED)
+                    needed = elf.getString(strings, elf.getDynamicValue(dynamic, i));
+            }
+            assertEquals(lib, "libdep.so", needed);
+            assertNull(lib, elf.getString(strings, strings.size));
+        }
+    }
+
+    @Test
+    public void sectionHeadersEndWithinFile() throws IOException {
+        for (final String lib : new String[]{ElfFixtures.LIB64, ElfFixtures.LIB32}) {
+            final byte[] content = ElfFixtures.read(lib);
+            final ElfFile elf = ElfFixtures.parse(lib);
+            assertTrue(lib, elf.getSectionHeadersEnd() <= content.length);
+            assertEquals(lib, ".shstrtab", elf.getSectionName(elf.getSectionNames()));
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void sectionsPastTheBufferThrow() throws IOException {
+        final ElfFile elf = ElfFile.parse(ByteBuffer.wrap(Arrays.copyOf(ElfFixtures.read(ElfFixtures.LIB64), 64)));
+        assertNotNull(elf);
+        elf.getSections();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidSectionIndexThrows() throws IOException {
+        final ElfFile elf = ElfFixtures.parse(ElfFixtures.LIB64);
+        elf.getSection(elf.getSections().size());
+    }
+
+    private static Map<String, ElfFile.Section> getSectionsByName(ElfFile elf) {
+        final Map<String, ElfFile.Section> sections = new HashMap<>();
+        for (final ElfFile.Section section : elf.getSections()) {
+            sections.put(elf.getSectionName(section), section);
+        }
+        return sections;
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.lib;
+
+import android.support.annotation.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * The fixture libs under resources/.../elf, built from sample.c as described in libelf_expected.txt, and the zip files
+ * tests pack them into.
+ */
+final class ElfFixtures {
+    static final String LIB64 = "libsample64_both.so";
+    static final String LIB32 = "libsample32_both.so";
+    static final String[] HASH_STYLES = {"both", "gnu", "sysv"};
+    static final String EXPECTED = "libelf_expected.txt";
+
+    private ElfFixtures() {
+        throw new AssertionError();
+    }
+
+    @NonNull
+    static byte[] read(@NonNull String name) throws IOException {
+        try (InputStream in = ElfFixtures.class.getResourceAsStream("elf/" + name)) {
+            if (in == null)
+                throw new IOException(name + " not found");
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    @NonNull
+    static ElfFile parse(@NonNull String name) throws IOException {
+        final ElfFile elf = ElfFile.parse(ByteBuffer.wrap(read(name)));
+        if (elf == null)
+            throw new IOException(name + " isn't an ELF file");
+        return elf;
+    }
+
+    /**
+     * Writes entries into a zip file, all with the same compression method.
+     */
+    static void writeZip(@NonNull File file, @NonNull Map<String, byte[]> entries, int method) throws IOException {
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+            for (final Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                final ZipEntry zipEntry = new ZipEntry(entry.getKey());
+                zipEntry.setMethod(method == ZipCentralDirectory.METHOD_STORED ? ZipEntry.STORED : ZipEntry.DEFLATED);
+                if (method == ZipCentralDirectory.METHOD_STORED) { // STORED entries need their sizes and CRC upfront.
+                    final CRC32 crc = new CRC32();
+                    crc.update(entry.getValue());
+                    zipEntry.setSize(entry.getValue().length);
+                    zipEntry.setCompressedSize(entry.getValue().length);
+                    zipEntry.setCrc(crc.getValue());
+                }
+                out.putNextEntry(zipEntry);
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+        }
+    }
+}
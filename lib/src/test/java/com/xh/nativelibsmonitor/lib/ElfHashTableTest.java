@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.lib;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ElfHashTableTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void findsDefinedSymbols() throws IOException {
+        for (final String lib : getLibs()) {
+            final ElfHashTable hashTable = ElfHashTable.find(ElfFixtures.parse(lib));
+            assertNotNull(lib, hashTable);
+
+            final ElfFile.Symbol symbol = new ElfFile.Symbol();
+            for (final String name : new String[]{"JNI_OnLoad", "Java_com_example_Native_call", "zlibVersion"}) {
+                assertTrue(lib + " " + name, hashTable.lookup(name.getBytes(UTF_8), symbol));
+                assertNotEquals(lib + " " + name, 0, symbol.sectionIndex);
+                assertNotEquals(lib + " " + name, 0, symbol.value);
+            }
+        }
+    }
+
+    @Test
+    public void missesOtherSymbols() throws IOException {
+        for (final String lib : getLibs()) {
+            final ElfHashTable hashTable = ElfHashTable.find(ElfFixtures.parse(lib));
+            assertNotNull(lib, hashTable);
+
+            final ElfFile.Symbol symbol = new ElfFile.Symbol();
+            // a prefix of a symbol, a local symbol only in .symtab, and a missing one.
+            for (final String name : new String[]{"JNI_On", "__intel_cpu_features_init_x", "png_flush"}) {
+                assertFalse(lib + " " + name, hashTable.lookup(name.getBytes(UTF_8), symbol));
+            }
+        }
+    }
+
+    // every hash style, .gnu.hash only, .hash only or both, in ELF64 and ELF32 files.
+    private static String[] getLibs() {
+        final String[] libs = new String[ElfFixtures.HASH_STYLES.length * 2];
+        for (int i = 0; i < ElfFixtures.HASH_STYLES.length; ++i) {
+            libs[2 * i] = "libsample64_" + ElfFixtures.HASH_STYLES[i] + ".so";
+            libs[2 * i + 1] = "libsample32_" + ElfFixtures.HASH_STYLES[i] + ".so";
+        }
+        return libs;
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.lib;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Checks the Java engine against the analysis of the libelf engine, recorded in libelf_expected.txt, for libs packed
+ * both STORED and DEFLATED. In dynamic mode, the fixture libs only lose their .symtab and .rodata findings.
+ */
+public class JavaNativeLibAnalyzerEngineTest {
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void storedLibsMatchLibelf() throws IOException {
+        checkAgainstLibelf(ZipCentralDirectory.METHOD_STORED);
+    }
+
+    @Test
+    public void deflatedLibsMatchLibelf() throws IOException {
+        checkAgainstLibelf(ZipCentralDirectory.METHOD_DEFLATED);
+    }
+
+    @Test
+    public void dynamicModeReadsDynamicSymbols() throws IOException {
+        final Map<String, String> expected = readExpected();
+        final JavaNativeLibAnalyzerEngine engine = new JavaNativeLibAnalyzerEngine(AnalysisMode.dynamic);
+        try (ApkFile stored = new ApkFile(writeApk(expected, ZipCentralDirectory.METHOD_STORED).getPath());
+             ApkFile deflated = new ApkFile(writeApk(expected, ZipCentralDirectory.METHOD_DEFLATED).getPath())) {
+            final List<ZipCentralDirectory.Entry> storedEntries = stored.getEntries();
+            final List<ZipCentralDirectory.Entry> deflatedEntries = deflated.getEntries();
+            assertEquals(expected.size(), deflatedEntries.size());
+            for (int i = 0; i < deflatedEntries.size(); ++i) {
+                final ZipCentralDirectory.Entry entry = deflatedEntries.get(i);
+                final String name = entry.name.substring(entry.name.lastIndexOf('/') + 1);
+                final NativeLibrary nativeLibrary = engine.analyzeNativeLib(deflated, entry, AnalysisDeadline.NONE);
+                assertFalse(name, nativeLibrary.timedOut);
+                assertEquals(entry.size, nativeLibrary.size);
+                assertEquals(name, expected.get(name).replace("Intel Compiler, ", "").replace(", zlib 1.2.11", ""),
+                        describe(nativeLibrary));
+                // the same bytes are read whether the lib is mapped or inflated, cached results don't depend on it.
+                assertEquals(name, describe(nativeLibrary),
+                        describe(engine.analyzeNativeLib(stored, storedEntries.get(i), AnalysisDeadline.NONE)));
+            }
+        }
+    }
+
+    @Test
+    public void dynamicModeMatchesForInstalledLibs() throws IOException {
+        final JavaNativeLibAnalyzerEngine engine = new JavaNativeLibAnalyzerEngine(AnalysisMode.dynamic);
+        for (final String name : readExpected().keySet()) {
+            final File lib = mFolder.newFile(name);
+            Files.write(lib.toPath(), ElfFixtures.read(name));
+            final Map<String, byte[]> contents = new LinkedHashMap<>();
+            contents.put("lib/x86/" + name, ElfFixtures.read(name));
+            final File apkFile = mFolder.newFile();
+            ElfFixtures.writeZip(apkFile, contents, ZipCentralDirectory.METHOD_DEFLATED);
+            try (ApkFile apk = new ApkFile(apkFile.getPath())) {
+                assertEquals(name, describe(engine.analyzeNativeLib(apk, apk.getEntries().get(0), AnalysisDeadline.NONE)),
+                        describe(engine.analyzeNativeLib(lib.getPath(), AnalysisDeadline.NONE)));
+            }
+        }
+    }
+
+    @Test
+    public void batchMatchesSingleAnalysis() throws IOException {
+        final Map<String, String> expected = readExpected();
+        final JavaNativeLibAnalyzerEngine engine = new JavaNativeLibAnalyzerEngine();
+        try (ApkFile apk = new ApkFile(writeApk(expected, ZipCentralDirectory.METHOD_DEFLATED).getPath())) {
+            final List<ZipCentralDirectory.Entry> entries = apk.getEntries();
+            final List<NativeLibrary> nativeLibraries = engine.analyzeNativeLibs(apk, entries, AnalysisDeadline.NONE);
+            assertEquals(entries.size(), nativeLibraries.size());
+            for (int i = 0; i < entries.size(); ++i) {
+                assertEquals(entries.get(i).name, describe(engine.analyzeNativeLib(apk, entries.get(i), AnalysisDeadline.NONE)),
+                        describe(nativeLibraries.get(i)));
+            }
+        }
+    }
+
+    private void checkAgainstLibelf(int method) throws IOException {
+        final Map<String, String> expected = readExpected();
+        final JavaNativeLibAnalyzerEngine engine = new JavaNativeLibAnalyzerEngine();
+        try (ApkFile apk = new ApkFile(writeApk(expected, method).getPath())) {
+            final List<ZipCentralDirectory.Entry> entries = apk.getEntries();
+            assertEquals(expected.size(), entries.size());
+            for (final ZipCentralDirectory.Entry entry : entries) {
+                final String name = entry.name.substring(entry.name.lastIndexOf('/') + 1);
+                final NativeLibrary nativeLibrary = engine.analyzeNativeLib(apk, entry, AnalysisDeadline.NONE);
+                assertFalse(name, nativeLibrary.timedOut);
+                assertEquals(entry.size, nativeLibrary.size);
+                assertEquals(name, expected.get(name), describe(nativeLibrary));
+            }
+        }
+    }
+
+    private File writeApk(Map<String, String> libs, int method) throws IOException {
+        final Map<String, byte[]> contents = new LinkedHashMap<>();
+        for (final String name : libs.keySet()) {
+            contents.put("lib/" + (name.startsWith("libsample64") ? "x86_64/" : "x86/") + name, ElfFixtures.read(name));
+        }
+        final File apk = mFolder.newFile();
+        ElfFixtures.writeZip(apk, contents, method);
+        return apk;
+    }
+
+    // the analysis of each fixture lib, in the format of libelf_expected.txt without the file name.
+    private static Map<String, String> readExpected() throws IOException {
+        final Map<String, String> expected = new LinkedHashMap<>();
+        try (InputStream in = ElfFixtures.class.getResourceAsStream("elf/" + ElfFixtures.EXPECTED);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                final int tab = line.indexOf('\t');
+                expected.put(line.substring(0, tab), line.substring(tab + 1));
+            }
+        }
+        return expected;
+    }
+
+    private static String describe(NativeLibrary nativeLibrary) {
+        return nativeLibrary.abi + "\t" + nativeLibrary.getEntryPoints() + "\t" + nativeLibrary.getFrameworks()
+                + "\t" + nativeLibrary.getDependencies();
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.lib;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RootAccessBrokerTest {
+    private static final String APK1 = "/system/app/One/One.apk";
+    private static final String APK2 = "/system/app/Two/Two.apk";
+
+    // records the commands run, and fails the command numbered failingRun after running its first half.
+    private static final class FakeRootSession implements RootSession {
+        final List<String> mRunCommands = new ArrayList<>();
+        private final int mFailingRun;
+        private int mRuns = 0;
+
+        FakeRootSession(int failingRun) {
+            this.mFailingRun = failingRun;
+        }
+
+        @Override
+        public void run(@NonNull List<String> commands) throws IOException {
+            if (mRuns++ == mFailingRun) {
+                mRunCommands.addAll(commands.subList(0, commands.size() / 2));
+                throw new IOException("chmod: Read-only file system");
+            }
+            mRunCommands.addAll(commands);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @NonNull
+    private static RootAccessBroker newBroker(@NonNull final RootSession session) {
+        return new RootAccessBroker(new RootSession.Factory() {
+            @Override
+            public RootSession open() {
+                return session;
+            }
+        });
+    }
+
+    @Test
+    public void revokesGrantedPaths() {
+        final FakeRootSession session = new FakeRootSession(-1);
+        final RootAccessBroker broker = newBroker(session);
+        final Collection<String> granted = broker.grantReadAccess(Arrays.asList(APK1, APK2));
+        assertEquals(Arrays.asList(APK1, APK2), new ArrayList<>(granted));
+
+        broker.revokeReadAccess(granted);
+        assertEquals(Arrays.asList(
+                "mount -o remount,rw /system/app/One", "mount -o remount,rw /system/app/Two",
+                "chmod 644 " + APK1, "chmod 644 " + APK2,
+                "chmod 640 " + APK1, "chmod 640 " + APK2,
+                "mount -o remount,ro /system/app/One", "mount -o remount,ro /system/app/Two"), session.mRunCommands);
+    }
+
+    @Test
+    public void revertsPathsOfAFailedGrant() {
+        final FakeRootSession session = new FakeRootSession(0);
+        final RootAccessBroker broker = newBroker(session);
+        final Collection<String> granted = broker.grantReadAccess(Arrays.asList(APK1, APK2));
+        // the directories got remounted read-write before the command failed, they must be reverted too.
+        assertEquals(Arrays.asList("mount -o remount,rw /system/app/One", "mount -o remount,rw /system/app/Two"),
+                session.mRunCommands);
+        assertEquals(Arrays.asList(APK1, APK2), new ArrayList<>(granted));
+
+        broker.revokeReadAccess(granted);
+        assertTrue(session.mRunCommands.containsAll(Arrays.asList(
+                "chmod 640 " + APK1, "chmod 640 " + APK2,
+                "mount -o remount,ro /system/app/One", "mount -o remount,ro /system/app/Two")));
+    }
+
+    @Test
+    public void closeRevertsPathsOfAFailedGrant() {
+        final FakeRootSession session = new FakeRootSession(0);
+        final RootAccessBroker broker = newBroker(session);
+        broker.grantReadAccess(Arrays.asList(APK1, APK2));
+
+        broker.close();
+        assertTrue(session.mRunCommands.containsAll(Arrays.asList(
+                "chmod 640 " + APK1, "chmod 640 " + APK2,
+                "mount -o remount,ro /system/app/One", "mount -o remount,ro /system/app/Two")));
+    }
+}
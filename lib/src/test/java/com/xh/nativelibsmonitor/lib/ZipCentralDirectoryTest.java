@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2022 Intel Corporation
+ *       
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *       
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *       
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions
+ * and limitations under the License.
+ *
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.xh.nativelibsmonitor.lib;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ZipCentralDirectoryTest {
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void readsStoredEntries() throws IOException {
+        checkEntries(ZipCentralDirectory.METHOD_STORED);
+    }
+
+    @Test
+    public void readsDeflatedEntries() throws IOException {
+        checkEntries(ZipCentralDirectory.METHOD_DEFLATED);
+    }
+
+    @Test
+    public void filtersEntriesByName() throws IOException {
+        final File zip = writeZip(ZipCentralDirectory.METHOD_DEFLATED);
+        try (RandomAccessFile file = new RandomAccessFile(zip, "r")) {
+            final List<ZipCentralDirectory.Entry> entries = ZipCentralDirectory.read(file.getChannel(), new ZipCentralDirectory.NameFilter() {
+                @Override
+                public boolean accept(ByteBuffer centralDirectory, int nameOffset, int nameLength) {
+                    return centralDirectory.get(nameOffset) == 'l';
+                }
+            });
+            assertEquals(2, entries.size());
+            assertEquals("lib/x86_64/" + ElfFixtures.LIB64, entries.get(0).name);
+            assertEquals("lib/x86/" + ElfFixtures.LIB32, entries.get(1).name);
+        }
+    }
+
+    @Test(expected = ZipException.class)
+    public void rejectsNonZipFiles() throws IOException {
+        final File file = mFolder.newFile();
+        Files.write(file.toPath(), ElfFixtures.read(ElfFixtures.LIB64));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            ZipCentralDirectory.read(raf.getChannel());
+        }
+    }
+
+    @Test
+    public void rejectsEntriesPastTheEndOfTheFile() throws IOException {
+        // the data of the entries is cut short, while the central directory is kept and its offset fixed up.
+        final byte[] zip = Files.readAllBytes(writeZip(ZipCentralDirectory.METHOD_STORED).toPath());
+        final ByteBuffer eocd = ByteBuffer.wrap(zip, zip.length - 22, 22).slice().order(ByteOrder.LITTLE_ENDIAN);
+        final int centralDirectoryOffset = eocd.getInt(16);
+        final int cut = 1024;
+        final byte[] truncated = new byte[cut + zip.length - centralDirectoryOffset];
+        System.arraycopy(zip, 0, truncated, 0, cut);
+        System.arraycopy(zip, centralDirectoryOffset, truncated, cut, zip.length - centralDirectoryOffset);
+        ByteBuffer.wrap(truncated).order(ByteOrder.LITTLE_ENDIAN).putInt(truncated.length - 22 + 16, cut);
+
+        final File file = mFolder.newFile();
+        Files.write(file.toPath(), truncated);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            ZipCentralDirectory.read(raf.getChannel());
+            fail("entries past the end of the file were accepted");
+        } catch (ZipException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("entry past the end of the zip file"));
+        }
+    }
+
+    private void checkEntries(int method) throws IOException {
+        final Map<String, byte[]> contents = getContents();
+        try (ApkFile apk = new ApkFile(writeZip(method).getPath())) {
+            final List<ZipCentralDirectory.Entry> entries = apk.getEntries();
+            assertEquals(contents.size(), entries.size());
+
+            int i = 0;
+            for (final Map.Entry<String, byte[]> expected : contents.entrySet()) {
+                final ZipCentralDirectory.Entry entry = entries.get(i++);
+                final byte[] content = expected.getValue();
+                assertEquals(expected.getKey(), entry.name);
+                assertEquals(method, entry.method);
+                assertEquals(content.length, entry.size);
+                assertEquals(getCrc(content), entry.crc);
+                assertFalse(entry.isDirectory());
+
+                final byte[] read = new byte[content.length];
+                try (InputStream in = apk.getInputStream(entry)) {
+                    new DataInputStream(in).readFully(read);
+                    assertEquals(-1, in.read());
+                }
+                assertArrayEquals(entry.name, content, read);
+            }
+        }
+    }
+
+    private File writeZip(int method) throws IOException {
+        final File zip = mFolder.newFile();
+        ElfFixtures.writeZip(zip, getContents(), method);
+        return zip;
+    }
+
+    private static Map<String, byte[]> getContents() throws IOException {
+        final Map<String, byte[]> contents = new LinkedHashMap<>();
+        contents.put("AndroidManifest.xml", Arrays.copyOf("<manifest/>".getBytes("UTF-8"), 4096));
+        contents.put("lib/x86_64/" + ElfFixtures.LIB64, ElfFixtures.read(ElfFixtures.LIB64));
+        contents.put("lib/x86/" + ElfFixtures.LIB32, ElfFixtures.read(ElfFixtures.LIB32));
+        return contents;
+    }
+
+    private static long getCrc(byte[] content) {
+        final CRC32 crc = new CRC32();
+        crc.update(content);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,7 @@
+const char zlib_copyright[] = " deflate 1.2.11 Copyright 1995-2017 Jean-loup Gailly and Mark Adler ";
+
+static int __attribute__((used, noinline)) __intel_cpu_features_init_x(void) { return 1; }
+
+int JNI_OnLoad(void *vm, void *reserved) { return 0x10006 + __intel_cpu_features_init_x(); }
+int Java_com_example_Native_call(void) { return zlib_copyright[1]; }
+int zlibVersion(void) { return 0; }